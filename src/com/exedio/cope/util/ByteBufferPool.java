@@ -0,0 +1,282 @@
+/*
+ * Copyright (C) 2004-2015  exedio GmbH (www.exedio.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package com.exedio.cope.util;
+
+import static com.exedio.cope.util.Check.requireNonEmpty;
+import static java.util.Objects.requireNonNull;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.noop.NoopCounter;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Pools {@link ByteBuffer buffers} in size classes,
+ * whose capacities are the powers of two between
+ * {@link ByteBufferPoolProperties#getMinSize() minSize} and
+ * {@link ByteBufferPoolProperties#getMaxSize() maxSize}.
+ * Each size class is a separate {@link Pool}.
+ */
+public final class ByteBufferPool
+{
+	private final int minShift;
+	private final int maxSize;
+	private final boolean direct;
+	private final boolean zeroOnPut;
+	/**
+	 * The pool at index {@code i} pools buffers with a capacity of {@code minSize<<i}.
+	 */
+	private final List<Pool<ByteBuffer>> pools;
+
+	private Counter unpooled = noopCounter;
+
+	public ByteBufferPool(final ByteBufferPoolProperties properties)
+	{
+		requireNonNull(properties, "properties");
+
+		this.minShift = Integer.numberOfTrailingZeros(properties.minSize);
+		this.maxSize = properties.maxSize;
+		this.direct = properties.direct;
+		this.zeroOnPut = properties.zeroOnPut;
+		final ArrayList<Pool<ByteBuffer>> pools = new ArrayList<>();
+		for(int size = properties.minSize; size<=maxSize && size>0; size <<= 1)
+			pools.add(new Pool<>(new Factory(size), properties.pool(size), null));
+		this.pools = List.copyOf(pools);
+	}
+
+	/**
+	 * Registers the meters of {@link Pool#register(String, Tags, MeterRegistry)}
+	 * for each size class with an additional tag {@code size}.
+	 * Buffers taken from the pool are counted by {@code usage},
+	 * buffers allocated because the pool had none by {@code create}.
+	 */
+	public void register(
+			final String name,
+			final Tags tags,
+			final MeterRegistry registry)
+	{
+		requireNonEmpty(name, "name");
+		requireNonNull(tags, "tags");
+		requireNonNull(registry, "registry");
+
+		for(int i = 0; i<pools.size(); i++)
+			pools.get(i).register(name, tags.and("size", String.valueOf(size(i))), registry);
+		this.unpooled = Counter.builder(name + ".unpooled").
+				tags(tags).
+				description("ByteBufferPool#get allocating a buffer not pooled, because it exceeds maxSize").
+				register(registry);
+	}
+
+	/**
+	 * Returns a buffer with a capacity of the smallest size class
+	 * not smaller than {@code capacity}.
+	 * Its position is zero and its limit is {@code capacity}.
+	 * The content of the buffer is undefined unless
+	 * {@link ByteBufferPoolProperties#isZeroOnPut() zeroOnPut} is enabled.
+	 * If {@code capacity} exceeds {@link ByteBufferPoolProperties#getMaxSize() maxSize},
+	 * a new buffer not pooled is returned.
+	 * @throws IllegalStateException if the pool has been {@link #close(Duration) closed}
+	 */
+	public ByteBuffer get(final int capacity)
+	{
+		if(capacity<0)
+			throw new IllegalArgumentException("capacity must not be negative, but was " + capacity);
+
+		final ByteBuffer result;
+		if(capacity>maxSize)
+		{
+			if(isClosed())
+				throw new IllegalStateException("pool is closed");
+			unpooled.increment();
+			result = allocate(capacity);
+		}
+		else
+		{
+			result = pools.get(sizeClass(capacity)).get();
+		}
+		result.limit(capacity);
+		return result;
+	}
+
+	/**
+	 * Returns a buffer obtained from {@link #get(int)} to this pool.
+	 * Buffers not pooled are left to the garbage collector.
+	 */
+	public void put(final ByteBuffer buffer)
+	{
+		requireNonNull(buffer, "buffer");
+		if(buffer.isDirect()!=direct)
+			throw new IllegalArgumentException(
+					"buffer must be " + (direct ? "direct" : "heap") + ", but was " + buffer);
+
+		final int capacity = buffer.capacity();
+		if(capacity>maxSize)
+			return;
+
+		final int sizeClass = sizeClass(capacity);
+		if(size(sizeClass)!=capacity)
+			throw new IllegalArgumentException("buffer not obtained from this pool: " + buffer);
+
+		pools.get(sizeClass).put(buffer);
+	}
+
+	/**
+	 * Disposes idle buffers of all size classes.
+	 */
+	public void flush()
+	{
+		for(final Pool<ByteBuffer> pool : pools)
+			pool.flush();
+	}
+
+	/**
+	 * Closes the pools of all size classes, see {@link Pool#close(Duration)}.
+	 * This stops listening to memory notifications enabled by
+	 * {@link PoolProperties#getMemoryPressureThreshold() pool.memoryPressureThreshold}.
+	 * Waits at most {@code timeout} in total until all buffers obtained from this pool
+	 * have been returned.
+	 * May be called multiple times.
+	 * @return the number of buffers not yet returned
+	 */
+	public int close(final Duration timeout)
+	{
+		requireNonNull(timeout, "timeout");
+
+		final long deadline = System.nanoTime() + (timeout.isNegative() ? 0 : saturatedNanos(timeout));
+		int result = 0;
+		for(final Pool<ByteBuffer> pool : pools)
+			result += pool.close(Duration.ofNanos(Math.max(0, deadline - System.nanoTime())));
+		return result;
+	}
+
+	private static long saturatedNanos(final Duration duration)
+	{
+		try
+		{
+			return duration.toNanos();
+		}
+		catch(final ArithmeticException ignored)
+		{
+			return Long.MAX_VALUE;
+		}
+	}
+
+	public boolean isClosed()
+	{
+		return pools.get(0).isClosed();
+	}
+
+	/**
+	 * Returns the number of idle buffers of all size classes.
+	 */
+	public int getIdleLevel()
+	{
+		int result = 0;
+		for(final Pool<ByteBuffer> pool : pools)
+			result += pool.getInfo().getIdleLevel();
+		return result;
+	}
+
+	private int sizeClass(final int capacity)
+	{
+		return capacity<=(1<<minShift)
+				? 0
+				: (32 - Integer.numberOfLeadingZeros(capacity - 1)) - minShift;
+	}
+
+	private int size(final int sizeClass)
+	{
+		return 1 << (minShift + sizeClass);
+	}
+
+	private ByteBuffer allocate(final int capacity)
+	{
+		return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+	}
+
+	private final class Factory implements Pool.Factory<ByteBuffer>
+	{
+		private final int size;
+
+		Factory(final int size)
+		{
+			this.size = size;
+		}
+
+		@Override
+		public ByteBuffer create()
+		{
+			return allocate(size);
+		}
+
+		@Override
+		public boolean isValidOnGet(final ByteBuffer e)
+		{
+			return true;
+		}
+
+		/**
+		 * Resets the buffer for the next user.
+		 */
+		@Override
+		public boolean isValidOnPut(final ByteBuffer e)
+		{
+			if(zeroOnPut)
+				zero(e);
+			e.clear();
+			e.order(ByteOrder.BIG_ENDIAN);
+			return true;
+		}
+
+		@Override
+		public void dispose(final ByteBuffer e)
+		{
+			// left to the garbage collector, including direct buffers
+		}
+	}
+
+	private static void zero(final ByteBuffer buffer)
+	{
+		if(buffer.hasArray())
+		{
+			final int offset = buffer.arrayOffset();
+			Arrays.fill(buffer.array(), offset, offset + buffer.capacity(), (byte)0);
+			return;
+		}
+
+		buffer.clear();
+		while(buffer.remaining()>=Long.BYTES)
+			buffer.putLong(0);
+		while(buffer.hasRemaining())
+			buffer.put((byte)0);
+	}
+
+	private static final Counter noopCounter = new NoopCounter(new Meter.Id(
+			ByteBufferPool.class.getName(),
+			Tags.empty(),
+			null, null,
+			Meter.Type.COUNTER));
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2004-2015  exedio GmbH (www.exedio.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package com.exedio.cope.util;
+
+public final class ByteBufferPoolProperties extends Properties
+{
+	final int minSize;
+	final int maxSize;
+	final boolean direct;
+	final boolean zeroOnPut;
+	final int idleBytes;
+	final PoolProperties pool;
+
+	public static Factory<ByteBufferPoolProperties> factory(final int idleLimitDefault)
+	{
+		return source -> new ByteBufferPoolProperties(source, idleLimitDefault);
+	}
+
+	private ByteBufferPoolProperties(final Source source, final int idleLimitDefault)
+	{
+		super(source);
+		final String minSizeKey = "minSize";
+		final String maxSizeKey = "maxSize";
+
+		this.minSize = value(minSizeKey, 1024, 1);
+		checkPowerOfTwo(minSizeKey, minSize);
+		this.maxSize = value(maxSizeKey, 1024*1024, 1);
+		checkPowerOfTwo(maxSizeKey, maxSize);
+		if(maxSize<minSize)
+			throw newException(
+					maxSizeKey,
+					"must be greater or equal " + minSizeKey + '=' + minSize + ", " +
+					"but was " + maxSize);
+
+		this.direct    = value("direct",    false);
+		this.zeroOnPut = value("zeroOnPut", false);
+		this.idleBytes = value("idleBytes", 0, 0);
+		this.pool = valnp("pool", PoolProperties.factory(idleLimitDefault));
+	}
+
+	/**
+	 * Returns the properties of the pool of buffers with a capacity of {@code size}.
+	 * Differs from {@link #pool} in the idle limit only,
+	 * if {@link #idleBytes} is smaller than {@code size} times
+	 * {@link PoolProperties#getIdleLimit() pool.idleLimit}.
+	 * Other limits not exceeding the idle limit are reduced as well.
+	 */
+	PoolProperties pool(final int size)
+	{
+		final int idleLimit = idleBytes/size;
+		if(idleBytes==0 || idleLimit>=pool.idleLimit)
+			return pool;
+
+		final java.util.Properties limits = new java.util.Properties();
+		limits.setProperty("idleLimit", String.valueOf(idleLimit));
+		limits.setProperty("idleInitial", String.valueOf(Math.min(pool.idleInitial, idleLimit)));
+		limits.setProperty("minIdle", String.valueOf(Math.min(pool.minIdle, idleLimit)));
+		limits.setProperty("memoryPressureIdleLimit", String.valueOf(Math.min(pool.memoryPressureIdleLimit, idleLimit)));
+		return PoolProperties.factory(idleLimit).create(Sources.cascade(
+				Sources.view(limits, "idleBytes=" + idleBytes + " for size " + size),
+				pool.getSourceObject()));
+	}
+
+	private void checkPowerOfTwo(final String key, final int value)
+	{
+		if(Integer.bitCount(value)!=1)
+			throw newException(key, "must be a power of two, but was " + value);
+	}
+
+	/**
+	 * The capacity of the smallest buffers pooled.
+	 * Smaller requests get a buffer of this capacity.
+	 */
+	public int getMinSize()
+	{
+		return minSize;
+	}
+
+	/**
+	 * The capacity of the largest buffers pooled.
+	 * Larger requests get a buffer not pooled.
+	 */
+	public int getMaxSize()
+	{
+		return maxSize;
+	}
+
+	/**
+	 * If true, buffers are allocated by {@link java.nio.ByteBuffer#allocateDirect(int)}
+	 * outside of the java heap,
+	 * otherwise by {@link java.nio.ByteBuffer#allocate(int)}.
+	 */
+	public boolean isDirect()
+	{
+		return direct;
+	}
+
+	/**
+	 * If true, {@link ByteBufferPool#put(java.nio.ByteBuffer)} overwrites the content
+	 * of buffers with zeros,
+	 * so that sensitive data does not leak into the next user of the buffer.
+	 */
+	public boolean isZeroOnPut()
+	{
+		return zeroOnPut;
+	}
+
+	/**
+	 * Limits the total capacity of idle buffers of each size class.
+	 * The {@link PoolProperties#getIdleLimit() idle limit} of a size class
+	 * is reduced to {@code idleBytes} divided by the capacity of its buffers,
+	 * so that large buffers are not pooled as numerous as small ones.
+	 * Zero means no limit.
+	 */
+	public int getIdleBytes()
+	{
+		return idleBytes;
+	}
+
+	/**
+	 * Applies to the pool of each size class separately,
+	 * for instance {@link PoolProperties#getIdleLimit() idleLimit}
+	 * limits the number of idle buffers of each size class,
+	 * unless reduced by {@link #getIdleBytes() idleBytes}.
+	 */
+	public PoolProperties getPool()
+	{
+		return pool;
+	}
+}
@@ -0,0 +1,526 @@
+/*
+ * Copyright (C) 2004-2015  exedio GmbH (www.exedio.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package com.exedio.cope.util;
+
+import static com.exedio.cope.util.Check.requireNonEmpty;
+import static java.util.Objects.requireNonNull;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.noop.NoopCounter;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pools items separately for each key,
+ * such as a connection pool for each tenant or database shard.
+ * Unlike a separate {@link Pool} for each key,
+ * all keys share a common {@link KeyedPoolProperties#getIdleLimit() idle limit}
+ * and {@link KeyedPoolProperties#getMaxActive() maxActive} limit.
+ * When the common idle limit is reached,
+ * the item returned least recently is disposed,
+ * so keys used rarely do not hoard idle items.
+ * Keys no longer used should be {@link #remove(Object) removed},
+ * otherwise every key ever used is retained together with its meters.
+ */
+public final class KeyedPool<K,E>
+{
+	private static final Logger log = LoggerFactory.getLogger(KeyedPool.class);
+
+	private final Function<? super K, ? extends Pool.Factory<E>> factory;
+	private final int idleLimit;
+	private final int idleLimitPerKey;
+
+	/**
+	 * Has {@link KeyedPoolProperties#getMaxActive() maxActive} permits,
+	 * one for each item in use.
+	 * Is null, if there is no limit.
+	 */
+	private final Semaphore active;
+
+	/**
+	 * Slots are created without holding {@link #lock},
+	 * so a slow factory for one key does not block other keys.
+	 */
+	private final ConcurrentHashMap<K, Slot<K,E>> slots = new ConcurrentHashMap<>();
+
+	private final Object lock = new Object();
+	/**
+	 * Idle items of all keys, the item returned least recently comes first.
+	 * Guarded by {@link #lock}.
+	 */
+	private final LinkedHashSet<Idle<K,E>> idle = new LinkedHashSet<>();
+
+	private volatile Registration registration = null;
+
+	/**
+	 * @param factory is called once for each key, when the key is used for the first time,
+	 *                and again after the key has been {@link #remove(Object) removed}.
+	 */
+	public KeyedPool(
+			final Function<? super K, ? extends Pool.Factory<E>> factory,
+			final KeyedPoolProperties properties)
+	{
+		requireNonNull(factory, "factory");
+		requireNonNull(properties, "properties");
+
+		this.factory = factory;
+		this.idleLimit = properties.idleLimit;
+		this.idleLimitPerKey = properties.idleLimitPerKey;
+		this.active = properties.maxActive>0 ? new Semaphore(properties.maxActive, true) : null;
+	}
+
+	/**
+	 * Registers meters like {@link Pool#register(String, Tags, MeterRegistry)}.
+	 * Meters specific to a key have an additional tag {@code key},
+	 * derived from {@link Object#toString()} of the key.
+	 * They are registered when the key is used for the first time.
+	 */
+	public void register(
+			final String name,
+			final Tags tags,
+			final MeterRegistry registry)
+	{
+		requireNonEmpty(name, "name");
+		requireNonNull(tags, "tags");
+		requireNonNull(registry, "registry");
+
+		Gauge.builder(name + ".waiting", this, KeyedPool::getWaiting).
+				tags(tags).
+				description("Threads waiting in KeyedPool#get because maxActive items are in use").
+				register(registry);
+
+		final Registration registration = new Registration(name, tags, registry);
+		this.registration = registration;
+		for(final Slot<K,E> slot : slots.values())
+			slot.register(registration);
+	}
+
+	private record Registration(String name, Tags tags, MeterRegistry registry) {}
+
+	private double getWaiting()
+	{
+		return active!=null ? active.getQueueLength() : 0;
+	}
+
+	/**
+	 * If {@link KeyedPoolProperties#getMaxActive() maxActive} items are in use,
+	 * this method waits until an item is returned.
+	 * @throws PoolExhaustedException if the current thread is interrupted while waiting
+	 */
+	public E get(final K key)
+	{
+		return get(key, Long.MAX_VALUE);
+	}
+
+	/**
+	 * If {@link KeyedPoolProperties#getMaxActive() maxActive} items are in use,
+	 * this method waits at most {@code timeout} until an item is returned.
+	 * @throws PoolExhaustedException if no item has been returned within {@code timeout},
+	 *         or if the current thread is interrupted while waiting
+	 */
+	public E get(final K key, final Duration timeout)
+	{
+		requireNonNull(timeout, "timeout");
+		return get(key, timeout.isNegative() ? 0 : saturatedNanos(timeout));
+	}
+
+	private static long saturatedNanos(final Duration duration)
+	{
+		try
+		{
+			return duration.toNanos();
+		}
+		catch(final ArithmeticException ignored)
+		{
+			return Long.MAX_VALUE;
+		}
+	}
+
+	private E get(final K key, final long timeoutNanos)
+	{
+		requireNonNull(key, "key");
+
+		if(active!=null)
+			acquireActive(timeoutNanos);
+
+		try
+		{
+			return getActive(key);
+		}
+		catch(final RuntimeException | Error e)
+		{
+			if(active!=null)
+				active.release();
+			throw e;
+		}
+	}
+
+	private void acquireActive(final long timeoutNanos)
+	{
+		final boolean acquired;
+		try
+		{
+			acquired = active.tryAcquire(timeoutNanos, TimeUnit.NANOSECONDS);
+		}
+		catch(final InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new PoolExhaustedException("interrupted while waiting for one of maxActive items", e);
+		}
+		if(!acquired)
+			throw new PoolExhaustedException(
+					"timeout while waiting for one of maxActive items, " +
+					"waited " + Duration.ofNanos(timeoutNanos), null);
+	}
+
+	private E getActive(final K key)
+	{
+		final Slot<K,E> slot = slot(key);
+
+		E result = null;
+		do
+		{
+			final Idle<K,E> entry;
+			synchronized(lock)
+			{
+				entry = slot.idle.pollFirst();
+				if(entry==null)
+					break;
+				idle.remove(entry);
+				slot.idleLevel--;
+			}
+
+			// validating outside the lock
+			result = entry.item;
+			if(slot.factory.isValidOnGet(result))
+				break;
+
+			slot.invalidOnGet.increment();
+			result = null;
+		}
+		while(true);
+
+		if(result==null)
+			result = slot.factory.create();
+
+		slot.get.increment();
+		return result;
+	}
+
+	/**
+	 * Must be called exactly once for each item obtained from {@link #get(Object)},
+	 * with the same key.
+	 */
+	public void put(final K key, final E e)
+	{
+		requireNonNull(key, "key");
+		requireNonNull(e, "e");
+
+		try
+		{
+			putActive(key, e);
+		}
+		finally
+		{
+			if(active!=null)
+				active.release();
+		}
+	}
+
+	private void putActive(final K key, final E e)
+	{
+		final Slot<K,E> slot = slot(key);
+		slot.put.increment();
+
+		if(!slot.factory.isValidOnPut(e))
+		{
+			slot.invalidOnPut.increment();
+			return;
+		}
+
+		Idle<K,E> evicted = null;
+		synchronized(lock)
+		{
+			if(slot.removed)
+			{
+				// key has been removed concurrently
+				evicted = new Idle<>(slot, e);
+			}
+			else if(slot.idleLevel>=idleLimitPerKey)
+			{
+				evicted = new Idle<>(slot, e);
+			}
+			else
+			{
+				if(idle.size()>=idleLimit)
+				{
+					final Iterator<Idle<K,E>> i = idle.iterator();
+					if(i.hasNext())
+					{
+						evicted = i.next();
+						i.remove();
+						// is the oldest item of its key as well
+						evicted.slot.idle.removeFirstOccurrence(evicted);
+						evicted.slot.idleLevel--;
+						evicted.slot.evicted.increment();
+					}
+				}
+
+				if(idle.size()<idleLimit)
+				{
+					final Idle<K,E> entry = new Idle<>(slot, e);
+					slot.idle.addLast(entry);
+					slot.idleLevel++;
+					idle.add(entry);
+				}
+				else
+				{
+					// just for idleLimit==0
+					evicted = new Idle<>(slot, e);
+				}
+			}
+		}
+
+		// disposing outside the lock
+		if(evicted!=null)
+			evicted.slot.factory.dispose(evicted.item);
+	}
+
+	/**
+	 * Calls the factory outside of {@link #lock},
+	 * blocking concurrent threads using the same key only.
+	 */
+	private Slot<K,E> slot(final K key)
+	{
+		final Slot<K,E> existing = slots.get(key);
+		if(existing!=null)
+			return existing;
+
+		final Slot<K,E> result = slots.computeIfAbsent(key,
+				k -> new Slot<>(k, requireNonNull(factory.apply(k), "factory result")));
+		// after putting the slot into the map, see register
+		final Registration registration = this.registration;
+		if(registration!=null)
+			result.register(registration);
+		return result;
+	}
+
+	/**
+	 * Forgets {@code key}, disposes its idle items,
+	 * and removes its meters from the registry.
+	 * Items of {@code key} still in use are pooled again when returned,
+	 * as if {@code key} was used for the first time.
+	 * Does nothing, if {@code key} has not been used.
+	 */
+	public void remove(final K key)
+	{
+		requireNonNull(key, "key");
+
+		// Unregisters before removing from the map, otherwise it could remove
+		// the meters of a slot created for the same key meanwhile.
+		final ArrayList<Slot<K,E>> removed = new ArrayList<>(1);
+		slots.computeIfPresent(key, (k, slot) ->
+		{
+			slot.unregister();
+			removed.add(slot);
+			return null;
+		});
+		if(removed.isEmpty())
+			return;
+
+		final Slot<K,E> slot = removed.get(0);
+
+		final ArrayList<Idle<K,E>> copyOfIdle;
+		synchronized(lock)
+		{
+			slot.removed = true;
+			copyOfIdle = new ArrayList<>(slot.idle);
+			for(final Idle<K,E> entry : copyOfIdle)
+				idle.remove(entry);
+			slot.idle.clear();
+			slot.idleLevel = 0;
+		}
+
+		dispose(copyOfIdle, "on removing key");
+	}
+
+	public void flush()
+	{
+		final ArrayList<Idle<K,E>> copyOfIdle;
+		synchronized(lock)
+		{
+			copyOfIdle = new ArrayList<>(idle);
+			idle.clear();
+			for(final Slot<K,E> slot : slots.values())
+			{
+				slot.idle.clear();
+				slot.idleLevel = 0;
+			}
+		}
+
+		dispose(copyOfIdle, "on flushing pool");
+	}
+
+	private static <K,E> void dispose(final ArrayList<Idle<K,E>> entries, final String message)
+	{
+		for(final Idle<K,E> entry : entries)
+		{
+			try
+			{
+				entry.slot.factory.dispose(entry.item);
+			}
+			catch(final Exception | AssertionError ex)
+			{
+				log.error(message, ex);
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of idle items for all keys together.
+	 */
+	public int getIdleLevel()
+	{
+		synchronized(lock)
+		{
+			return idle.size();
+		}
+	}
+
+	public int getIdleLevel(final K key)
+	{
+		requireNonNull(key, "key");
+		synchronized(lock)
+		{
+			final Slot<K,E> slot = slots.get(key);
+			return slot!=null ? slot.idleLevel : 0;
+		}
+	}
+
+	private static final class Slot<K,E>
+	{
+		final K key;
+		final Pool.Factory<E> factory;
+		/**
+		 * Guarded by {@link KeyedPool#lock}.
+		 */
+		final ArrayDeque<Idle<K,E>> idle = new ArrayDeque<>();
+		/**
+		 * The size of {@link #idle}, readable without holding {@link KeyedPool#lock}.
+		 */
+		volatile int idleLevel = 0;
+		/**
+		 * Guarded by {@link KeyedPool#lock}.
+		 */
+		boolean removed = false;
+		/**
+		 * Guarded by the monitor of this slot.
+		 */
+		private Registration registration = null;
+		private final ArrayList<Meter> meters = new ArrayList<>();
+
+		Counter get = noopCounter;
+		Counter put = noopCounter;
+		Counter invalidOnGet = noopCounter;
+		Counter invalidOnPut = noopCounter;
+		Counter evicted = noopCounter;
+
+		Slot(final K key, final Pool.Factory<E> factory)
+		{
+			this.key = key;
+			this.factory = factory;
+		}
+
+		synchronized void register(final Registration registration)
+		{
+			// KeyedPool#register and KeyedPool#slot may race for registering a new slot
+			if(this.registration==registration)
+				return;
+			this.registration = registration;
+
+			final String name = registration.name();
+			final Tags tags = registration.tags().and("key", String.valueOf(key));
+			final MeterRegistry registry = registration.registry();
+
+			final Counter.Builder usage = Counter.builder(name + ".usage").
+					tags(tags).
+					description("KeyedPool#[get|put]");
+			final Counter.Builder invalid = Counter.builder(name + ".invalid").
+					tags(tags).
+					description("Factory#isValidOn[Get|Put]");
+			get          = usage  .tag("operation", "get").register(registry);
+			put          = usage  .tag("operation", "put").register(registry);
+			invalidOnGet = invalid.tag("operation", "get").register(registry);
+			invalidOnPut = invalid.tag("operation", "put").register(registry);
+			evicted = Counter.builder(name + ".evicted").
+					tags(tags).
+					tag("reason", "idleLimit").
+					description("KeyedPool#put disposing the idle item returned least recently, because idleLimit has been reached").
+					register(registry);
+			meters.addAll(List.of(get, put, invalidOnGet, invalidOnPut, evicted));
+			meters.add(Gauge.builder(name + ".idle", this, s -> s.idleLevel).
+					tags(tags).
+					description("Items idle in the pool").
+					register(registry));
+		}
+
+		synchronized void unregister()
+		{
+			if(registration==null)
+				return;
+
+			for(final Meter meter : meters)
+				registration.registry().remove(meter);
+			meters.clear();
+			registration = null;
+		}
+	}
+
+	private static final class Idle<K,E>
+	{
+		final Slot<K,E> slot;
+		final E item;
+
+		Idle(final Slot<K,E> slot, final E item)
+		{
+			this.slot = slot;
+			this.item = item;
+		}
+	}
+
+	private static final Counter noopCounter = new NoopCounter(new Meter.Id(
+			KeyedPool.class.getName(),
+			Tags.empty(),
+			null, null,
+			Meter.Type.COUNTER));
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2004-2015  exedio GmbH (www.exedio.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package com.exedio.cope.util;
+
+public final class KeyedPoolProperties extends Properties
+{
+	final int idleLimit;
+	final int idleLimitPerKey;
+	final int maxActive;
+
+	public static Factory<KeyedPoolProperties> factory(final int idleLimitDefault)
+	{
+		return source -> new KeyedPoolProperties(source, idleLimitDefault);
+	}
+
+	private KeyedPoolProperties(final Source source, final int idleLimitDefault)
+	{
+		super(source);
+		final String idleLimitKey       = "idleLimit";
+		final String idleLimitPerKeyKey = "idleLimitPerKey";
+
+		this.idleLimit       = value(idleLimitKey,       idleLimitDefault, 0);
+		this.idleLimitPerKey = value(idleLimitPerKeyKey, idleLimit,        0);
+		if(idleLimitPerKey>idleLimit)
+			throw newException(
+					idleLimitPerKeyKey,
+					"must be less or equal " + idleLimitKey + '=' + idleLimit + ", " +
+					"but was " + idleLimitPerKey);
+
+		this.maxActive = value("maxActive", 0, 0);
+	}
+
+	/**
+	 * The maximum number of items idle in the pool for all keys together.
+	 * If reached, the item returned least recently is disposed,
+	 * regardless of its key.
+	 */
+	public int getIdleLimit()
+	{
+		return idleLimit;
+	}
+
+	/**
+	 * The maximum number of items idle in the pool for each key.
+	 */
+	public int getIdleLimitPerKey()
+	{
+		return idleLimitPerKey;
+	}
+
+	/**
+	 * The maximum number of items that are in use at the same time for all keys together.
+	 * Further calls to {@link KeyedPool#get(Object)} wait until an item is returned.
+	 * Zero means that there is no limit.
+	 */
+	public int getMaxActive()
+	{
+		return maxActive;
+	}
+}
@@ -22,11 +22,51 @@
 import static java.util.Objects.requireNonNull;
 
 import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
 import io.micrometer.core.instrument.Meter;
 import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
 import io.micrometer.core.instrument.noop.NoopCounter;
+import io.micrometer.core.instrument.noop.NoopTimer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.lang.ref.Cleaner;
+import java.lang.ref.WeakReference;
+import java.time.Duration;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -46,239 +86,3238 @@
 		 */
 		boolean isValidOnPut(E e);
 		void dispose(E e);
+
+		/**
+		 * Validates idle items at once, for instance in a single round trip.
+		 * Is called by {@link Pool#maintain()} for idle items not validated within
+		 * {@link PoolProperties#getValidationInterval() validation interval}.
+		 * Returns the items of {@code items} not valid,
+		 * they are disposed by the pool afterwards.
+		 * The default implementation calls {@link #isValidOnGet(Object)} for each item.
+		 */
+		default List<E> validateAll(final List<E> items)
+		{
+			final ArrayList<E> result = new ArrayList<>();
+			for(final E e : items)
+				if(!isValidOnGet(e))
+					result.add(e);
+			return result;
+		}
+	}
+
+	/**
+	 * On machines with more than one processor,
+	 * idle items are split into stripes by the thread that returned them,
+	 * and {@link Pool#get()} prefers the stripe of the current thread.
+	 * Then the order applies to each stripe separately.
+	 */
+	public enum IdleOrder
+	{
+		/**
+		 * {@link Pool#get()} returns the item that has been idle for the longest time.
+		 * Spreads usage evenly over all idle items.
+		 */
+		FIFO,
+
+		/**
+		 * {@link Pool#get()} returns the item that has been idle for the shortest time.
+		 * Keeps frequently used items warm,
+		 * while surplus items stay idle long enough to be disposed because of
+		 * {@link PoolProperties#getIdleTimeout() idle timeout}.
+		 */
+		LIFO
+	}
+
+	private final Factory<E> factory;
+	private volatile int idleLimit;
+	private final int idleInitial;
+	/**
+	 * Completed with the time it took to create
+	 * {@link PoolProperties#getIdleInitial() idleInitial} items,
+	 * or exceptionally, if creating any of these items failed.
+	 */
+	private final CompletableFuture<Duration> initialFill;
+	private volatile long idleTimeoutMillis;
+	private final boolean lifo;
+	private volatile int minIdle;
+	private volatile long validationIntervalMillis;
+
+	/**
+	 * The {@link PoolProperties#getIdleLimit() idle limit} configured,
+	 * {@link #idleLimit} may be smaller because of
+	 * {@link PoolProperties#getAutoTuneLoss() auto tuning}.
+	 */
+	private volatile int idleLimitConfigured;
+	/**
+	 * The idle limit configured or adjusted by
+	 * {@link PoolProperties#getAutoTuneLoss() auto tuning},
+	 * {@link #idleLimit} may be smaller because of
+	 * {@link PoolProperties#getMemoryPressureThreshold() memory pressure}.
+	 * Guarded by {@link #idleLimitLock}.
+	 */
+	private int idleLimitTuned;
+	private final Object idleLimitLock = new Object();
+	private volatile int autoTuneLoss;
+	private volatile int autoTuneHysteresis;
+	private volatile long autoTuneIntervalMillis;
+	/**
+	 * The simulated pools of {@link #counter} at the previous auto tuning.
+	 * Guarded by {@link #autoTuneLock}.
+	 */
+	private List<PoolCounter.Pool> autoTunePools = null;
+	private long autoTuneLast = Long.MIN_VALUE;
+	private final Object autoTuneLock = new Object();
+
+	/**
+	 * Keeps the item most recently returned by {@link #put(Object)} of the current thread.
+	 * That item is counted by {@link #idleLevel}, but is not contained in {@link #idle},
+	 * so the next {@link #get()} of the same thread takes it back
+	 * without contending with other threads.
+	 * Is null, if {@link PoolProperties#isThreadAffine() thread affinity} is disabled.
+	 */
+	private final ThreadLocal<Affine<E>> affine;
+	/**
+	 * The values of {@link #affine} of all threads,
+	 * so that other threads and {@link #maintain()} can reach their items.
+	 * Is null, if thread affinity is disabled.
+	 */
+	private final Set<Affine<E>> affines;
+
+	/**
+	 * Idle items, split into stripes.
+	 * A thread adds items to its home stripe, see {@link #homeIdle()},
+	 * and takes items from its home stripe first.
+	 * Only if the home stripe is empty, it takes items from other stripes.
+	 * Therefore threads on different cores do not contend for a common stripe,
+	 * as long as each of them returns as many items as it takes.
+	 * <p>
+	 * Within each stripe, items are ordered by the time they became idle,
+	 * except for items validated by {@link #maintain()}, which are added back at the oldest end.
+	 * The first item is the next one returned by {@link #get()},
+	 * which is the oldest one for {@link IdleOrder#FIFO}
+	 * and the newest one for {@link IdleOrder#LIFO}.
+	 * Each stripe is a lock-free structure.
+	 * The number of items is tracked by {@link #idleLevel} instead of
+	 * {@link ConcurrentLinkedDeque#size()}, which is not a constant-time operation.
+	 */
+	private final List<ConcurrentLinkedDeque<Idle<E>>> idle;
+	/**
+	 * The number of stripes in {@link #idle} minus one.
+	 * The number of stripes is a power of two.
+	 */
+	private final int idleMask;
+	/**
+	 * Is incremented before an item is added to {@link #idle}
+	 * and decremented after an item is removed from {@link #idle}.
+	 * Therefore it may be greater than the actual number of items in {@link #idle} temporarily,
+	 * but it never exceeds {@link #idleLimit}.
+	 */
+	private final AtomicInteger idleLevel = new AtomicInteger();
+
+	/**
+	 * The number of items obtained by {@link #get()} and not yet returned by {@link #put(Object)}.
+	 * Is a {@link LongAdder}, because it is updated by every get and put, but read rarely.
+	 */
+	private final LongAdder borrowed = new LongAdder();
+
+	/**
+	 * Items obtained by {@link #get()} and not yet returned by {@link #put(Object)}.
+	 * Keys and values are the same {@link Borrow} instances.
+	 * Is null, if leak detection is disabled.
+	 */
+	private final ConcurrentHashMap<Borrow<E>, Borrow<E>> borrows;
+
+	/**
+	 * The time (as in {@link Clock#currentTimeMillis()}) each item is to be retired at,
+	 * see {@link PoolProperties#getMaxLifetime()}.
+	 * Contains items idle and in use.
+	 * Is null, if items live forever.
+	 */
+	private final ConcurrentHashMap<ItemReference<E>, Long> retireAt;
+	private final long maxLifetimeMillis;
+	private final long maxLifetimeJitterMillis;
+	/**
+	 * Items obtained by {@link #get()} and not yet returned by {@link #put(Object)},
+	 * together with the time and the caller they were obtained by.
+	 * Is null, if {@link PoolProperties#isHoldTime() holdTime} is disabled.
+	 */
+	private final ConcurrentHashMap<ItemReference<E>, Hold> holds;
+	private final List<String> holdTimeCallerSkip;
+	private volatile HoldTimers holdTimers = null;
+	private final long leakThresholdMillis;
+	private final int leakTraceSampling;
+	private volatile int leaked = 0;
+
+	/**
+	 * The rolling refresh in progress, see {@link #refresh(ScheduledExecutorService, Duration)}.
+	 * Is null, if there is none.
+	 */
+	private final AtomicReference<Refresh<E>> refresh = new AtomicReference<>();
+	/**
+	 * Is incremented by {@link #refresh(ScheduledExecutorService, Duration)}.
+	 * Items created in an older generation are stale.
+	 */
+	private final AtomicInteger generation = new AtomicInteger();
+	/**
+	 * The {@link #generation} at the beginning of creating an item.
+	 * Items of {@link #unstampedGeneration} are not contained.
+	 */
+	private final ConcurrentHashMap<ItemReference<E>, Integer> generations = new ConcurrentHashMap<>();
+	/**
+	 * The generation of items not contained in {@link #generations}.
+	 * Is raised to the current {@link #generation} by {@link #maintain()}
+	 * as soon as no such item of an older generation is alive anymore,
+	 * so that {@link #isStale(Object)} does not need to look up {@link #generations}
+	 * once a refresh is over.
+	 * Guarded by {@link #generationLock}.
+	 */
+	private volatile int unstampedGeneration = 0;
+	/**
+	 * The number of items created and not yet forgotten,
+	 * which are not contained in {@link #generations}.
+	 */
+	private final AtomicInteger unstampedAlive = new AtomicInteger();
+	private final Object generationLock = new Object();
+
+	/**
+	 * Has {@link PoolProperties#getMaxActive() maxActive} permits,
+	 * one for each item in use.
+	 * Is fair, so threads waiting longest get the next item returned.
+	 * Is null, if there is no limit.
+	 */
+	private final Semaphore active;
+	private final int maxActive;
+
+	/**
+	 * Callers of {@link #getAsync(Executor)} waiting for a permit of {@link #active},
+	 * in order of arrival.
+	 * A thread releasing a permit hands it over to the first waiter instead.
+	 * Waiters are removed as soon as their future is completed otherwise,
+	 * for instance by cancelling it.
+	 * Guarded by {@link #asyncWaitersLock}.
+	 */
+	private final LinkedHashSet<Waiter<E>> asyncWaiters = new LinkedHashSet<>();
+	private final Object asyncWaitersLock = new Object();
+	/**
+	 * The size of {@link #asyncWaiters},
+	 * so that releasing a permit does not need {@link #asyncWaitersLock} if there are no waiters.
+	 */
+	private volatile int asyncWaiting = 0;
+	/**
+	 * Serving a waiter completes its future, and dependent stages may call {@link #put(Object)},
+	 * which releases a permit again.
+	 * Such nested calls just add their permits here,
+	 * so only the outermost call on the stack hands over permits to waiters,
+	 * instead of recursing once for each waiter.
+	 */
+	private final ThreadLocal<HandOver> handOver = ThreadLocal.withInitial(HandOver::new);
+
+	/**
+	 * The executor given to {@link #scheduleMaintenance(ScheduledExecutorService, Duration) scheduleMaintenance}.
+	 * Runs {@link #refill()} as soon as {@link #get()} drops the idle level below {@link #minIdle}.
+	 */
+	private volatile Executor refillExecutor = null;
+	private final AtomicBoolean refilling = new AtomicBoolean();
+
+	/**
+	 * Is set by {@link #close(Duration)}.
+	 * Threads returning items to a closed pool notify {@link #closeLock}.
+	 */
+	private volatile boolean closed = false;
+	private final Object closeLock = new Object();
+
+	/**
+	 * Is null, if {@link PoolProperties#getMemoryPressureThreshold() memoryPressureThreshold} is disabled.
+	 */
+	private final MemoryWatch memoryWatch;
+	private final int memoryPressureIdleLimit;
+	/**
+	 * Is written under {@link #idleLimitLock}.
+	 */
+	private volatile boolean memoryPressure = false;
+
+	/**
+	 * Has {@link PoolProperties#getMaxCreating() maxCreating} permits,
+	 * one for each call to {@link Factory#create()} running.
+	 * Is null, if there is no limit.
+	 */
+	private final Semaphore creating;
+
+	/**
+	 * State of the circuit breaker, see {@link PoolProperties#getBreakerThreshold()}.
+	 * Guarded by {@link #createLock}.
+	 * Is maintained only if there is a limit on {@link #creating} or
+	 * if the circuit breaker is enabled.
+	 */
+	private int createFailures = 0;
+	private Throwable createFailure = null;
+	private long createCompleted = 0;
+	private boolean breakerOpen = false;
+	private long breakerOpenUntil;
+	private boolean breakerTrial = false;
+	private final Object createLock = new Object();
+	private volatile int breakerThreshold;
+	private volatile long breakerBackoffMillis;
+
+	private Counter get = noopCounter;
+	private Counter put = noopCounter;
+	private final PoolCounter counter;
+	private Counter invalidOnGet = noopCounter;
+	private Counter invalidOnPut = noopCounter;
+	private Counter invalidOnIdle = noopCounter;
+	private Counter idleTimeout = noopCounter;
+	private Counter maxLifetime = noopCounter;
+	private Counter refreshed = noopCounter;
+	private Counter threadAffine = noopCounter;
+	private Counter autoTuneGrow = noopCounter;
+	private Counter autoTuneShrink = noopCounter;
+	private Counter autoTuneKeep = noopCounter;
+	private Timer validateOnGet = noopTimer;
+	private Timer validateOnPut = noopTimer;
+	private Timer validateOnIdle = noopTimer;
+	private Timer create = noopTimer;
+	private Timer dispose = noopTimer;
+	private Timer activeWait = noopTimer;
+	private Timer flush = noopTimer;
+	private Counter flushFailed = noopCounter;
+	/**
+	 * Is set by {@link #register(String, Tags, MeterRegistry)}.
+	 * Until then, timers are not fed, so {@link System#nanoTime()} is not called.
+	 */
+	private volatile boolean timed = false;
+	private Counter flushAbandoned = noopCounter;
+	private Counter breakerRejected = noopCounter;
+
+	/**
+	 * Creates {@link PoolProperties#getIdleInitial() idleInitial} items
+	 * one after another before returning.
+	 */
+	public Pool(final Factory<E> factory, final PoolProperties properties, final PoolCounter counter)
+	{
+		this(factory, properties, counter, null);
+	}
+
+	/**
+	 * Creates {@link PoolProperties#getIdleInitial() idleInitial} items
+	 * concurrently on {@code executor} after returning,
+	 * see {@link #getInitialFill()}.
+	 * The executor is owned by the caller and
+	 * limits the number of items created concurrently.
+	 * Until initial items have been created,
+	 * {@link #get()} creates items on demand.
+	 */
+	public Pool(
+			final Factory<E> factory,
+			final PoolProperties properties,
+			final PoolCounter counter,
+			final Executor executor)
+	{
+		this(factory, properties, counter, executor, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * @param processors the number of stripes of idle items is the next power of two
+	 */
+	Pool(
+			final Factory<E> factory,
+			final PoolProperties properties,
+			final PoolCounter counter,
+			final Executor executor,
+			final int processors)
+	{
+		requireNonNull(factory, "factory");
+		requireNonNull(properties, "properties");
+		if(processors<1)
+			throw new IllegalArgumentException("processors must be greater than zero, but was " + processors);
+
+		final int stripes = processors==1 ? 1 : Integer.highestOneBit(processors-1)<<1;
+		final ArrayList<ConcurrentLinkedDeque<Idle<E>>> idle = new ArrayList<>(stripes);
+		for(int i = 0; i<stripes; i++)
+			idle.add(new ConcurrentLinkedDeque<>());
+		this.idle = List.copyOf(idle);
+		this.idleMask = stripes - 1;
+		this.factory = factory;
+		this.idleLimit = properties.idleLimit;
+		this.idleLimitConfigured = properties.idleLimit;
+		this.idleLimitTuned = properties.idleLimit;
+		this.idleInitial = properties.idleInitial;
+		this.idleTimeoutMillis = properties.idleTimeout.toMillis();
+		this.lifo = properties.idleOrder==IdleOrder.LIFO;
+		this.active = properties.maxActive>0 ? new Semaphore(properties.maxActive, true) : null;
+		this.maxActive = properties.maxActive;
+		this.minIdle = properties.minIdle;
+		this.validationIntervalMillis = properties.validationInterval.toMillis();
+		this.affine = properties.threadAffine ? new ThreadLocal<>() : null;
+		this.affines = properties.threadAffine ? ConcurrentHashMap.newKeySet() : null;
+		this.leakThresholdMillis = properties.leakThreshold.toMillis();
+		this.leakTraceSampling = properties.leakTraceSampling;
+		this.borrows = leakThresholdMillis>0 ? new ConcurrentHashMap<>() : null;
+		this.holds = properties.holdTime ? new ConcurrentHashMap<>() : null;
+		this.holdTimeCallerSkip = properties.holdTimeCallerSkip;
+		if(properties.autoTuneLoss>0 && counter==null)
+			throw new IllegalArgumentException("autoTuneLoss requires a PoolCounter");
+		this.autoTuneLoss = properties.autoTuneLoss;
+		this.autoTuneHysteresis = properties.autoTuneHysteresis;
+		this.autoTuneIntervalMillis = properties.autoTuneInterval.toMillis();
+		this.maxLifetimeMillis = properties.maxLifetime.toMillis();
+		this.maxLifetimeJitterMillis = properties.maxLifetimeJitter.toMillis();
+		this.retireAt = maxLifetimeMillis>0 ? new ConcurrentHashMap<>() : null;
+		this.creating = properties.maxCreating>0 ? new Semaphore(properties.maxCreating, true) : null;
+		this.breakerThreshold = properties.breakerThreshold;
+		this.breakerBackoffMillis = properties.breakerBackoff.toMillis();
+		this.memoryPressureIdleLimit = properties.memoryPressureIdleLimit;
+
+		this.counter = counter;
+		this.memoryWatch =
+				properties.memoryPressureThreshold>0
+				? new MemoryWatch(this, properties.memoryPressureThreshold)
+				: null;
+
+		// last, because the executor may run createInitial in another thread before returning
+		final long start = System.nanoTime();
+		if(executor==null)
+		{
+			for(int i = 0; i<idleInitial; i++)
+				idle.get(i & idleMask).addLast(new Idle<>(create()));
+			idleLevel.set(idleInitial);
+			this.initialFill = CompletableFuture.completedFuture(initialFilled(start));
+		}
+		else
+		{
+			final CompletableFuture<?>[] items = new CompletableFuture<?>[idleInitial];
+			for(int i = 0; i<idleInitial; i++)
+				items[i] = CompletableFuture.runAsync(this::createInitial, executor);
+			this.initialFill = CompletableFuture.allOf(items).thenApply(v -> initialFilled(start));
+		}
+	}
+
+	/**
+	 * Failures are logged here, because nobody may ever look at {@link #getInitialFill()}.
+	 */
+	private void createInitial()
+	{
+		final E e;
+		try
+		{
+			e = create();
+		}
+		catch(final RuntimeException | Error ex)
+		{
+			log.error("on creating initial item", ex);
+			throw ex;
+		}
+		if(offerIdle(e)==null)
+			dispose(e);
+	}
+
+	private Duration initialFilled(final long start)
+	{
+		final Duration result = Duration.ofNanos(System.nanoTime() - start);
+		if(idleInitial>0)
+			log.info("created {} initial items in {}", idleInitial, result);
+		return result;
+	}
+
+	/**
+	 * Returns a future completed as soon as
+	 * {@link PoolProperties#getIdleInitial() idleInitial} items have been created.
+	 * Its value is the time it took to create these items.
+	 * Fails if creating any of these items failed.
+	 * Is completed already, if the pool has been created without an executor.
+	 */
+	public CompletableFuture<Duration> getInitialFill()
+	{
+		return initialFill.copy();
+	}
+
+	/**
+	 * Applies {@code properties} to this running pool,
+	 * typically after reloading them from a
+	 * {@link Sources#reloadable(java.util.function.Supplier) reloadable source}.
+	 * If the {@link PoolProperties#getIdleLimit() idle limit} shrinks,
+	 * surplus idle items are disposed, oldest first.
+	 * If it grows, all idle items are retained.
+	 * If {@link PoolProperties#getMinIdle() minIdle} grows,
+	 * missing items are created by the next {@link #maintain()}.
+	 * An idle limit adjusted by {@link PoolProperties#getAutoTuneLoss() auto tuning}
+	 * is reset to the idle limit of {@code properties}.
+	 * Enabling auto tuning is ignored, if the pool has no {@link PoolCounter}.
+	 * {@link PoolProperties#getIdleInitial() idleInitial},
+	 * {@link PoolProperties#getIdleOrder() idleOrder},
+	 * {@link PoolProperties#getMaxActive() maxActive},
+	 * {@link PoolProperties#getMaxLifetime() maxLifetime},
+	 * {@link PoolProperties#getMaxLifetimeJitter() maxLifetimeJitter},
+	 * {@link PoolProperties#getMaxCreating() maxCreating},
+	 * {@link PoolProperties#getMemoryPressureThreshold() memoryPressureThreshold},
+	 * {@link PoolProperties#getMemoryPressureIdleLimit() memoryPressureIdleLimit},
+	 * {@link PoolProperties#isHoldTime() holdTime},
+	 * {@link PoolProperties#getHoldTimeCallerSkip() holdTimeCallerSkip},
+	 * {@link PoolProperties#getLeakThreshold() leakThreshold} and
+	 * {@link PoolProperties#getLeakTraceSampling() leakTraceSampling} are ignored,
+	 * because they apply to the creation of the pool only.
+	 */
+	public void reconfigure(final PoolProperties properties)
+	{
+		requireNonNull(properties, "properties");
+
+		this.idleTimeoutMillis = properties.idleTimeout.toMillis();
+		this.minIdle = properties.minIdle;
+		this.validationIntervalMillis = properties.validationInterval.toMillis();
+		this.autoTuneLoss = counter!=null ? properties.autoTuneLoss : 0;
+		this.autoTuneHysteresis = properties.autoTuneHysteresis;
+		this.autoTuneIntervalMillis = properties.autoTuneInterval.toMillis();
+		this.breakerBackoffMillis = properties.breakerBackoff.toMillis();
+		this.breakerThreshold = properties.breakerThreshold;
+		if(properties.breakerThreshold==0)
+			closeBreaker();
+		this.idleLimitConfigured = properties.idleLimit;
+		setIdleLimit(properties.idleLimit);
+	}
+
+	private void setIdleLimit(final int idleLimit)
+	{
+		synchronized(idleLimitLock)
+		{
+			this.idleLimitTuned = idleLimit;
+			applyIdleLimit();
+		}
+		trimIdle();
+	}
+
+	/**
+	 * Must be followed by {@link #trimIdle()} outside of {@link #idleLimitLock}.
+	 */
+	private void applyIdleLimit()
+	{
+		final int tuned = idleLimitTuned;
+		this.idleLimit = memoryPressure ? Math.min(tuned, memoryPressureIdleLimit) : tuned;
+	}
+
+	/**
+	 * Disposes idle items exceeding {@link #idleLimit}, oldest first.
+	 */
+	private void trimIdle()
+	{
+		final int idleLimit = this.idleLimit;
+		drainAffine();
+		final ArrayList<E> surplus = new ArrayList<>();
+		while(idleLevel.get()>idleLimit)
+		{
+			final Idle<E> entry = pollIdleEntry(lifo);
+			if(entry==null)
+				break;
+			surplus.add(entry.item);
+		}
+		disposeAll(surplus, "on shrinking pool");
+	}
+
+	public void register(
+			final String name,
+			final Tags tags,
+			final MeterRegistry registry)
+	{
+		requireNonEmpty(name, "name");
+		requireNonNull(tags, "tags");
+		requireNonNull(registry, "registry");
+
+		final Counter.Builder usage = Counter.builder(name + ".usage").
+				tags(tags).
+				description("Pool#[get|put]");
+		final Counter.Builder invalid = Counter.builder(name + ".invalid").
+				tags(tags).
+				description("Factory#isValidOn[Get|Put], Pool#maintain validating idle items");
+		final Counter.Builder evicted = Counter.builder(name + ".evicted").
+				tags(tags).
+				description("Pool#maintain disposing idle items, Pool#put disposing items exceeding maxLifetime, Pool#refresh replacing items");
+
+		final Counter get          = usage  .tag("operation", "get").register(registry);
+		final Counter put          = usage  .tag("operation", "put").register(registry);
+		final Counter invalidOnGet = invalid.tag("operation", "get").register(registry);
+		final Counter invalidOnPut = invalid.tag("operation", "put").register(registry);
+		final Counter invalidOnIdle = invalid.tag("operation", "idle").register(registry);
+		final Counter idleTimeout  = evicted.tag("reason", "idleTimeout").register(registry);
+		final Counter maxLifetime  = evicted.tag("reason", "maxLifetime").register(registry);
+		final Counter refreshed    = evicted.tag("reason", "refresh").register(registry);
+		final Counter threadAffine = Counter.builder(name + ".threadAffine").
+				tags(tags).
+				description("Pool#get taking the item most recently returned by the same thread").
+				register(registry);
+		final Timer activeWait = Timer.builder(name + ".wait").
+				tags(tags).
+				description("Pool#get waiting for an item because maxActive items are in use").
+				register(registry);
+		final Timer.Builder validate = Timer.builder(name + ".validate").
+				tags(tags).
+				description("Factory#isValidOn[Get|Put] called by Pool#get or Pool#put, Factory#validateAll called by Pool#maintain validating idle items");
+		final Timer validateOnGet  = validate.tag("operation", "get" ).register(registry);
+		final Timer validateOnPut  = validate.tag("operation", "put" ).register(registry);
+		final Timer validateOnIdle = validate.tag("operation", "idle").register(registry);
+		final Timer create = Timer.builder(name + ".create").
+				tags(tags).
+				description("Factory#create").
+				register(registry);
+		final Timer dispose = Timer.builder(name + ".dispose").
+				tags(tags).
+				description("Factory#dispose").
+				register(registry);
+		final Timer flush = Timer.builder(name + ".flush").
+				tags(tags).
+				description("Pool#flush").
+				register(registry);
+		final Counter.Builder flushFailedBuilder = Counter.builder(name + ".flushFailed").
+				tags(tags).
+				description("Idle items not disposed by Pool#flush");
+		final Counter flushFailed    = flushFailedBuilder.tag("reason", "exception").register(registry);
+		final Counter flushAbandoned = flushFailedBuilder.tag("reason", "timeout"  ).register(registry);
+		final Counter.Builder autoTune = Counter.builder(name + ".autoTune").
+				tags(tags).
+				description("Pool#maintain adjusting the idle limit according to autoTuneLoss");
+		final Counter autoTuneGrow   = autoTune.tag("decision", "grow"  ).register(registry);
+		final Counter autoTuneShrink = autoTune.tag("decision", "shrink").register(registry);
+		final Counter autoTuneKeep   = autoTune.tag("decision", "keep"  ).register(registry);
+		final Counter breakerRejected = Counter.builder(name + ".breakerRejected").
+				tags(tags).
+				description("Pool#get failing immediately because the circuit breaker is open").
+				register(registry);
+		for(final BreakerState state : BreakerState.values())
+			Gauge.builder(name + ".breaker", this, p -> p.getBreakerState()==state ? 1 : 0).
+					tags(tags).
+					tag("state", state.tag).
+					description("State of the circuit breaker opened by consecutive failures of Factory#create").
+					register(registry);
+		Gauge.builder(name + ".idleLimit", this, p -> p.idleLimit).
+				tags(tags).
+				description("Maximum number of items idle in the pool, may be adjusted according to autoTuneLoss").
+				register(registry);
+		final HoldTimers holdTimers = holds!=null ? new HoldTimers(name, tags, registry) : null;
+		Gauge.builder(name + ".memoryPressure", this, p -> p.memoryPressure ? 1 : 0).
+				tags(tags).
+				description("Whether the idle limit is reduced because of memoryPressureThreshold").
+				register(registry);
+		Gauge.builder(name + ".idle", idleLevel, AtomicInteger::get).
+				tags(tags).
+				description("Items idle in the pool").
+				register(registry);
+		Gauge.builder(name + ".borrowed", borrowed, LongAdder::sum).
+				tags(tags).
+				description("Items obtained by Pool#get and not yet returned by Pool#put").
+				register(registry);
+		Gauge.builder(name + ".leaked", this, p -> p.leaked).
+				tags(tags).
+				description("Items not returned within leakThreshold, as found by last Pool#maintain").
+				register(registry);
+		Gauge.builder(name + ".waiting", this, Pool::getWaiting).
+				tags(tags).
+				description("Threads waiting in Pool#get and callers waiting for Pool#getAsync because maxActive items are in use").
+				register(registry);
+
+		// separate assignments make method as atomic as possible
+		this.get = get;
+		this.put = put;
+		this.invalidOnGet = invalidOnGet;
+		this.invalidOnPut = invalidOnPut;
+		this.invalidOnIdle = invalidOnIdle;
+		this.idleTimeout = idleTimeout;
+		this.maxLifetime = maxLifetime;
+		this.refreshed = refreshed;
+		this.threadAffine = threadAffine;
+		this.autoTuneGrow = autoTuneGrow;
+		this.autoTuneShrink = autoTuneShrink;
+		this.autoTuneKeep = autoTuneKeep;
+		this.activeWait = activeWait;
+		this.validateOnGet = validateOnGet;
+		this.validateOnPut = validateOnPut;
+		this.validateOnIdle = validateOnIdle;
+		this.create = create;
+		this.dispose = dispose;
+		this.flush = flush;
+		this.flushFailed = flushFailed;
+		this.flushAbandoned = flushAbandoned;
+		this.breakerRejected = breakerRejected;
+		this.holdTimers = holdTimers;
+		this.timed = true; // last, publishes all timers above
+	}
+
+	private double getWaiting()
+	{
+		return active!=null ? active.getQueueLength() + asyncWaiting : 0;
+	}
+
+	/**
+	 * If {@link PoolProperties#getMaxActive() maxActive} items are in use,
+	 * this method waits until an item is returned.
+	 * @throws PoolExhaustedException if the current thread is interrupted while waiting
+	 * @throws PoolExhaustedException if the circuit breaker is open,
+	 *         or if {@link Factory#create()} failed while waiting for one of
+	 *         {@link PoolProperties#getMaxCreating() maxCreating} creations
+	 * @throws IllegalStateException if the pool has been {@link #close(Duration) closed}
+	 */
+	public E get()
+	{
+		checkOpen();
+		if(active!=null)
+			acquireActive(1, Long.MAX_VALUE);
+
+		return hold(getActive(pollAffine()));
+	}
+
+	/**
+	 * If {@link PoolProperties#getMaxActive() maxActive} items are in use,
+	 * this method waits at most {@code timeout} until an item is returned.
+	 * Waiting threads are served in order of arrival.
+	 * @throws PoolExhaustedException if no item has been returned within {@code timeout},
+	 *         or if the current thread is interrupted while waiting
+	 * @throws PoolExhaustedException if the circuit breaker is open,
+	 *         or if {@link Factory#create()} failed while waiting for one of
+	 *         {@link PoolProperties#getMaxCreating() maxCreating} creations
+	 * @throws IllegalStateException if the pool has been {@link #close(Duration) closed}
+	 */
+	public E get(final Duration timeout)
+	{
+		requireNonNull(timeout, "timeout");
+		checkOpen();
+
+		if(active!=null)
+			acquireActive(1, timeout.isNegative() ? 0 : saturatedNanos(timeout));
+
+		return hold(getActive(pollAffine()));
+	}
+
+	private static long saturatedNanos(final Duration duration)
+	{
+		try
+		{
+			return duration.toNanos();
+		}
+		catch(final ArithmeticException ignored)
+		{
+			return Long.MAX_VALUE;
+		}
+	}
+
+	private void acquireActive(final int permits, final long timeoutNanos)
+	{
+		final long start = startTimer();
+		final boolean acquired;
+		try
+		{
+			acquired = active.tryAcquire(permits, timeoutNanos, TimeUnit.NANOSECONDS);
+		}
+		catch(final InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new PoolExhaustedException("interrupted while waiting for one of maxActive items", e);
+		}
+		finally
+		{
+			stopTimer(activeWait, start);
+		}
+		if(!acquired)
+			throw new PoolExhaustedException(
+					"timeout while waiting for one of maxActive items, " +
+					"waited " + Duration.ofNanos(timeoutNanos), null);
+	}
+
+	/**
+	 * Has the same effect as calling {@link #get()} {@code n} times,
+	 * but updates the idle level, the counters and the {@link PoolCounter}
+	 * just once for all items.
+	 * Waits until {@code n} items are available at once, if
+	 * {@link PoolProperties#getMaxActive() maxActive} is limited.
+	 * Items are validated and created outside of any lock.
+	 * @throws IllegalArgumentException if {@code n} is greater than
+	 *         {@link PoolProperties#getMaxActive() maxActive}
+	 * @throws PoolExhaustedException if the current thread is interrupted while waiting
+	 * @throws PoolExhaustedException if the circuit breaker is open,
+	 *         or if {@link Factory#create()} failed while waiting for one of
+	 *         {@link PoolProperties#getMaxCreating() maxCreating} creations
+	 * @throws IllegalStateException if the pool has been {@link #close(Duration) closed}
+	 */
+	public List<E> getMany(final int n)
+	{
+		checkOpen();
+		if(n<0)
+			throw new IllegalArgumentException("n must not be negative, but was " + n);
+		if(active!=null && n>maxActive)
+			throw new IllegalArgumentException(
+					"n must not be greater than maxActive=" + maxActive + ", but was " + n);
+		if(n==0)
+			return new ArrayList<>();
+
+		if(active!=null)
+			acquireActive(n, Long.MAX_VALUE);
+
+		final ArrayDeque<Idle<E>> entries = new ArrayDeque<>(n);
+		final ArrayList<E> result = new ArrayList<>(n);
+		try
+		{
+			getManyActive(n, entries, result);
+		}
+		catch(final RuntimeException | Error e)
+		{
+			for(final Idle<E> entry : entries)
+				returnIdle(entry);
+			for(final E item : result)
+				returnIdle(new Idle<>(item));
+			releaseActive(n);
+			throw e;
+		}
+
+		borrowed.add(n);
+		if(borrows!=null)
+			for(final E item : result)
+				borrow(item);
+		if(holds!=null)
+		{
+			final String caller = caller();
+			for(final E item : result)
+				hold(item, caller);
+		}
+		get.increment(n);
+		if(counter!=null)
+			counter.incrementGet(n);
+
+		return result;
+	}
+
+	/**
+	 * On failure, {@code entries} contains the idle items not yet validated,
+	 * and {@code result} contains the items validated or created.
+	 */
+	private void getManyActive(final int n, final ArrayDeque<Idle<E>> entries, final ArrayList<E> result)
+	{
+		checkOpen(); // pool may have been closed while waiting for permits
+		for(int i = 0; i<n; i++)
+		{
+			final Idle<E> entry = pollIdleEntry();
+			if(entry==null)
+				break;
+			entries.add(entry);
+		}
+
+		final long validatedLimit = validatedLimit();
+		int invalid = 0;
+		for(Idle<E> entry = entries.poll(); entry!=null; entry = entries.poll())
+		{
+			if(entry.validated>validatedLimit || isValid(entry.item, validateOnGet))
+			{
+				result.add(entry.item);
+			}
+			else
+			{
+				invalid++;
+				forget(entry.item);
+			}
+		}
+		invalidOnGet.increment(invalid);
+
+		requestRefill();
+
+		while(result.size()<n)
+			result.add(create());
+	}
+
+	/**
+	 * Must be called only after acquiring a permit from {@link #active}.
+	 * @param first an item already removed from {@link #idle}, or null
+	 */
+	private E getActive(final Idle<E> first)
+	{
+		try
+		{
+			return getActiveInternal(first);
+		}
+		catch(final RuntimeException | Error e)
+		{
+			releaseActive();
+			throw e;
+		}
+	}
+
+	private E getActiveInternal(final Idle<E> first)
+	{
+		if(closed)
+		{
+			// pool has been closed while waiting for a permit
+			if(first!=null)
+				disposeAll(List.of(first.item), "on getting from closed pool");
+			throw newClosedException();
+		}
+		E result = null;
+		final long validatedLimit = validatedLimit();
+
+		for(Idle<E> entry = first!=null ? first : pollIdleEntry(); entry!=null; entry = pollIdleEntry())
+		{
+			result = entry.item;
+			if(entry.validated>validatedLimit)
+				break;
+
+			if(isValid(result, validateOnGet))
+				break;
+
+			invalidOnGet.increment();
+			forget(result);
+
+			result = null;
+		}
+
+		requestRefill();
+
+		if(result==null)
+			result = create();
+
+		return lend(result);
+	}
+
+	/**
+	 * Does the bookkeeping for an item handed out to a caller.
+	 */
+	private E lend(final E result)
+	{
+		borrowed.increment();
+		if(borrows!=null)
+			borrow(result);
+		get.increment();
+		if(counter!=null)
+			counter.incrementGet();
+
+		return result;
+	}
+
+	/**
+	 * TODO: If we want to implement changing item parameters on-the-fly
+	 * somewhere in the future, it's important, that client return items
+	 * to exactly the same instance of Pool.
+	 * <p>
+	 * Must be called exactly once for each item obtained from {@link #get()},
+	 * otherwise {@link PoolProperties#getMaxActive() maxActive} is not maintained correctly.
+	 */
+	public void put(final E e)
+	{
+		requireNonNull(e);
+
+		try
+		{
+			putActive(e);
+		}
+		finally
+		{
+			releaseActive();
+			if(closed)
+				notifyClose();
+		}
+	}
+
+	/**
+	 * Has the same effect as calling {@link #put(Object)} for each of the {@code items},
+	 * but updates the idle level, the counters and the {@link PoolCounter}
+	 * just once for all items.
+	 * Items are validated and disposed outside of any lock.
+	 */
+	public void putAll(final Collection<? extends E> items)
+	{
+		requireNonNull(items, "items");
+		for(final E e : items)
+			requireNonNull(e, "items contains null");
+
+		final int n = items.size();
+		if(n==0)
+			return;
+
+		try
+		{
+			putAllActive(items);
+		}
+		finally
+		{
+			releaseActive(n);
+			if(closed)
+				notifyClose();
+		}
+	}
+
+	private void putAllActive(final Collection<? extends E> items)
+	{
+		final int n = items.size();
+		borrowed.add(-n);
+		if(borrows!=null)
+			for(final E e : items)
+				borrows.remove(new Borrow<>(e));
+		if(holds!=null)
+			for(final E e : items)
+				release(e);
+		put.increment(n);
+		if(counter!=null)
+			counter.incrementPut(n);
+
+		if(closed)
+		{
+			disposeAll(new ArrayList<>(items), "on putting into closed pool");
+			return;
+		}
+
+		final ArrayList<E> valid = new ArrayList<>(n);
+		final ArrayList<E> retired = new ArrayList<>();
+		int stale = 0;
+		int invalid = 0;
+		for(final E e : items)
+		{
+			if(isStale(e))
+			{
+				replaceStale(e);
+				retired.add(e);
+				stale++;
+			}
+			else if(isRetired(e))
+			{
+				retired.add(e);
+			}
+			else if(isValidOnPut(e))
+			{
+				valid.add(e);
+			}
+			else
+			{
+				invalid++;
+				forget(e);
+			}
+		}
+		invalidOnPut.increment(invalid);
+		refreshed.increment(stale);
+		maxLifetime.increment(retired.size() - stale);
+
+		final int reserved = reserveIdle(valid.size());
+		for(int i = 0; i<reserved; i++)
+			offerReservedIdle(valid.get(i));
+
+		for(int i = reserved; i<valid.size(); i++)
+			dispose(valid.get(i));
+		for(final E e : retired)
+			dispose(e);
+	}
+
+	/**
+	 * Returns a future completed with an item, without blocking the calling thread.
+	 * An idle item not requiring validation completes the result immediately.
+	 * Otherwise {@link Factory#isValidOnGet(Object) validation} and
+	 * {@link Factory#create() creation} of items run on {@code executor}.
+	 * If {@link PoolProperties#getMaxActive() maxActive} items are in use,
+	 * the result is completed as soon as an item is returned by {@link #put(Object)}.
+	 * Then it may be completed by the thread calling {@link #put(Object)},
+	 * so dependent stages should not block or use one of the {@code *Async} methods.
+	 * Callers waiting here are served before threads waiting in {@link #get()}.
+	 * <p>
+	 * Cancelling the result or completing it otherwise,
+	 * for instance by {@link CompletableFuture#orTimeout(long, TimeUnit)},
+	 * stops waiting.
+	 * The item of a result completed by the pool must be returned by {@link #put(Object)}
+	 * as for {@link #get()}.
+	 * If the result has been completed otherwise meanwhile,
+	 * the pool takes back the item by itself.
+	 * @throws IllegalStateException if the pool has been {@link #close(Duration) closed}
+	 */
+	public CompletableFuture<E> getAsync(final Executor executor)
+	{
+		requireNonNull(executor, "executor");
+		checkOpen();
+
+		final Waiter<E> waiter = new Waiter<>(executor, holds!=null ? caller() : null);
+		if(active==null || tryAcquireActive())
+		{
+			serve(waiter);
+			return waiter.future;
+		}
+
+		addWaiter(waiter);
+		waiter.future.whenComplete((result, failure) -> removeWaiter(waiter));
+		// A permit may have been released after failing to acquire it above,
+		// but before adding the waiter, so nobody would serve the waiter.
+		if(tryAcquireActive())
+		{
+			if(removeWaiter(waiter))
+				serve(waiter);
+			else
+				releaseActive(); // waiter has been served meanwhile
+		}
+		return waiter.future;
+	}
+
+	private void addWaiter(final Waiter<E> waiter)
+	{
+		synchronized(asyncWaitersLock)
+		{
+			asyncWaiters.add(waiter);
+			asyncWaiting = asyncWaiters.size();
+		}
+	}
+
+	/**
+	 * Returns false, if the waiter has been removed before.
+	 */
+	private boolean removeWaiter(final Waiter<E> waiter)
+	{
+		synchronized(asyncWaitersLock)
+		{
+			if(!asyncWaiters.remove(waiter))
+				return false;
+			asyncWaiting = asyncWaiters.size();
+			return true;
+		}
+	}
+
+	/**
+	 * Returns null, if there is no waiter.
+	 */
+	private Waiter<E> pollWaiter()
+	{
+		if(asyncWaiting==0)
+			return null;
+
+		synchronized(asyncWaitersLock)
+		{
+			final Iterator<Waiter<E>> i = asyncWaiters.iterator();
+			if(!i.hasNext())
+				return null;
+			final Waiter<E> result = i.next();
+			i.remove();
+			asyncWaiting = asyncWaiters.size();
+			return result;
+		}
+	}
+
+	/**
+	 * Unlike {@link Semaphore#tryAcquire()} does respect fairness,
+	 * so threads waiting in {@link #get()} do not starve.
+	 */
+	private boolean tryAcquireActive()
+	{
+		try
+		{
+			return active.tryAcquire(0, TimeUnit.NANOSECONDS);
+		}
+		catch(final InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	/**
+	 * Hands over a permit of {@link #active} to a caller of
+	 * {@link #getAsync(Executor)} waiting for it, if there is any.
+	 */
+	private void releaseActive()
+	{
+		releaseActive(1);
+	}
+
+	private void releaseActive(final int permits)
+	{
+		if(active==null)
+			return;
+
+		if(asyncWaiting==0)
+		{
+			active.release(permits);
+			return;
+		}
+
+		final HandOver handOver = this.handOver.get();
+		handOver.permits += permits;
+		if(handOver.running)
+			return;
+
+		handOver.running = true;
+		try
+		{
+			while(handOver.permits>0)
+			{
+				final Waiter<E> waiter = pollWaiter();
+				if(waiter==null)
+					break;
+				if(!waiter.future.isDone())
+				{
+					handOver.permits--;
+					serve(waiter);
+				}
+			}
+		}
+		finally
+		{
+			handOver.running = false;
+			final int remaining = handOver.permits;
+			handOver.permits = 0;
+			if(remaining>0)
+				active.release(remaining);
+		}
+	}
+
+	/**
+	 * Permits released by the current thread but not yet handed over,
+	 * see {@link Pool#handOver}.
+	 */
+	private static final class HandOver
+	{
+		int permits = 0;
+		boolean running = false;
+	}
+
+	/**
+	 * Must be called only after acquiring a permit from {@link #active}.
+	 */
+	private void serve(final Waiter<E> waiter)
+	{
+		if(closed)
+		{
+			releaseActive();
+			waiter.future.completeExceptionally(newClosedException());
+			return;
+		}
+
+		final Idle<E> entry = pollIdleEntry();
+		if(entry!=null && entry.validated>validatedLimit())
+		{
+			requestRefill();
+			complete(waiter, lend(entry.item));
+			return;
+		}
+
+		try
+		{
+			waiter.executor.execute(() ->
+			{
+				if(waiter.future.isDone())
+				{
+					returnIdle(entry);
+					releaseActive();
+					return;
+				}
+				final E result;
+				try
+				{
+					result = getActive(entry);
+				}
+				catch(final RuntimeException | Error e)
+				{
+					waiter.future.completeExceptionally(e);
+					return;
+				}
+				complete(waiter, result);
+			});
+		}
+		catch(final RejectedExecutionException e)
+		{
+			returnIdle(entry);
+			releaseActive();
+			waiter.future.completeExceptionally(e);
+		}
+	}
+
+	private void complete(final Waiter<E> waiter, final E e)
+	{
+		// before completing, because dependent stages may return the item immediately
+		if(holds!=null)
+			hold(e, waiter.caller);
+
+		if(!waiter.future.complete(e))
+		{
+			if(holds!=null)
+				holds.remove(new ItemReference<>(e));
+			put(e);
+		}
+	}
+
+	/**
+	 * Returns an item removed by {@link #pollIdleEntry()} but not handed out.
+	 */
+	private void returnIdle(final Idle<E> entry)
+	{
+		if(entry==null)
+			return;
+
+		if(!closed && reserveIdle())
+		{
+			homeIdle().addFirst(entry);
+
+			// pool may have been closed after checking for it
+			if(closed)
+				flush();
+			return;
+		}
+
+		try
+		{
+			dispose(entry.item);
+		}
+		catch(final Exception | AssertionError ex)
+		{
+			log.error("on returning idle item", ex);
+		}
+	}
+
+	private static final class Waiter<E>
+	{
+		final CompletableFuture<E> future = new CompletableFuture<>();
+		final Executor executor;
+		final String caller;
+
+		Waiter(final Executor executor, final String caller)
+		{
+			this.executor = executor;
+			this.caller = caller;
+		}
+	}
+
+	private void putActive(final E e)
+	{
+		borrowed.decrement();
+		if(borrows!=null)
+			borrows.remove(new Borrow<>(e));
+		if(holds!=null)
+			release(e);
+		put.increment();
+		if(counter!=null)
+			counter.incrementPut();
+
+		if(closed)
+		{
+			dispose(e);
+			return;
+		}
+
+		if(isStale(e))
+		{
+			refreshed.increment();
+			replaceStale(e);
+			dispose(e);
+			return;
+		}
+
+		if(isRetired(e))
+		{
+			maxLifetime.increment();
+			dispose(e);
+			return;
+		}
+
+		if(!isValidOnPut(e))
+		{
+			invalidOnPut.increment();
+			forget(e);
+			return;
+		}
+
+		if(affine!=null ? offerAffine(e) : offerIdle(e)!=null)
+			return;
+
+		dispose(e);
+	}
+
+	/**
+	 * Takes the item most recently returned by the current thread,
+	 * unless another thread has taken it meanwhile.
+	 * Returns null, if there is no such item.
+	 */
+	private Idle<E> pollAffine()
+	{
+		if(affine==null)
+			return null;
+
+		final Affine<E> affine = this.affine.get();
+		if(affine==null)
+			return null;
+
+		final Idle<E> result = affine.poll();
+		if(result==null)
+			return null;
+
+		idleLevel.decrementAndGet();
+		threadAffine.increment();
+		return result;
+	}
+
+	/**
+	 * Keeps {@code e} for the next {@link #get()} of the current thread.
+	 * An item kept before is moved to {@link #idle}.
+	 * Returns false, if {@link #idleLimit} has been reached.
+	 */
+	private boolean offerAffine(final E e)
+	{
+		if(!reserveIdle())
+			return false;
+
+		Affine<E> affine = this.affine.get();
+		if(affine==null)
+		{
+			affine = new Affine<>();
+			affines.add(affine);
+			this.affine.set(affine);
+		}
+		final Idle<E> displaced = affine.entry.getAndSet(new Idle<>(e));
+		if(displaced!=null)
+			addNewestIdle(displaced);
+
+		// pool may have been closed after checking for it
+		if(closed)
+			flush();
+
+		return true;
+	}
+
+	/**
+	 * Takes an item kept for another thread.
+	 * Is called only if {@link #idle} is empty,
+	 * so a thread does not create an item while another thread keeps one idle.
+	 * Returns null, if there is no such item.
+	 */
+	private Idle<E> stealAffine()
+	{
+		if(affines==null)
+			return null;
+
+		for(final Affine<E> affine : affines)
+		{
+			final Idle<E> result = affine.poll();
+			if(result!=null)
+			{
+				idleLevel.decrementAndGet();
+				return result;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Moves items kept for single threads to {@link #idle},
+	 * so they are subject to maintenance and flush.
+	 * Forgets threads that have terminated.
+	 */
+	private void drainAffine()
+	{
+		if(affines==null)
+			return;
+
+		for(final Iterator<Affine<E>> i = affines.iterator(); i.hasNext(); )
+		{
+			final Affine<E> affine = i.next();
+			final Idle<E> entry = affine.poll();
+			if(entry!=null)
+				addNewestIdle(entry);
+			if(!affine.isOwnerAlive())
+				i.remove();
+		}
+	}
+
+	/**
+	 * Holds at most one idle item for its owner thread.
+	 * Only the owner puts items into it, but any thread may take them out.
+	 */
+	private static final class Affine<E>
+	{
+		final AtomicReference<Idle<E>> entry = new AtomicReference<>();
+		private final WeakReference<Thread> owner = new WeakReference<>(Thread.currentThread());
+
+		/**
+		 * Returns null, if there is no item.
+		 */
+		Idle<E> poll()
+		{
+			return entry.get()!=null ? entry.getAndSet(null) : null;
+		}
+
+		boolean isOwnerAlive()
+		{
+			final Thread owner = this.owner.get();
+			return owner!=null && owner.isAlive();
+		}
+	}
+
+	private E hold(final E e)
+	{
+		if(holds!=null)
+			hold(e, caller());
+		return e;
+	}
+
+	private void hold(final E e, final String caller)
+	{
+		holds.put(new ItemReference<>(e), new Hold(System.nanoTime(), caller));
+	}
+
+	/**
+	 * Records the time {@code e} has been held since {@link #hold(Object, String)}.
+	 */
+	private void release(final E e)
+	{
+		final Hold hold = holds.remove(new ItemReference<>(e));
+		final HoldTimers holdTimers = this.holdTimers;
+		if(hold!=null && holdTimers!=null)
+			holdTimers.get(hold.caller).record(System.nanoTime() - hold.start, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Returns the class and method of the first stack frame outside of this pool,
+	 * not skipped by {@link PoolProperties#getHoldTimeCallerSkip() holdTimeCallerSkip}.
+	 */
+	private String caller()
+	{
+		return StackWalker.getInstance().walk(frames -> frames.
+				filter(frame -> !isCallerSkipped(frame.getClassName())).
+				findFirst().
+				map(frame -> frame.getClassName() + '#' + frame.getMethodName()).
+				orElse("unknown"));
+	}
+
+	private boolean isCallerSkipped(final String className)
+	{
+		if(className.equals(POOL_CLASS_NAME) || className.startsWith(POOL_CLASS_NAME + '$'))
+			return true;
+		for(final String prefix : holdTimeCallerSkip)
+			if(className.startsWith(prefix))
+				return true;
+		return false;
+	}
+
+	private static final String POOL_CLASS_NAME = Pool.class.getName();
+
+	private record Hold(long start, String caller) {}
+
+	/**
+	 * Creates a timer for each caller on demand,
+	 * see {@link PoolProperties#isHoldTime()}.
+	 */
+	private static final class HoldTimers
+	{
+		private final String name;
+		private final Tags tags;
+		private final MeterRegistry registry;
+		private final ConcurrentHashMap<String, Timer> timers = new ConcurrentHashMap<>();
+
+		HoldTimers(final String name, final Tags tags, final MeterRegistry registry)
+		{
+			this.name = name;
+			this.tags = tags;
+			this.registry = registry;
+		}
+
+		Timer get(final String caller)
+		{
+			return timers.computeIfAbsent(caller, c -> Timer.builder(name + ".hold").
+					tags(tags).
+					tag("caller", c).
+					description("Time items are held between Pool#get and Pool#put, by the method calling Pool#get").
+					// percentiles computed by the registry would require HdrHistogram
+					publishPercentileHistogram().
+					minimumExpectedValue(Duration.ofMillis(1)).
+					maximumExpectedValue(Duration.ofMinutes(10)).
+					register(registry));
+		}
+	}
+
+	private void borrow(final E e)
+	{
+		final int sampling = leakTraceSampling;
+		final Borrow<E> borrow = new Borrow<>(e,
+				Clock.currentTimeMillis(),
+				sampling>0 && ThreadLocalRandom.current().nextInt(sampling)==0
+				? new Exception("borrowed by Pool#get")
+				: null);
+		borrows.put(borrow, borrow);
+	}
+
+	/**
+	 * Does not prevent the item from being garbage collected,
+	 * so an item not returned to the pool does not cause a memory leak in addition.
+	 * Two instances are equal if they refer to the same item,
+	 * regardless of {@link Object#equals(Object)} of the item.
+	 */
+	private static class ItemReference<E> extends WeakReference<E>
+	{
+		private final int hashCode;
+
+		ItemReference(final E item)
+		{
+			super(item);
+			this.hashCode = System.identityHashCode(item);
+		}
+
+		@Override
+		public final boolean equals(final Object other)
+		{
+			if(this==other)
+				return true;
+			if(!(other instanceof ItemReference))
+				return false;
+			final Object item = get();
+			return item!=null && item==((ItemReference<?>)other).get();
+		}
+
+		@Override
+		public final int hashCode()
+		{
+			return hashCode;
+		}
+	}
+
+	private static final class Borrow<E> extends ItemReference<E>
+	{
+		final long since;
+		final Exception trace;
+		boolean reported = false;
+
+		Borrow(final E item, final long since, final Exception trace)
+		{
+			super(item);
+			this.since = since;
+			this.trace = trace;
+		}
+
+		/**
+		 * For looking up the instance created by {@link #borrow(Object)}.
+		 */
+		Borrow(final E item)
+		{
+			this(item, 0, null);
+		}
+	}
+
+	/**
+	 * Calls {@link Factory#create()} unless the circuit breaker is open,
+	 * and at most {@link PoolProperties#getMaxCreating() maxCreating} times concurrently.
+	 */
+	private E create()
+	{
+		final boolean tracked = creating!=null || breakerThreshold>0;
+		if(!tracked)
+			return createUntracked();
+
+		final boolean trial = checkBreaker();
+		final long completedBefore;
+		synchronized(createLock)
+		{
+			completedBefore = createCompleted;
+		}
+		final boolean waited = creating!=null && acquireCreating(trial);
+
+		try
+		{
+			if(waited && !trial)
+				checkCreateFailedWhileWaiting(completedBefore);
+
+			final E result;
+			try
+			{
+				result = createUntracked();
+			}
+			catch(final RuntimeException | Error e)
+			{
+				createFailed(e);
+				throw e;
+			}
+			createSucceeded();
+			return result;
+		}
+		finally
+		{
+			if(trial)
+				endBreakerTrial();
+			if(creating!=null)
+				creating.release();
+		}
+	}
+
+	/**
+	 * Returns true, if the caller had to wait for one of
+	 * {@link PoolProperties#getMaxCreating() maxCreating} creations.
+	 */
+	private boolean acquireCreating(final boolean trial)
+	{
+		if(creating.tryAcquire())
+			return false;
+
+		try
+		{
+			creating.acquire();
+			return true;
+		}
+		catch(final InterruptedException e)
+		{
+			if(trial)
+				endBreakerTrial();
+			Thread.currentThread().interrupt();
+			throw new PoolExhaustedException("interrupted while waiting for one of maxCreating creations", e);
+		}
+	}
+
+	/**
+	 * Returns true, if the caller is the single one allowed to try creating an item
+	 * after {@link PoolProperties#getBreakerBackoff() breakerBackoff}.
+	 * @throws PoolExhaustedException if the circuit breaker is open
+	 */
+	private boolean checkBreaker()
+	{
+		synchronized(createLock)
+		{
+			if(!breakerOpen)
+				return false;
+
+			if(!breakerTrial && Clock.currentTimeMillis()>=breakerOpenUntil)
+			{
+				breakerTrial = true;
+				return true;
+			}
+		}
+		breakerRejected.increment();
+		throw newBreakerOpenException();
+	}
+
+	private PoolExhaustedException newBreakerOpenException()
+	{
+		synchronized(createLock)
+		{
+			return new PoolExhaustedException(
+					"circuit breaker open after " + createFailures + " consecutive failures of Factory#create",
+					createFailure);
+		}
+	}
+
+	/**
+	 * Shares the failure of a call to {@link Factory#create()} completed
+	 * while waiting for one of {@link PoolProperties#getMaxCreating() maxCreating} creations,
+	 * so that callers waiting for a failing resource do not try one after another.
+	 */
+	private void checkCreateFailedWhileWaiting(final long completedBefore)
+	{
+		synchronized(createLock)
+		{
+			if(createCompleted==completedBefore || createFailures==0)
+				return;
+
+			throw new PoolExhaustedException(
+					"Factory#create failed while waiting for one of maxCreating creations",
+					createFailure);
+		}
+	}
+
+	private void createSucceeded()
+	{
+		final boolean closed;
+		synchronized(createLock)
+		{
+			createCompleted++;
+			createFailures = 0;
+			createFailure = null;
+			closed = breakerOpen;
+			breakerOpen = false;
+		}
+		if(closed)
+			log.info("circuit breaker closed");
+	}
+
+	private void createFailed(final Throwable failure)
+	{
+		final int threshold = breakerThreshold;
+		final int failures;
+		final boolean opened;
+		synchronized(createLock)
+		{
+			createCompleted++;
+			failures = ++createFailures;
+			createFailure = failure;
+			opened = threshold>0 && failures>=threshold;
+			if(opened)
+			{
+				breakerOpen = true;
+				breakerOpenUntil = Clock.currentTimeMillis() + breakerBackoffMillis;
+			}
+		}
+		if(opened)
+			log.warn(
+					"circuit breaker open for {}ms after {} consecutive failures of Factory#create",
+					breakerBackoffMillis, failures);
+	}
+
+	private void endBreakerTrial()
+	{
+		synchronized(createLock)
+		{
+			breakerTrial = false;
+		}
+	}
+
+	private void closeBreaker()
+	{
+		synchronized(createLock)
+		{
+			createFailures = 0;
+			createFailure = null;
+			breakerOpen = false;
+		}
+	}
+
+	private BreakerState getBreakerState()
+	{
+		synchronized(createLock)
+		{
+			if(!breakerOpen)
+				return BreakerState.CLOSED;
+			return
+					breakerTrial || Clock.currentTimeMillis()>=breakerOpenUntil
+					? BreakerState.HALF_OPEN
+					: BreakerState.OPEN;
+		}
+	}
+
+	private enum BreakerState
+	{
+		CLOSED("closed"),
+		OPEN("open"),
+		HALF_OPEN("halfOpen");
+
+		final String tag;
+
+		BreakerState(final String tag)
+		{
+			this.tag = tag;
+		}
+	}
+
+	private E createUntracked()
+	{
+		// before creating, items created while a refresh begins are stale already
+		final int generation = this.generation.get();
+		final long start = startTimer();
+		final E result;
+		try
+		{
+			result = factory.create();
+		}
+		finally
+		{
+			stopTimer(create, start);
+		}
+
+		if(retireAt!=null)
+		{
+			final long jitter = maxLifetimeJitterMillis;
+			retireAt.put(
+					new ItemReference<>(result),
+					Clock.currentTimeMillis() + maxLifetimeMillis -
+					(jitter>0 ? ThreadLocalRandom.current().nextLong(jitter+1) : 0));
+		}
+		stamp(result, generation);
+		return result;
+	}
+
+	/**
+	 * @param generation the {@link #generation} at the beginning of creating {@code e}
+	 */
+	private void stamp(final E e, final int generation)
+	{
+		// prevents dropGenerations from missing an item whose creation began before a refresh
+		synchronized(generationLock)
+		{
+			if(generation==unstampedGeneration)
+				unstampedAlive.incrementAndGet();
+			else
+				generations.put(new ItemReference<>(e), generation);
+		}
+	}
+
+	/**
+	 * Stops stamping items with their generation,
+	 * if there is no unstamped item of an older generation anymore.
+	 * Items stamped with the current generation become unstamped.
+	 */
+	private void dropGenerations()
+	{
+		final int current = generation.get();
+		synchronized(generationLock)
+		{
+			if(unstampedGeneration==current || unstampedAlive.get()!=0)
+				return;
+
+			// before removing stamps, see isStale
+			unstampedGeneration = current;
+			for(final ItemReference<E> reference : generations.keySet())
+				if(generations.remove(reference, current))
+					unstampedAlive.incrementAndGet();
+		}
+	}
+
+	private boolean isRetired(final E e)
+	{
+		if(retireAt==null)
+			return false;
+
+		final Long at = retireAt.get(new ItemReference<>(e));
+		return at!=null && at<=Clock.currentTimeMillis();
+	}
+
+	/**
+	 * Must be called for items no longer in the pool.
+	 */
+	private void forget(final E e)
+	{
+		if(retireAt!=null)
+			retireAt.remove(new ItemReference<>(e));
+		if(generations.isEmpty() || generations.remove(new ItemReference<>(e))==null)
+			unstampedAlive.decrementAndGet();
+	}
+
+	/**
+	 * Returns true, if the creation of {@code e} has begun before the most recent
+	 * {@link #refresh(ScheduledExecutorService, Duration) rolling refresh}.
+	 */
+	private boolean isStale(final E e)
+	{
+		final int current = generation.get();
+		if(current==unstampedGeneration && generations.isEmpty())
+			return false;
+
+		final Integer stamp = generations.get(new ItemReference<>(e));
+		// after looking up the stamp, because dropGenerations raises it before removing stamps
+		return (stamp!=null ? stamp : unstampedGeneration)<current;
+	}
+
+	private boolean isValidOnPut(final E e)
+	{
+		final long start = startTimer();
+		try
+		{
+			return factory.isValidOnPut(e);
+		}
+		finally
+		{
+			stopTimer(validateOnPut, start);
+		}
+	}
+
+	private void dispose(final E e)
+	{
+		final long start = startTimer();
+		try
+		{
+			factory.dispose(e);
+		}
+		finally
+		{
+			stopTimer(dispose, start);
+			forget(e);
+		}
+	}
+
+	private void requestRefill()
+	{
+		if(closed || idleLevel.get()>=minIdle)
+			return;
+		final Executor refillExecutor = this.refillExecutor;
+		if(refillExecutor==null || refilling.get())
+			return;
+
+		try
+		{
+			refillExecutor.execute(this::refillLogged);
+		}
+		catch(final RejectedExecutionException ignored)
+		{
+			// executor has been shut down, which stops maintenance as well
+		}
+	}
+
+	/**
+	 * Items validated at or before the result must be validated again.
+	 */
+	private long validatedLimit()
+	{
+		final long validationIntervalMillis = this.validationIntervalMillis;
+		return
+				validationIntervalMillis>0
+				? Clock.currentTimeMillis() - validationIntervalMillis
+				: Long.MAX_VALUE;
+	}
+
+	private boolean isValid(final E e, final Timer timer)
+	{
+		final long start = startTimer();
+		try
+		{
+			return factory.isValidOnGet(e);
+		}
+		finally
+		{
+			stopTimer(timer, start);
+		}
+	}
+
+	/**
+	 * Returns {@link #NOT_TIMED}, if no meter registry has been
+	 * {@link #register(String, Tags, MeterRegistry) registered}.
+	 */
+	private long startTimer()
+	{
+		return timed ? System.nanoTime() : NOT_TIMED;
+	}
+
+	private static void stopTimer(final Timer timer, final long start)
+	{
+		if(start!=NOT_TIMED)
+			timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+	}
+
+	private static final long NOT_TIMED = Long.MIN_VALUE;
+
+	/**
+	 * Returns null, if there is no idle item.
+	 */
+	private E pollIdle()
+	{
+		final Idle<E> result = pollIdleEntry();
+		return result!=null ? result.item : null;
+	}
+
+	/**
+	 * Returns null, if there is no idle item.
+	 */
+	private Idle<E> pollIdleEntry()
+	{
+		return pollIdleEntry(false);
+	}
+
+	/**
+	 * Takes an entry from the last instead of the first end of a stripe of {@link #idle}, if {@code last} is true.
+	 * Starts with the {@link #homeIdle() home stripe} of the current thread.
+	 * Returns null, if there is no idle item.
+	 */
+	private Idle<E> pollIdleEntry(final boolean last)
+	{
+		final int home = homeIndex();
+		for(int i = 0; i<=idleMask; i++)
+		{
+			final ConcurrentLinkedDeque<Idle<E>> stripe = idle.get((home + i) & idleMask);
+			final Idle<E> result = last ? stripe.pollLast() : stripe.pollFirst();
+			if(result!=null)
+			{
+				idleLevel.decrementAndGet();
+				return result;
+			}
+		}
+		return stealAffine();
+	}
+
+	/**
+	 * The stripe of {@link #idle} the current thread adds items to.
+	 */
+	private ConcurrentLinkedDeque<Idle<E>> homeIdle()
+	{
+		return idle.get(homeIndex());
+	}
+
+	private int homeIndex()
+	{
+		return (int)Thread.currentThread().getId() & idleMask;
+	}
+
+	/**
+	 * Returns null, if {@link #idleLimit} has been reached.
+	 */
+	private Idle<E> offerIdle(final E e)
+	{
+		if(!reserveIdle())
+			return null;
+
+		return offerReservedIdle(e);
+	}
+
+	/**
+	 * Must be preceded by {@link #reserveIdle()}.
+	 */
+	private Idle<E> offerReservedIdle(final E e)
+	{
+		final Idle<E> entry = new Idle<>(e);
+		addNewestIdle(entry);
+
+		// pool may have been closed after checking for it
+		if(closed)
+			flush();
+
+		return entry;
+	}
+
+	/**
+	 * Adds an item at the end of the {@link #homeIdle() home stripe} where the newest items are.
+	 * Must be preceded by {@link #reserveIdle()}.
+	 */
+	private void addNewestIdle(final Idle<E> entry)
+	{
+		final ConcurrentLinkedDeque<Idle<E>> stripe = homeIdle();
+		if(lifo)
+			stripe.addFirst(entry);
+		else
+			stripe.addLast(entry);
+	}
+
+	/**
+	 * Adds an item at the end of {@code stripe} where the oldest items are.
+	 * Must be preceded by {@link #reserveIdle()}.
+	 */
+	private void addOldestIdle(final ConcurrentLinkedDeque<Idle<E>> stripe, final Idle<E> entry)
+	{
+		if(lifo)
+			stripe.addLast(entry);
+		else
+			stripe.addFirst(entry);
+	}
+
+	/**
+	 * Returns false, if a concurrent thread did take the item meanwhile.
+	 * Otherwise decrements {@link #idleLevel}.
+	 */
+	private boolean removeIdle(final Idle<E> entry)
+	{
+		for(final ConcurrentLinkedDeque<Idle<E>> stripe : idle)
+			if(removeIdle(stripe, entry))
+				return true;
+		return false;
+	}
+
+	/**
+	 * Starts searching at the end of {@code stripe} where the oldest items are.
+	 */
+	private boolean removeIdle(final ConcurrentLinkedDeque<Idle<E>> stripe, final Idle<E> entry)
+	{
+		if(!(lifo ? stripe.removeLastOccurrence(entry) : stripe.removeFirstOccurrence(entry)))
+			return false;
+
+		idleLevel.decrementAndGet();
+		return true;
+	}
+
+	/**
+	 * Increments {@link #idleLevel}, if {@link #idleLimit} has not been reached.
+	 * Must be followed by adding an item to {@link #idle}.
+	 */
+	private boolean reserveIdle()
+	{
+		return reserveIdle(1)==1;
+	}
+
+	/**
+	 * Increments {@link #idleLevel} by at most {@code n} without exceeding {@link #idleLimit}.
+	 * Must be followed by adding as many items to {@link #idle} as returned.
+	 */
+	private int reserveIdle(final int n)
+	{
+		final AtomicInteger idleLevel = this.idleLevel;
+		final int idleLimit = this.idleLimit;
+		int level;
+		int reserved;
+		do
+		{
+			level = idleLevel.get();
+			reserved = Math.min(n, idleLimit - level);
+			if(reserved<=0)
+				return 0;
+		}
+		while(!idleLevel.compareAndSet(level, level+reserved));
+
+		return reserved;
+	}
+
+	private static final class Idle<E>
+	{
+		final E item;
+		final long since;
+		final long validated;
+
+		Idle(final E item)
+		{
+			this.item = item;
+			this.since = Clock.currentTimeMillis();
+			this.validated = since;
+		}
+
+		private Idle(final Idle<E> original, final long validated)
+		{
+			this.item = original.item;
+			this.since = original.since;
+			this.validated = validated;
+		}
+
+		Idle<E> validated(final long validated)
+		{
+			return new Idle<>(this, validated);
+		}
+
+	}
+
+	public void flush()
+	{
+		final long start = System.nanoTime();
+		final ArrayList<E> items = pollIdleForFlush();
+		flushFailed.increment(disposeAll(items, "on flushing pool"));
+		flush.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Disposes idle items concurrently on {@code executor},
+	 * and waits at most {@code timeout} for completion.
+	 * Items not disposed within {@code timeout} are abandoned:
+	 * their disposal is skipped, if not started yet,
+	 * otherwise it continues without being waited for.
+	 * The same applies to items rejected by {@code executor}.
+	 * The executor is owned by the caller and
+	 * limits the number of items disposed concurrently.
+	 * @return the number of items abandoned
+	 */
+	public int flush(final Executor executor, final Duration timeout)
+	{
+		requireNonNull(executor, "executor");
+		requireNonNull(timeout, "timeout");
+
+		final long start = System.nanoTime();
+		final ArrayList<E> items = pollIdleForFlush();
+		final CountDownLatch pending = new CountDownLatch(items.size());
+		final AtomicBoolean abandoned = new AtomicBoolean();
+		int rejected = 0;
+		for(final E e : items)
+		{
+			try
+			{
+				executor.execute(() ->
+				{
+					try
+					{
+						if(!abandoned.get())
+							flushFailed.increment(disposeAll(List.of(e), "on flushing pool"));
+						else
+							forget(e);
+					}
+					finally
+					{
+						pending.countDown();
+					}
+				});
+			}
+			catch(final RejectedExecutionException ignored)
+			{
+				rejected++;
+				forget(e);
+				pending.countDown();
+			}
+		}
+
+		try
+		{
+			//noinspection ResultOfMethodCallIgnored OK: pending count is evaluated below
+			pending.await(timeout.isNegative() ? 0 : saturatedNanos(timeout), TimeUnit.NANOSECONDS);
+		}
+		catch(final InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		abandoned.set(true);
+
+		final int result = Math.toIntExact(pending.getCount()) + rejected;
+		if(result>0)
+		{
+			flushAbandoned.increment(result);
+			log.warn(
+					"abandoned {} of {} idle items on flushing pool, {} rejected by executor, timeout {}",
+					result, items.size(), rejected, timeout);
+		}
+		flush.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+		return result;
+	}
+
+	/**
+	 * Removes idle items for disposing them afterwards.
+	 * Limits removal to the items idle at the beginning of flush,
+	 * so concurrent threads putting items cannot keep flush busy forever.
+	 */
+	private ArrayList<E> pollIdleForFlush()
+	{
+		drainAffine();
+		final int idleLevelAtStart = idleLevel.get();
+		final ArrayList<E> result = new ArrayList<>(idleLevelAtStart);
+		for(int i = 0; i<idleLevelAtStart; i++)
+		{
+			final E e = pollIdle();
+			if(e==null)
+				break;
+			result.add(e);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the number of items failing to dispose.
+	 */
+	private int disposeAll(final List<E> items, final String message)
+	{
+		int result = 0;
+		for(final E e : items)
+		{
+			try
+			{
+				dispose(e);
+			}
+			catch(final Exception | AssertionError ex)
+			{
+				log.error(message, ex);
+				result++;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Replaces all items of this pool gradually,
+	 * for instance after credentials have been rotated.
+	 * Unlike {@link #flush()} the pool does not run empty:
+	 * every {@code interval} one of the items idle at the beginning of the refresh
+	 * is replaced on {@code executor} by a newly created item,
+	 * which is created before the old item is disposed.
+	 * Items created before the refresh, including those whose creation
+	 * has begun before but completed afterwards,
+	 * are disposed as soon as they are returned by {@link #put(Object)},
+	 * even after the refresh has completed.
+	 * While the refresh is in progress, such items are replaced on {@code executor} immediately,
+	 * so the pool does not run empty if stale items are taken and returned
+	 * faster than {@code interval}.
+	 * Progress is reported by {@link Info#getRefreshRemaining()}.
+	 * A refresh in progress is superseded by calling this method again.
+	 * The executor is owned by the caller.
+	 * @return a future completed as soon as all items idle at the beginning of the refresh
+	 *         have been replaced, either by the refresh itself
+	 *         or when returned by {@link #put(Object)} after being taken by {@link #get()},
+	 *         or the refresh has been superseded
+	 * @throws IllegalStateException if the pool has been {@link #close(Duration) closed}
+	 */
+	public CompletableFuture<Void> refresh(
+			final ScheduledExecutorService executor,
+			final Duration interval)
+	{
+		requireNonNull(executor, "executor");
+		requireNonNull(interval, "interval");
+		if(interval.isNegative() || interval.isZero())
+			throw new IllegalArgumentException("interval must be greater zero, but was " + interval);
+		checkOpen();
+
+		generation.incrementAndGet();
+		drainAffine();
+		final ArrayDeque<E> staleIdle = new ArrayDeque<>();
+		for(final ConcurrentLinkedDeque<Idle<E>> stripe : idle)
+			for(final Idle<E> entry : stripe)
+				if(isStale(entry.item))
+					staleIdle.add(entry.item);
+		final Refresh<E> refresh = new Refresh<>(staleIdle, executor);
+		final Refresh<E> previous = this.refresh.getAndSet(refresh);
+		if(previous!=null)
+			previous.finish();
+		if(staleIdle.isEmpty())
+		{
+			finishRefresh(refresh);
+			return refresh.future.copy();
+		}
+
+		final long intervalNanos = interval.toNanos();
+		refresh.task = executor.scheduleWithFixedDelay(
+				() -> refreshStep(refresh),
+				intervalNanos, intervalNanos, TimeUnit.NANOSECONDS);
+		return refresh.future.copy();
+	}
+
+	private void refreshStep(final Refresh<E> refresh)
+	{
+		if(closed || this.refresh.get()!=refresh)
+		{
+			refresh.finish();
+			return;
+		}
+
+		replaceMissing(refresh);
+
+		// skip items no longer idle, they are replaced when returned
+		E stale;
+		Idle<E> entry = null;
+		while((stale = refresh.staleIdle.peek())!=null &&
+				(!refresh.isPending(stale) || (entry = findIdle(stale))==null))
+			refresh.staleIdle.poll();
+		if(stale==null)
+		{
+			if(refresh.remaining()==0)
+				finishRefresh(refresh);
+			return;
+		}
+
+		final E fresh;
+		try
+		{
+			fresh = create();
+		}
+		catch(final RuntimeException | AssertionError e)
+		{
+			// tries again on next step
+			log.error("on refreshing pool", e);
+			return;
+		}
+
+		refresh.staleIdle.poll();
+		final boolean removed = removeIdle(entry);
+		if(offerIdle(fresh)==null)
+			disposeAll(List.of(fresh), "on refreshing pool");
+		if(removed)
+		{
+			refresh.pending.remove(new ItemReference<>(stale));
+			refreshed.increment();
+			disposeAll(List.of(stale), "on refreshing pool");
+		}
+		if(refresh.remaining()==0)
+			finishRefresh(refresh);
+	}
+
+	/**
+	 * Is called for stale items disposed on {@link #put(Object)}.
+	 * Replaces {@code e} in the background, if a refresh is in progress.
+	 */
+	private void replaceStale(final E e)
+	{
+		final Refresh<E> refresh = this.refresh.get();
+		if(refresh==null)
+			return;
+
+		refresh.pending.remove(new ItemReference<>(e));
+		refresh.missing.incrementAndGet();
+		try
+		{
+			refresh.executor.execute(() -> replaceMissing(refresh));
+		}
+		catch(final RejectedExecutionException ignored)
+		{
+			// executor has been shut down, which stops the refresh as well
+		}
+	}
+
+	/**
+	 * Creates items for stale items disposed on {@link #put(Object)}.
+	 */
+	private void replaceMissing(final Refresh<E> refresh)
+	{
+		while(!closed && refresh.takeMissing())
+		{
+			final E fresh;
+			try
+			{
+				fresh = create();
+			}
+			catch(final RuntimeException | AssertionError e)
+			{
+				// tries again on next step
+				refresh.missing.incrementAndGet();
+				log.error("on refreshing pool", e);
+				return;
+			}
+			if(offerIdle(fresh)==null)
+				disposeAll(List.of(fresh), "on refreshing pool");
+		}
+		if(refresh.remaining()==0)
+			finishRefresh(refresh);
+	}
+
+	/**
+	 * Stale items still in use are recognized by {@link #isStale(Object)} afterwards,
+	 * so the refresh does not need to wait for them.
+	 */
+	private void finishRefresh(final Refresh<E> refresh)
+	{
+		this.refresh.compareAndSet(refresh, null);
+		refresh.finish();
+	}
+
+	/**
+	 * Returns null, if {@code e} is not idle.
+	 */
+	private Idle<E> findIdle(final E e)
+	{
+		for(final ConcurrentLinkedDeque<Idle<E>> stripe : idle)
+			for(final Idle<E> entry : stripe)
+				if(entry.item==e)
+					return entry;
+		return null;
+	}
+
+	private static final class Refresh<E>
+	{
+		/**
+		 * Items idle at the beginning of the refresh, in the order they are replaced.
+		 * Is accessed by {@link Pool#refreshStep(Refresh)} only.
+		 */
+		final ArrayDeque<E> staleIdle;
+		/**
+		 * Items idle at the beginning of the refresh and not yet replaced,
+		 * including items taken by {@link Pool#get()} meanwhile.
+		 */
+		final Set<ItemReference<E>> pending = ConcurrentHashMap.newKeySet();
+		/**
+		 * The number of stale items disposed on {@link Pool#put(Object)} and not yet replaced.
+		 */
+		final AtomicInteger missing = new AtomicInteger();
+		final ScheduledExecutorService executor;
+		final CompletableFuture<Void> future = new CompletableFuture<>();
+		volatile ScheduledFuture<?> task;
+
+		Refresh(final ArrayDeque<E> staleIdle, final ScheduledExecutorService executor)
+		{
+			this.staleIdle = staleIdle;
+			this.executor = executor;
+			for(final E e : staleIdle)
+				pending.add(new ItemReference<>(e));
+		}
+
+		boolean isPending(final E e)
+		{
+			return pending.contains(new ItemReference<>(e));
+		}
+
+		/**
+		 * Returns false, if there is no item missing.
+		 */
+		boolean takeMissing()
+		{
+			for(int missing = this.missing.get(); missing>0; missing = this.missing.get())
+				if(this.missing.compareAndSet(missing, missing-1))
+					return true;
+			return false;
+		}
+
+		int remaining()
+		{
+			return pending.size() + missing.get();
+		}
+
+		void finish()
+		{
+			final ScheduledFuture<?> task = this.task;
+			if(task!=null)
+				task.cancel(false);
+			future.complete(null);
+		}
+	}
+
+	/**
+	 * Disposes items that have been idle for longer than
+	 * {@link PoolProperties#getIdleTimeout() idle timeout},
+	 * and idle items older than {@link PoolProperties#getMaxLifetime() maxLifetime}.
+	 * Validates idle items not validated within
+	 * {@link PoolProperties#getValidationInterval() validation interval}.
+	 * Restores the idle limit reduced because of
+	 * {@link PoolProperties#getMemoryPressureThreshold() memory pressure},
+	 * if the pressure is gone.
+	 * Adjusts the idle limit according to
+	 * {@link PoolProperties#getAutoTuneLoss() autoTuneLoss}.
+	 * Afterwards reports items not returned within
+	 * {@link PoolProperties#getLeakThreshold() leak threshold}.
+	 * Finally creates items until there are
+	 * {@link PoolProperties#getMinIdle() minIdle} idle items,
+	 * so a failing {@link Factory#create()} does not skip any of the steps above.
+	 * Items are validated, disposed and created outside of any lock,
+	 * so concurrent calls to {@link #get()} and {@link #put(Object)} are not blocked.
+	 * <p>
+	 * Should be called periodically,
+	 * see {@link #scheduleMaintenance(ScheduledExecutorService, Duration)}.
+	 */
+	public void maintain()
+	{
+		if(closed)
+			return;
+
+		drainAffine();
+		if(idleTimeoutMillis>0)
+			evictIdleTimeout();
+		if(retireAt!=null)
+			evictMaxLifetime();
+		if(validationIntervalMillis>0)
+			validateIdle();
+		if(memoryPressure)
+			checkMemoryPressure();
+		if(autoTuneLoss>0 && !memoryPressure)
+			autoTune();
+		if(borrows!=null)
+			detectLeaks();
+		// items garbage collected without being returned to the pool
+		if(holds!=null)
+			holds.keySet().removeIf(reference -> reference.get()==null);
+		if(!generations.isEmpty())
+			generations.keySet().removeIf(reference -> reference.get()==null);
+		final Refresh<E> refresh = this.refresh.get();
+		if(refresh!=null)
+			refresh.pending.removeIf(reference -> reference.get()==null);
+		dropGenerations();
+		// last, because creating items fails while the resource is down
+		refill();
+	}
+
+	private void detectLeaks()
+	{
+		final long now = Clock.currentTimeMillis();
+		final long limit = now - leakThresholdMillis;
+		int leaked = 0;
+		for(final Iterator<Borrow<E>> i = borrows.keySet().iterator(); i.hasNext(); )
+		{
+			final Borrow<E> borrow = i.next();
+			if(borrow.get()==null)
+			{
+				i.remove();
+				log.warn(
+						"leaked item garbage collected, borrowed {}ms ago" + traceHint(borrow),
+						now - borrow.since, borrow.trace);
+			}
+			else if(borrow.since<=limit)
+			{
+				leaked++;
+				if(!borrow.reported)
+				{
+					borrow.reported = true;
+					log.warn(
+							"leaked item not returned within {}ms, borrowed {}ms ago" + traceHint(borrow),
+							leakThresholdMillis, now - borrow.since, borrow.trace);
+				}
+			}
+		}
+		this.leaked = leaked;
+	}
+
+	private static String traceHint(final Borrow<?> borrow)
+	{
+		return borrow.trace!=null ? "" : ", no stack trace sampled";
+	}
+
+	private void validateIdle()
+	{
+		final long validatedLimit = validatedLimit();
+		// Removing the items prevents concurrent threads from taking them while validating.
+		// The stripe of each item is kept, for adding it back to the same stripe.
+		final ArrayList<Idle<E>> removed = new ArrayList<>();
+		final ArrayList<ConcurrentLinkedDeque<Idle<E>>> removedFrom = new ArrayList<>();
+		for(final ConcurrentLinkedDeque<Idle<E>> stripe : idle)
+		{
+			final ArrayList<Idle<E>> candidates = new ArrayList<>();
+			for(final Iterator<Idle<E>> i = lifo ? stripe.iterator() : stripe.descendingIterator(); i.hasNext(); )
+			{
+				final Idle<E> entry = i.next();
+				if(entry.validated<=validatedLimit)
+					candidates.add(entry);
+			}
+			for(final Idle<E> candidate : candidates)
+			{
+				if(removeIdle(stripe, candidate))
+				{
+					removed.add(candidate);
+					removedFrom.add(stripe);
+				}
+			}
+		}
+		if(removed.isEmpty())
+			return;
+
+		final ArrayList<E> items = new ArrayList<>(removed.size());
+		for(final Idle<E> entry : removed)
+			items.add(entry.item);
+		final Set<E> invalid = Collections.newSetFromMap(new IdentityHashMap<>());
+		try
+		{
+			invalid.addAll(validateAll(items));
+		}
+		catch(final Exception | AssertionError ex)
+		{
+			log.error("on validating idle items", ex);
+			invalid.addAll(items);
+		}
+		invalidOnIdle.increment(invalid.size());
+
+		// Candidates of each stripe are ordered newest first.
+		// Therefore, adding them back at the oldest end retains their order among each other,
+		// but puts them before items not validated, even if those have been idle for a shorter time.
+		final long validated = Clock.currentTimeMillis();
+		final ArrayList<E> dispose = new ArrayList<>();
+		for(int i = 0; i<removed.size(); i++)
+		{
+			final Idle<E> entry = removed.get(i);
+			if(!invalid.contains(entry.item) && reserveIdle())
+				addOldestIdle(removedFrom.get(i), entry.validated(validated));
+			else
+				dispose.add(entry.item);
+		}
+		disposeAll(dispose, "on validating idle item");
 	}
 
-	// TODO: allow changing pool size
-	// TODO: implement idle timeout
-	//       ensure, that idle items in the pool do
-	//       not stay idle for a indefinite time,
-	//       but are disposed after a certain time to avoid
-	//       running into some idle timeout implemented by the
-	//       item itself.
-	//       maybe then no ring buffer is needed.
+	private List<E> validateAll(final List<E> items)
+	{
+		final long start = startTimer();
+		try
+		{
+			return factory.validateAll(items);
+		}
+		finally
+		{
+			stopTimer(validateOnIdle, start);
+		}
+	}
 
-	private final Factory<E> factory;
-	private final int idleLimit;
-	private final int idleInitial;
+	private void autoTune()
+	{
+		final Integer idleLimit;
+		synchronized(autoTuneLock)
+		{
+			final long now = Clock.currentTimeMillis();
+			if(autoTuneLast!=Long.MIN_VALUE && now-autoTuneLast<autoTuneIntervalMillis)
+				return;
 
-	private final E[] idle;
-	private int idleLevel, idleFrom, idleTo;
-	private final Object lock = new Object();
+			autoTuneLast = now;
+			final List<PoolCounter.Pool> previous = autoTunePools;
+			final List<PoolCounter.Pool> current = counter.getPools();
+			autoTunePools = current;
+			if(previous==null)
+				return; // simulation did not yet run for an interval
 
-	private Counter get = noopCounter;
-	private Counter put = noopCounter;
-	private final PoolCounter counter;
-	private Counter invalidOnGet = noopCounter;
-	private Counter invalidOnPut = noopCounter;
+			idleLimit = autoTune(previous, current);
+		}
 
-	public Pool(final Factory<E> factory, final PoolProperties properties, final PoolCounter counter)
+		if(idleLimit==null)
+		{
+			autoTuneKeep.increment();
+			return;
+		}
+
+		final int before = this.idleLimit;
+		(idleLimit>before ? autoTuneGrow : autoTuneShrink).increment();
+		log.info("auto tuning idle limit from {} to {}", before, idleLimit);
+		setIdleLimit(idleLimit);
+	}
+
+	/**
+	 * Returns null, if the idle limit should not be changed.
+	 * Computes the loss of each simulated pool during the interval
+	 * between {@code previous} and {@code current}.
+	 */
+	private Integer autoTune(
+			final List<PoolCounter.Pool> previous,
+			final List<PoolCounter.Pool> current)
 	{
-		requireNonNull(factory, "factory");
-		requireNonNull(properties, "properties");
+		final int get = current.get(0).getGetCounter() - previous.get(0).getGetCounter();
+		if(get==0)
+			return null;
 
-		this.factory = factory;
-		this.idleLimit = properties.idleLimit;
-		this.idleInitial = properties.idleInitial;
+		// A simulated pool missing in previous has been added because
+		// the pool with the next smaller idle limit did start destroying items.
+		// Therefore it did not destroy items before.
+		final HashMap<Integer, Integer> previousDestroy = new HashMap<>();
+		for(final PoolCounter.Pool p : previous)
+			previousDestroy.put(p.getIdleLimit(), p.getDestroyCounter());
 
-		this.idle = idleLimit>0 ? cast(new Object[idleLimit]) : null;
+		final int lower = minIdle;
+		final int upper = idleLimitConfigured;
+		final int growLoss = autoTuneLoss;
+		final int shrinkLoss = growLoss - autoTuneHysteresis;
+		int grow = upper;
+		int shrink = upper;
+		for(final PoolCounter.Pool p : current)
+		{
+			final int limit = p.getIdleLimit();
+			if(limit<lower || limit>upper)
+				continue;
 
-		this.idleLevel = idleInitial;
-		this.idleFrom = 0;
-		this.idleTo = idleInitial<idleLimit ? idleInitial : 0;
-		for(int i = 0; i<idleInitial; i++)
-			//noinspection DataFlowIssue OK: is not null if idleLimit>0
-			idle[i] = factory.create();
+			final int destroy = p.getDestroyCounter() - previousDestroy.getOrDefault(limit, 0);
+			final int loss = (100*destroy)/get;
+			if(loss<growLoss && limit<grow)
+				grow = limit;
+			if(loss<shrinkLoss && limit<shrink)
+				shrink = limit;
+		}
 
-		this.counter = counter;
+		final int idleLimit = this.idleLimit;
+		if(grow>idleLimit)
+			return grow;
+		if(shrink<idleLimit)
+			return shrink;
+		return null;
 	}
 
-	@SuppressWarnings({"unchecked", "SuspiciousArrayCast"}) // OK: no generic arrays
-	private E[] cast(final Object[] o)
+	private void refill()
 	{
-		return (E[])o;
+		// prevents concurrent refills from overshooting minIdle
+		if(!refilling.compareAndSet(false, true))
+			return;
+
+		try
+		{
+			// would fail anyway, get tries again after breakerBackoff
+			while(!closed && idleLevel.get()<minIdle && getBreakerState()!=BreakerState.OPEN)
+			{
+				final E e = create();
+				if(offerIdle(e)==null)
+				{
+					dispose(e);
+					break;
+				}
+			}
+		}
+		finally
+		{
+			refilling.set(false);
+		}
 	}
 
-	public void register(
-			final String name,
-			final Tags tags,
-			final MeterRegistry registry)
+	private void refillLogged()
 	{
-		requireNonEmpty(name, "name");
-		requireNonNull(tags, "tags");
-		requireNonNull(registry, "registry");
+		try
+		{
+			refill();
+		}
+		catch(final RuntimeException | AssertionError e)
+		{
+			log.error("on refilling pool", e);
+		}
+	}
 
-		final Counter.Builder usage = Counter.builder(name + ".usage").
-				tags(tags).
-				description("Pool#[get|put]");
-		final Counter.Builder invalid = Counter.builder(name + ".invalid").
-				tags(tags).
-				description("Factory#isValidOn[Get|Put]");
+	private void evictMaxLifetime()
+	{
+		final long now = Clock.currentTimeMillis();
+		final ArrayList<Idle<E>> retired = new ArrayList<>();
+		for(final ConcurrentLinkedDeque<Idle<E>> stripe : idle)
+			for(final Idle<E> entry : stripe)
+			{
+				final Long at = retireAt.get(new ItemReference<>(entry.item));
+				if(at!=null && at<=now)
+					retired.add(entry);
+			}
 
-		final Counter get          = usage  .tag("operation", "get").register(registry);
-		final Counter put          = usage  .tag("operation", "put").register(registry);
-		final Counter invalidOnGet = invalid.tag("operation", "get").register(registry);
-		final Counter invalidOnPut = invalid.tag("operation", "put").register(registry);
+		for(final Idle<E> entry : retired)
+		{
+			if(!removeIdle(entry))
+				continue;
 
-		// separate assignments make method as atomic as possible
-		this.get = get;
-		this.put = put;
-		this.invalidOnGet = invalidOnGet;
-		this.invalidOnPut = invalidOnPut;
-	}
+			maxLifetime.increment();
+			try
+			{
+				dispose(entry.item);
+			}
+			catch(final Exception | AssertionError ex)
+			{
+				log.error("on retiring idle item", ex);
+			}
+		}
 
-	private int inc(int pos)
-	{
-		pos++;
-		return (pos==idle.length) ? 0 : pos;
+		// items garbage collected without being returned to the pool
+		retireAt.keySet().removeIf(reference -> reference.get()==null);
 	}
 
-	public E get()
+	private void evictIdleTimeout()
 	{
-		E result = null;
+		final long limit = Clock.currentTimeMillis() - idleTimeoutMillis;
 
-		do
+		// Items validated by validateIdle are added back at the oldest end,
+		// so the oldest end does not always hold the item idle for the longest time.
+		final ArrayList<Idle<E>> expired = new ArrayList<>();
+		for(final ConcurrentLinkedDeque<Idle<E>> stripe : idle)
+			for(final Idle<E> entry : stripe)
+				if(entry.since<=limit)
+					expired.add(entry);
+
+		for(final Idle<E> entry : expired)
 		{
-			synchronized(lock)
+			if(!removeIdle(entry))
+				continue;
+
+			idleTimeout.increment();
+			try
 			{
-				if(idle!=null && idleLevel>0)
-				{
-					result = idle[idleFrom];
-					idle[idleFrom] = null; // do not reference active items
-					idleLevel--;
-					idleFrom = inc(idleFrom);
-				}
+				dispose(entry.item);
 			}
-			if(result==null)
-				break;
-
-			// Important to do this outside the synchronized block!
-			if(factory.isValidOnGet(result))
-				break;
+			catch(final Exception | AssertionError ex)
+			{
+				log.error("on evicting idle item", ex);
+			}
+		}
+	}
 
-			invalidOnGet.increment();
+	/**
+	 * Called by {@link MemoryWatch} on the thread notifying memory pressure.
+	 */
+	void enterMemoryPressure()
+	{
+		final int before;
+		synchronized(idleLimitLock)
+		{
+			if(memoryPressure || closed)
+				return;
 
-			result = null;
+			before = idleLimit;
+			memoryPressure = true;
+			applyIdleLimit();
 		}
-		while(true);
-
-		// Important to do this outside the synchronized block!
-		if(result==null)
-			result = factory.create();
+		log.warn("memory pressure, reducing idle limit from {} to {}", before, idleLimit);
+		trimIdle();
+	}
 
-		get.increment();
-		if(counter!=null)
-			counter.incrementGet();
+	private void checkMemoryPressure()
+	{
+		if(memoryWatch.isExceeded())
+			return;
 
-		return result;
+		synchronized(idleLimitLock)
+		{
+			memoryPressure = false;
+			applyIdleLimit();
+		}
+		log.info("memory pressure gone, restoring idle limit to {}", idleLimit);
 	}
 
 	/**
-	 * TODO: If we want to implement changing item parameters on-the-fly
-	 * somewhere in the future, it's important, that client return items
-	 * to exactly the same instance of Pool.
+	 * For tests only.
 	 */
-	public void put(final E e)
+	NotificationListener getMemoryListener()
 	{
-		requireNonNull(e);
+		return memoryWatch;
+	}
 
-		put.increment();
-		if(counter!=null)
-			counter.incrementPut();
+	private record WatchedMemory(MemoryPoolMXBean bean, long threshold) {}
 
-		if(!factory.isValidOnPut(e))
+	/**
+	 * Listens to heap memory pools exceeding
+	 * {@link PoolProperties#getMemoryPressureThreshold() memoryPressureThreshold}
+	 * after garbage collection.
+	 * Does reference the pool weakly, because the platform {@link java.lang.management.MemoryMXBean}
+	 * retains its listeners for the life of the JVM.
+	 * Stops listening, when the pool is closed or garbage collected.
+	 */
+	private static final class MemoryWatch implements NotificationListener
+	{
+		private final WeakReference<Pool<?>> pool;
+		private final ArrayList<WatchedMemory> watched = new ArrayList<>();
+		private final Cleaner.Cleanable cleanable;
+
+		MemoryWatch(final Pool<?> pool, final int threshold)
 		{
-			invalidOnPut.increment();
-			return;
+			this.pool = new WeakReference<>(pool);
+			for(final MemoryPoolMXBean bean : ManagementFactory.getMemoryPoolMXBeans())
+			{
+				if(bean.getType()!=MemoryType.HEAP || !bean.isCollectionUsageThresholdSupported())
+					continue;
+				final long max = bean.getUsage().getMax();
+				if(max<=0)
+					continue; // maximum is undefined
+
+				watched.add(new WatchedMemory(bean, Math.max(1, max / 100 * threshold)));
+			}
+			synchronized(thresholdLock)
+			{
+				for(final WatchedMemory w : watched)
+				{
+					final String name = w.bean.getName();
+					if(!originalThresholds.containsKey(name))
+						originalThresholds.put(name, new WatchedMemory(w.bean, w.bean.getCollectionUsageThreshold()));
+				}
+				active.add(this);
+				applyThresholds();
+			}
+			emitter().addNotificationListener(this, null, null);
+			// must not reference the pool, otherwise the pool is never garbage collected
+			this.cleanable = cleaner.register(pool, this::stop);
 		}
 
-		synchronized(lock)
+		@Override
+		public void handleNotification(final Notification notification, final Object handback)
 		{
-			if(idle!=null && idleLevel<idle.length)
+			if(!MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED.equals(notification.getType()))
+				return;
+
+			final Pool<?> pool = this.pool.get();
+			if(pool==null)
 			{
-				idle[idleTo] = e;
-				idleLevel++;
-				idleTo = inc(idleTo);
+				close();
 				return;
 			}
+
+			final MemoryNotificationInfo info =
+					MemoryNotificationInfo.from((CompositeData)notification.getUserData());
+			for(final WatchedMemory w : watched)
+				if(w.bean.getName().equals(info.getPoolName()) &&
+					info.getUsage().getUsed()>=w.threshold)
+					pool.enterMemoryPressure();
 		}
 
-		// Important to do this outside the synchronized block!
-		factory.dispose(e);
-	}
+		boolean isExceeded()
+		{
+			for(final WatchedMemory w : watched)
+			{
+				final MemoryUsage usage = w.bean.getCollectionUsage();
+				if(usage!=null && usage.getUsed()>=w.threshold)
+					return true;
+			}
+			return false;
+		}
 
-	public void flush()
-	{
-		if(idle!=null)
+		/**
+		 * Stops listening just once, even if called multiple times.
+		 */
+		void close()
 		{
-			// make a copy of idle to avoid disposing idle items
-			// inside the synchronized block
-			final ArrayList<E> copyOfIdle = new ArrayList<>(idle.length);
+			cleanable.clean();
+		}
 
-			synchronized(lock)
+		private void stop()
+		{
+			synchronized(thresholdLock)
 			{
-				if(idleLevel==0)
+				if(!active.remove(this))
 					return;
+				applyThresholds();
+			}
+			try
+			{
+				emitter().removeNotificationListener(this);
+			}
+			catch(final ListenerNotFoundException ignored)
+			{
+				// not yet added, if the constructor failed
+			}
+		}
+
+		private static NotificationEmitter emitter()
+		{
+			return (NotificationEmitter)ManagementFactory.getMemoryMXBean();
+		}
+
+		/**
+		 * Collection usage thresholds are process-wide,
+		 * therefore the smallest threshold of all watches applies,
+		 * and a threshold set before the first watch is restored after the last watch has stopped.
+		 */
+		private static final Object thresholdLock = new Object();
+		/**
+		 * Guarded by {@link #thresholdLock}.
+		 */
+		private static final ArrayList<MemoryWatch> active = new ArrayList<>();
+		/**
+		 * The threshold of each memory pool before the first watch, zero if there was none.
+		 * Guarded by {@link #thresholdLock}.
+		 */
+		private static final HashMap<String, WatchedMemory> originalThresholds = new HashMap<>();
+
+		private static void applyThresholds()
+		{
+			final HashMap<String, Long> smallest = new HashMap<>();
+			for(final MemoryWatch watch : active)
+				for(final WatchedMemory w : watch.watched)
+					smallest.merge(w.bean.getName(), w.threshold, Math::min);
 
-				int f = idleFrom;
-				for(int i = 0; i<idleLevel; i++)
+			for(final Iterator<WatchedMemory> i = originalThresholds.values().iterator(); i.hasNext(); )
+			{
+				final WatchedMemory original = i.next();
+				final Long threshold = smallest.get(original.bean.getName());
+				if(threshold==null)
+				{
+					original.bean.setCollectionUsageThreshold(original.threshold);
+					i.remove();
+				}
+				else
 				{
-					copyOfIdle.add(idle[f]);
-					idle[f] = null; // do not reference disposed items
-					f = inc(f);
+					original.bean.setCollectionUsageThreshold(
+							original.threshold>0 ? Math.min(original.threshold, threshold) : threshold);
 				}
-				idleLevel = 0;
-				idleFrom = idleTo;
 			}
+		}
+
+		private static final Cleaner cleaner = Cleaner.create();
+	}
+
+	/**
+	 * Calls {@link #maintain()} on {@code executor} with the given {@code period}.
+	 * Additionally, {@code executor} creates items as soon as {@link #get()}
+	 * drops the number of idle items below {@link PoolProperties#getMinIdle() minIdle}.
+	 * The executor is owned by the caller,
+	 * cancel the result or shut down the executor to stop maintenance.
+	 */
+	public ScheduledFuture<?> scheduleMaintenance(
+			final ScheduledExecutorService executor,
+			final Duration period)
+	{
+		requireNonNull(executor, "executor");
+		requireNonNull(period, "period");
+		if(period.isNegative() || period.isZero())
+			throw new IllegalArgumentException("period must be greater zero, but was " + period);
+
+		this.refillExecutor = executor;
+		final long periodNanos = period.toNanos();
+		return executor.scheduleAtFixedRate(
+				this::maintainLogged,
+				periodNanos, periodNanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Does not propagate exceptions, because they would stop further executions
+	 * scheduled by {@link ScheduledExecutorService#scheduleAtFixedRate(Runnable, long, long, TimeUnit)}.
+	 */
+	private void maintainLogged()
+	{
+		try
+		{
+			maintain();
+		}
+		catch(final RuntimeException | AssertionError e)
+		{
+			log.error("on maintaining pool", e);
+		}
+	}
+
+	/**
+	 * Closes this pool.
+	 * Afterwards {@link #get()} and its variants fail,
+	 * idle items are disposed, and
+	 * items returned by {@link #put(Object)} are disposed immediately.
+	 * Callers waiting for {@link PoolProperties#getMaxActive() maxActive} items fail as well.
+	 * Then waits at most {@code timeout} until all items obtained from this pool
+	 * have been returned.
+	 * May be called multiple times.
+	 * @return the number of items not yet returned
+	 */
+	public int close(final Duration timeout)
+	{
+		requireNonNull(timeout, "timeout");
 
-			for(final E e : copyOfIdle)
+		closed = true;
+		for(Waiter<E> waiter = pollWaiter(); waiter!=null; waiter = pollWaiter())
+			waiter.future.completeExceptionally(newClosedException());
+		// Wakes up threads waiting in get, they fail because the pool is closed.
+		// The number of permits does not matter anymore.
+		if(active!=null)
+			active.release(maxActive);
+		if(memoryWatch!=null)
+			memoryWatch.close();
+		final Refresh<E> refresh = this.refresh.getAndSet(null);
+		if(refresh!=null)
+			refresh.finish();
+		flush();
+
+		final long deadline = System.nanoTime() + (timeout.isNegative() ? 0 : saturatedNanos(timeout));
+		synchronized(closeLock)
+		{
+			while(true)
 			{
+				final long borrowed = this.borrowed.sum();
+				final long remaining = deadline - System.nanoTime();
+				if(borrowed<=0 || remaining<=0)
+					break;
+
 				try
 				{
-					factory.dispose(e);
+					TimeUnit.NANOSECONDS.timedWait(closeLock, remaining);
 				}
-				catch(final Exception | AssertionError ex)
+				catch(final InterruptedException e)
 				{
-					log.error("on flushing pool", ex);
+					Thread.currentThread().interrupt();
+					break;
 				}
 			}
 		}
+
+		final int result = Math.toIntExact(Math.max(0, borrowed.sum()));
+		if(result>0)
+			log.warn("{} items not returned on closing pool within {}", result, timeout);
+		return result;
 	}
 
-	public Info getInfo()
+	public boolean isClosed()
+	{
+		return closed;
+	}
+
+	private void checkOpen()
+	{
+		if(closed)
+			throw newClosedException();
+	}
+
+	private static IllegalStateException newClosedException()
+	{
+		return new IllegalStateException("pool is closed");
+	}
+
+	private void notifyClose()
 	{
-		final int idleLevel;
-		synchronized(lock)
+		synchronized(closeLock)
 		{
-			idleLevel = this.idleLevel;
+			closeLock.notifyAll();
 		}
+	}
+
+	public Info getInfo()
+	{
 		return new Info(
 				idleLimit,
 				idleInitial,
-				idleLevel,
+				lifo ? IdleOrder.LIFO : IdleOrder.FIFO,
+				idleLevel.get(),
 				invalidOnGet,
 				invalidOnPut,
+				invalidOnIdle,
+				idleTimeout,
+				maxLifetime,
+				refreshed,
+				getRefreshRemaining(),
 				counter!=null ? new PoolCounter(counter) : null);
 	}
 
+	private int getRefreshRemaining()
+	{
+		final Refresh<E> refresh = this.refresh.get();
+		return refresh!=null ? refresh.remaining() : 0;
+	}
+
 	@SuppressWarnings("ClassCanBeRecord")
 	public static final class Info
 	{
 		private final int idleLimit;
 		private final int idleInitial;
+		private final IdleOrder idleOrder;
 		private final int idleLevel;
 		private final int invalidOnGet;
 		private final int invalidOnPut;
+		private final int invalidOnIdle;
+		private final int evictedIdleTimeout;
+		private final int evictedMaxLifetime;
+		private final int evictedRefresh;
+		private final int refreshRemaining;
 		private final PoolCounter counter;
 
 		Info(
 				final int idleLimit,
 				final int idleInitial,
+				final IdleOrder idleOrder,
 				final int idleLevel,
 				final Counter invalidOnGet,
 				final Counter invalidOnPut,
+				final Counter invalidOnIdle,
+				final Counter evictedIdleTimeout,
+				final Counter evictedMaxLifetime,
+				final Counter evictedRefresh,
+				final int refreshRemaining,
 				final PoolCounter counter)
 		{
-			this(idleLimit, idleInitial, idleLevel, count(invalidOnGet), count(invalidOnPut), counter);
+			this.idleLimit = idleLimit;
+			this.idleInitial = idleInitial;
+			this.idleOrder = idleOrder;
+			this.idleLevel = idleLevel;
+			this.invalidOnGet = count(invalidOnGet);
+			this.invalidOnPut = count(invalidOnPut);
+			this.invalidOnIdle = count(invalidOnIdle);
+			this.evictedIdleTimeout = count(evictedIdleTimeout);
+			this.evictedMaxLifetime = count(evictedMaxLifetime);
+			this.evictedRefresh = count(evictedRefresh);
+			this.refreshRemaining = refreshRemaining;
+			this.counter = counter;
 		}
 
 		private static int count(final Counter counter)
@@ -306,9 +3345,15 @@ public Info(
 		{
 			this.idleLimit = idleLimit;
 			this.idleInitial = idleInitial;
+			this.idleOrder = IdleOrder.FIFO;
 			this.idleLevel = idleLevel;
 			this.invalidOnGet = invalidOnGet;
 			this.invalidOnPut = invalidOnPut;
+			this.invalidOnIdle = 0;
+			this.evictedIdleTimeout = 0;
+			this.evictedMaxLifetime = 0;
+			this.evictedRefresh = 0;
+			this.refreshRemaining = 0;
 			this.counter = counter;
 		}
 
@@ -322,6 +3367,11 @@ public int getIdleInitial()
 			return idleInitial;
 		}
 
+		public IdleOrder getIdleOrder()
+		{
+			return idleOrder;
+		}
+
 		/**
 		 * @deprecated Use {@link #getIdleLevel()} instead
 		 */
@@ -346,6 +3396,57 @@ public int getInvalidOnPut()
 			return invalidOnPut;
 		}
 
+		/**
+		 * Returns the number of idle items found invalid by {@link Pool#maintain()},
+		 * see {@link PoolProperties#getValidationInterval()}.
+		 */
+		public int getInvalidOnIdle()
+		{
+			return invalidOnIdle;
+		}
+
+		/**
+		 * Returns the number of idle items disposed because of
+		 * {@link PoolProperties#getIdleTimeout() idle timeout}.
+		 */
+		public int getEvictedIdleTimeout()
+		{
+			return evictedIdleTimeout;
+		}
+
+		/**
+		 * Returns the number of items disposed because of
+		 * {@link PoolProperties#getMaxLifetime() maxLifetime}.
+		 */
+		public int getEvictedMaxLifetime()
+		{
+			return evictedMaxLifetime;
+		}
+
+		/**
+		 * Returns the number of items disposed because of
+		 * {@link Pool#refresh(ScheduledExecutorService, Duration) rolling refresh}.
+		 */
+		public int getEvictedRefresh()
+		{
+			return evictedRefresh;
+		}
+
+		/**
+		 * Returns the number of items idle at the beginning of the
+		 * {@link Pool#refresh(ScheduledExecutorService, Duration) rolling refresh} in progress
+		 * and not yet replaced,
+		 * plus the number of stale items disposed on {@link Pool#put(Object)}
+		 * and not yet replaced.
+		 * Other items in use at the beginning of the refresh are not included,
+		 * they are disposed whenever returned.
+		 * Returns zero, if there is no refresh in progress.
+		 */
+		public int getRefreshRemaining()
+		{
+			return refreshRemaining;
+		}
+
 		public PoolCounter getCounter()
 		{
 			return counter;
@@ -357,4 +3458,10 @@ public PoolCounter getCounter()
 			Tags.empty(),
 			null, null,
 			Meter.Type.COUNTER));
+
+	private static final Timer noopTimer = new NoopTimer(new Meter.Id(
+			Pool.class.getName(),
+			Tags.empty(),
+			null, null,
+			Meter.Type.TIMER));
 }
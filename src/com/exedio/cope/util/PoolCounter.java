@@ -21,17 +21,50 @@
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Simulates the behaviour of a set of pools with different pool idle limits,
  * and collects statistics about the efficiency of such pools.
  * Useful for determining pool idle limits.
+ * <p>
+ * {@link #incrementGet(int)} and {@link #incrementPut(int)} do not block:
+ * they just publish an event into a lock-free queue.
+ * The simulation is applied to queued events by a single thread at a time,
+ * either occasionally by one of the publishing threads for a small batch of events,
+ * or when reading statistics via {@link #getPools()}, {@link #getGetCounter()} or {@link #getPutCounter()}.
  *
  * @author Ralf Wiebicke
  */
 public final class PoolCounter
 {
-	private final Object lock = new Object();
+	/**
+	 * Positive {@link Integer integers} are gets, negative ones are puts.
+	 * Values -1 and 1 come from the {@link Integer} cache,
+	 * so publishing single events does not allocate a boxed integer.
+	 * Other objects are markers added by {@link #drainAllLocked()}.
+	 */
+	private final ConcurrentLinkedQueue<Object> events = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * Publishers try to apply queued events to the simulation
+	 * for one out of {@code DRAIN_MASK+1} events on average.
+	 */
+	private static final int DRAIN_MASK = 15;
+
+	/**
+	 * Publishers apply at most that many events at once,
+	 * so they are not kept busy by other threads publishing concurrently.
+	 * Is larger than {@code DRAIN_MASK+1}, so that publishers keep up with publishing on average.
+	 */
+	private static final int DRAIN_BATCH = 64;
+
+	/**
+	 * Guards all fields below.
+	 */
+	private final ReentrantLock lock = new ReentrantLock();
 
 	private final int[] idleLimitA;
 	private final int[] idleA;
@@ -75,14 +108,23 @@ public PoolCounter(final int... idleLimits)
 
 	public PoolCounter(final PoolCounter source)
 	{
-		this.idleLimitA = source.idleLimitA;
-		this.idleA    = copy(source.idleA);
-		this.idleMaxA = copy(source.idleMaxA);
-		this.createA  = copy(source.createA);
-		this.destroyA = copy(source.destroyA);
-		this.get = source.get;
-		this.put = source.put;
-		this.count = source.count;
+		source.lock.lock();
+		try
+		{
+			source.drainAllLocked();
+			this.idleLimitA = source.idleLimitA;
+			this.idleA    = copy(source.idleA);
+			this.idleMaxA = copy(source.idleMaxA);
+			this.createA  = copy(source.createA);
+			this.destroyA = copy(source.destroyA);
+			this.get = source.get;
+			this.put = source.put;
+			this.count = source.count;
+		}
+		finally
+		{
+			source.lock.unlock();
+		}
 	}
 
 	private static int[] copy(final int[] array)
@@ -94,87 +136,207 @@ private static int[] copy(final int[] array)
 
 	public void incrementGet()
 	{
-		synchronized(lock)
-		{
-			get++;
+		incrementGet(1);
+	}
 
-			final int count = this.count;
-			for(int i = 0; i<count; i++)
+	/**
+	 * Has the same effect as calling {@link #incrementGet()} {@code n} times,
+	 * but publishes just one event.
+	 */
+	public void incrementGet(final int n)
+	{
+		if(n<0)
+			throw new IllegalArgumentException("n must not be negative, but was " + n);
+
+		publish(n);
+	}
+
+	public void incrementPut()
+	{
+		incrementPut(1);
+	}
+
+	/**
+	 * Has the same effect as calling {@link #incrementPut()} {@code n} times,
+	 * but publishes just one event.
+	 */
+	public void incrementPut(final int n)
+	{
+		if(n<0)
+			throw new IllegalArgumentException("n must not be negative, but was " + n);
+
+		publish(-n);
+	}
+
+	private void publish(final int event)
+	{
+		if(event==0)
+			return;
+
+		events.add(event);
+
+		if((ThreadLocalRandom.current().nextInt() & DRAIN_MASK)==0 &&
+			lock.tryLock())
+		{
+			try
+			{
+				drainBatchLocked();
+			}
+			finally
 			{
-				final int idleI = idleA[i];
+				lock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Applies at most {@link #DRAIN_BATCH} queued events to the simulation.
+	 */
+	private void drainBatchLocked()
+	{
+		assert lock.isHeldByCurrentThread();
+
+		for(int i = 0; i<DRAIN_BATCH; i++)
+		{
+			final Object event = events.poll();
+			if(event==null)
+				return;
+			if(event instanceof final Integer n) // skips markers left by failed drains
+				apply(n);
+		}
+	}
+
+	/**
+	 * Applies all events published before calling this method to the simulation,
+	 * but not events published concurrently,
+	 * which could keep the caller busy forever.
+	 * Publishers do not take events meanwhile, because they need {@link #lock} as well.
+	 */
+	private void drainAllLocked()
+	{
+		assert lock.isHeldByCurrentThread();
+
+		final Object marker = new Object();
+		events.add(marker);
+		for(Object event = events.poll(); event!=marker; event = events.poll())
+			if(event instanceof final Integer n) // skips markers left by failed drains
+				apply(n);
+	}
+
+	/**
+	 * Events are applied in the order they have been published,
+	 * because the simulation does depend on that order.
+	 */
+	private void apply(final int event)
+	{
+		if(event>0)
+			incrementGetLocked(event);
+		else
+			for(int j = event; j<0; j++)
+				incrementPutLocked();
+	}
 
-				if(idleI>0)
-					idleA[i] = idleI-1;
-				else
-					createA[i]++;
+	private void incrementGetLocked(final int n)
+	{
+		get += n;
+
+		final int count = this.count;
+		for(int i = 0; i<count; i++)
+		{
+			final int idleI = idleA[i];
+
+			if(idleI>=n)
+				idleA[i] = idleI-n;
+			else
+			{
+				idleA[i] = 0;
+				createA[i] += n-idleI;
 			}
 		}
 	}
 
-	public void incrementPut()
+	private void incrementPutLocked()
 	{
-		synchronized(lock)
+		put++;
+
+		int count = this.count;
+		for(int i = 0; i<count; i++)
 		{
-			put++;
+			int idleI = idleA[i];
 
-			int count = this.count;
-			for(int i = 0; i<count; i++)
+			if(idleI<idleLimitA[i])
 			{
-				int idleI = idleA[i];
+				idleA[i] = ++idleI;
 
-				if(idleI<idleLimitA[i])
-				{
-					idleA[i] = ++idleI;
+				if(idleI>idleMaxA[i])
+					idleMaxA[i] = idleI;
+			}
+			else
+			{
+				final int destroyI = destroyA[i];
 
-					if(idleI>idleMaxA[i])
-						idleMaxA[i] = idleI;
-				}
-				else
+				if(destroyI==0 && count<idleLimitA.length)
 				{
-					final int destroyI = destroyA[i];
-
-					if(destroyI==0 && count<idleLimitA.length)
-					{
-						assert i==(count-1);
-						idleA   [count] = idleI;
-						idleMaxA[count] = idleMaxA[i];
-						createA [count] = createA[i];
-						destroyA[count] = 0/*equals to destroy[i]*/;
-						count++; // causes another iteration
-						this.count = count;
-					}
-					destroyA[i] = destroyI+1;
+					assert i==(count-1);
+					idleA   [count] = idleI;
+					idleMaxA[count] = idleMaxA[i];
+					createA [count] = createA[i];
+					destroyA[count] = 0/*equals to destroy[i]*/;
+					count++; // causes another iteration
+					this.count = count;
 				}
+				destroyA[i] = destroyI+1;
 			}
 		}
 	}
 
+	/**
+	 * The result includes all events published before calling this method.
+	 */
 	public List<Pool> getPools()
 	{
 		final ArrayList<Pool> result = new ArrayList<>(idleLimitA.length);
-		synchronized(lock)
+		lock.lock();
+		try
 		{
+			drainAllLocked();
 			final int count = this.count;
 			for(int i = 0; i<count; i++)
 				result.add(new Pool(idleLimitA[i], idleA[i], idleMaxA[i], createA[i], destroyA[i], get, put));
 		}
+		finally
+		{
+			lock.unlock();
+		}
 		return Collections.unmodifiableList(result);
 	}
 
 	public int getGetCounter()
 	{
-		synchronized(lock)
+		lock.lock();
+		try
 		{
+			drainAllLocked();
 			return get;
 		}
+		finally
+		{
+			lock.unlock();
+		}
 	}
 
 	public int getPutCounter()
 	{
-		synchronized(lock)
+		lock.lock();
+		try
 		{
+			drainAllLocked();
 			return put;
 		}
+		finally
+		{
+			lock.unlock();
+		}
 	}
 
 	public static final class Pool
@@ -244,6 +406,15 @@ public int getDestroyCounter()
 			return destroy;
 		}
 
+		/**
+		 * Returns the value of {@link PoolCounter#getGetCounter()}
+		 * at the time this snapshot has been taken.
+		 */
+		int getGetCounter()
+		{
+			return get;
+		}
+
 		public boolean isConsistent()
 		{
 			return (get - put) == (create - destroy - idle);
@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2004-2015  exedio GmbH (www.exedio.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package com.exedio.cope.util;
+
+import java.io.Serial;
+
+/**
+ * Signals, that {@link Pool#get(java.time.Duration)} or
+ * {@link KeyedPool#get(Object, java.time.Duration)} could not get an item,
+ * because {@link PoolProperties#getMaxActive() maxActive} items are in use,
+ * or because {@link Pool} does not try to create an item:
+ * either the circuit breaker is open after
+ * {@link PoolProperties#getBreakerThreshold() breakerThreshold} consecutive failures of
+ * {@link Pool.Factory#create()},
+ * or {@link Pool.Factory#create()} failed while waiting for one of
+ * {@link PoolProperties#getMaxCreating() maxCreating} creations.
+ * In the latter two cases the cause is the most recent failure of
+ * {@link Pool.Factory#create()}.
+ */
+public final class PoolExhaustedException extends RuntimeException
+{
+	@Serial
+	private static final long serialVersionUID = 1L;
+
+	PoolExhaustedException(final String message, final Throwable cause)
+	{
+		super(message, cause);
+	}
+}
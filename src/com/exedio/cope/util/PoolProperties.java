@@ -18,10 +18,33 @@
 
 package com.exedio.cope.util;
 
+import java.time.Duration;
+import java.util.List;
+
 public final class PoolProperties extends Properties
 {
 	final int idleInitial;
 	final int idleLimit;
+	final Duration idleTimeout;
+	final Pool.IdleOrder idleOrder;
+	final int maxActive;
+	final int minIdle;
+	final Duration validationInterval;
+	final Duration maxLifetime;
+	final Duration maxLifetimeJitter;
+	final Duration leakThreshold;
+	final int leakTraceSampling;
+	final boolean threadAffine;
+	final int autoTuneLoss;
+	final int autoTuneHysteresis;
+	final Duration autoTuneInterval;
+	final int maxCreating;
+	final int breakerThreshold;
+	final Duration breakerBackoff;
+	final int memoryPressureThreshold;
+	final int memoryPressureIdleLimit;
+	final boolean holdTime;
+	final List<String> holdTimeCallerSkip;
 
 	public static Factory<PoolProperties> factory(final int idleLimitDefault)
 	{
@@ -41,6 +64,72 @@ private PoolProperties(final Source source, final int idleLimitDefault)
 					idleInitialKey,
 					"must be less or equal " + idleLimitKey + '=' + idleLimit + ", " +
 					"but was " + idleInitial);
+
+		this.idleTimeout = value("idleTimeout", Duration.ZERO, Duration.ZERO);
+		this.idleOrder   = value("idleOrder", Pool.IdleOrder.FIFO);
+		this.maxActive   = value("maxActive", 0, 0);
+
+		final String minIdleKey = "minIdle";
+		this.minIdle = value(minIdleKey, 0, 0);
+		if(minIdle>idleLimit)
+			throw newException(
+					minIdleKey,
+					"must be less or equal " + idleLimitKey + '=' + idleLimit + ", " +
+					"but was " + minIdle);
+
+		this.validationInterval = value("validationInterval", Duration.ZERO, Duration.ZERO);
+
+		final String maxLifetimeKey       = "maxLifetime";
+		final String maxLifetimeJitterKey = "maxLifetimeJitter";
+		this.maxLifetime       = value(maxLifetimeKey,       Duration.ZERO, Duration.ZERO);
+		this.maxLifetimeJitter = value(maxLifetimeJitterKey, Duration.ZERO, Duration.ZERO);
+		if(maxLifetimeJitter.compareTo(maxLifetime)>0)
+			throw newException(
+					maxLifetimeJitterKey,
+					"must be less or equal " + maxLifetimeKey + '=' + maxLifetime + ", " +
+					"but was " + maxLifetimeJitter);
+
+		this.leakThreshold      = value("leakThreshold",      Duration.ZERO, Duration.ZERO);
+		this.leakTraceSampling  = value("leakTraceSampling",  0, 0);
+		this.threadAffine = value("threadAffine", false);
+
+		final String autoTuneLossKey = "autoTuneLoss";
+		this.autoTuneLoss = value(autoTuneLossKey, 0, 0);
+		if(autoTuneLoss>100)
+			throw newException(
+					autoTuneLossKey,
+					"must be less or equal 100, " +
+					"but was " + autoTuneLoss);
+		final String autoTuneHysteresisKey = "autoTuneHysteresis";
+		this.autoTuneHysteresis = value(autoTuneHysteresisKey, 0, 0);
+		if(autoTuneLoss>0 && autoTuneHysteresis>=autoTuneLoss)
+			throw newException(
+					autoTuneHysteresisKey,
+					"must be less than " + autoTuneLossKey + '=' + autoTuneLoss + ", " +
+					"but was " + autoTuneHysteresis);
+		this.autoTuneInterval = value("autoTuneInterval", Duration.ofMinutes(1), Duration.ZERO);
+
+		this.maxCreating      = value("maxCreating",      0, 0);
+		this.breakerThreshold = value("breakerThreshold", 0, 0);
+		this.breakerBackoff   = value("breakerBackoff",   Duration.ofSeconds(10), Duration.ZERO);
+
+		final String memoryPressureThresholdKey = "memoryPressureThreshold";
+		this.memoryPressureThreshold = value(memoryPressureThresholdKey, 0, 0);
+		if(memoryPressureThreshold>100)
+			throw newException(
+					memoryPressureThresholdKey,
+					"must be less or equal 100, " +
+					"but was " + memoryPressureThreshold);
+		final String memoryPressureIdleLimitKey = "memoryPressureIdleLimit";
+		this.memoryPressureIdleLimit = value(memoryPressureIdleLimitKey, 0, 0);
+		if(memoryPressureIdleLimit>idleLimit)
+			throw newException(
+					memoryPressureIdleLimitKey,
+					"must be less or equal " + idleLimitKey + '=' + idleLimit + ", " +
+					"but was " + memoryPressureIdleLimit);
+
+		this.holdTime = value("holdTime", false);
+		this.holdTimeCallerSkip = valuesSpaceSeparated("holdTimeCallerSkip");
 	}
 
 	public int getIdleInitial()
@@ -52,4 +141,229 @@ public int getIdleLimit()
 	{
 		return idleLimit;
 	}
+
+	/**
+	 * Items staying idle for a longer time are disposed by {@link Pool#maintain()}.
+	 * {@link Duration#ZERO} means that idle items never time out.
+	 */
+	public Duration getIdleTimeout()
+	{
+		return idleTimeout;
+	}
+
+	public Pool.IdleOrder getIdleOrder()
+	{
+		return idleOrder;
+	}
+
+	/**
+	 * The maximum number of items that are in use at the same time.
+	 * Further calls to {@link Pool#get()} wait until an item is returned.
+	 * Zero means that there is no limit.
+	 */
+	public int getMaxActive()
+	{
+		return maxActive;
+	}
+
+	/**
+	 * If less items are idle, {@link Pool#maintain()} creates items ahead of demand.
+	 * Zero means that no items are created ahead of demand.
+	 */
+	public int getMinIdle()
+	{
+		return minIdle;
+	}
+
+	/**
+	 * If greater zero, {@link Pool#get()} calls {@link Pool.Factory#isValidOnGet(Object)}
+	 * only for items not validated within this interval,
+	 * and {@link Pool#maintain()} validates such items while they are idle
+	 * by {@link Pool.Factory#validateAll(java.util.List)}.
+	 * An item returned to the pool counts as validated,
+	 * because it has passed {@link Pool.Factory#isValidOnPut(Object)}.
+	 * {@link Duration#ZERO} means that every item is validated by {@link Pool#get()}.
+	 */
+	public Duration getValidationInterval()
+	{
+		return validationInterval;
+	}
+
+	/**
+	 * Items older than this duration are disposed when returned by {@link Pool#put(Object)},
+	 * or by {@link Pool#maintain()} while idle.
+	 * Items in use are not affected until they are returned.
+	 * {@link Duration#ZERO} means that items live forever.
+	 */
+	public Duration getMaxLifetime()
+	{
+		return maxLifetime;
+	}
+
+	/**
+	 * Shortens {@link #getMaxLifetime() maxLifetime} of each item by a random duration
+	 * between zero and this duration,
+	 * so that items created at the same time are not disposed at the same time.
+	 */
+	public Duration getMaxLifetimeJitter()
+	{
+		return maxLifetimeJitter;
+	}
+
+	/**
+	 * Items obtained by {@link Pool#get()} and not returned by {@link Pool#put(Object)}
+	 * within this duration are reported as leaked by {@link Pool#maintain()}.
+	 * {@link Duration#ZERO} disables leak detection.
+	 */
+	public Duration getLeakThreshold()
+	{
+		return leakThreshold;
+	}
+
+	/**
+	 * If leak detection is enabled by {@link #getLeakThreshold()},
+	 * one out of this number of calls to {@link Pool#get()} records its stack trace
+	 * for reporting leaks.
+	 * Zero means that no stack traces are recorded.
+	 */
+	public int getLeakTraceSampling()
+	{
+		return leakTraceSampling;
+	}
+
+	/**
+	 * If true, {@link Pool#put(Object)} keeps the item for the same thread,
+	 * so that the next {@link Pool#get()} of that thread takes it back
+	 * without contending with other threads.
+	 * That item counts for {@link #getIdleLimit() idleLimit}.
+	 * Other threads take it only, if there is no other idle item.
+	 */
+	public boolean isThreadAffine()
+	{
+		return threadAffine;
+	}
+
+	/**
+	 * If greater zero, {@link Pool#maintain()} adjusts the idle limit of the pool
+	 * to the smallest idle limit simulated by {@link PoolCounter},
+	 * that has lost less than this percentage of items since the previous adjustment.
+	 * The idle limit is adjusted between {@link #getMinIdle() minIdle}
+	 * and {@link #getIdleLimit() idleLimit}.
+	 * Requires a {@link PoolCounter}.
+	 * Zero disables adjustment.
+	 * @see PoolCounter.Pool#getLoss()
+	 */
+	public int getAutoTuneLoss()
+	{
+		return autoTuneLoss;
+	}
+
+	/**
+	 * The idle limit is decreased only,
+	 * if the smaller idle limit has lost less than
+	 * {@link #getAutoTuneLoss() autoTuneLoss} minus this percentage of items.
+	 * Prevents the idle limit from oscillating.
+	 */
+	public int getAutoTuneHysteresis()
+	{
+		return autoTuneHysteresis;
+	}
+
+	/**
+	 * The minimum time between adjustments of the idle limit by
+	 * {@link #getAutoTuneLoss() autoTuneLoss}.
+	 */
+	public Duration getAutoTuneInterval()
+	{
+		return autoTuneInterval;
+	}
+
+	/**
+	 * The maximum number of calls to {@link Pool.Factory#create()} running at the same time.
+	 * Further calls wait until a running call completes.
+	 * If that call fails, the waiting calls fail as well without calling
+	 * {@link Pool.Factory#create()} by themselves.
+	 * Zero means that there is no limit.
+	 */
+	public int getMaxCreating()
+	{
+		return maxCreating;
+	}
+
+	/**
+	 * If greater zero, this number of consecutive failures of {@link Pool.Factory#create()}
+	 * opens the circuit breaker of the pool:
+	 * {@link Pool#get()} fails immediately instead of creating an item
+	 * for {@link #getBreakerBackoff() breakerBackoff}.
+	 * Afterwards a single call is allowed to try creating an item,
+	 * which closes the circuit breaker on success
+	 * and opens it again on failure.
+	 * Zero disables the circuit breaker.
+	 */
+	public int getBreakerThreshold()
+	{
+		return breakerThreshold;
+	}
+
+	/**
+	 * The time the circuit breaker stays open,
+	 * see {@link #getBreakerThreshold() breakerThreshold}.
+	 */
+	public Duration getBreakerBackoff()
+	{
+		return breakerBackoff;
+	}
+
+	/**
+	 * If greater zero, the pool is under memory pressure
+	 * as soon as the heap memory used after garbage collection exceeds
+	 * this percentage of the maximum heap memory,
+	 * as notified by {@link java.lang.management.MemoryPoolMXBean#setCollectionUsageThreshold(long) collection usage threshold}.
+	 * Then the idle limit of the pool is reduced to
+	 * {@link #getMemoryPressureIdleLimit() memoryPressureIdleLimit}
+	 * and surplus idle items are disposed.
+	 * {@link Pool#maintain()} restores the idle limit as soon as
+	 * heap memory used after garbage collection drops below the threshold.
+	 * The pool listens to memory notifications until it is {@link Pool#close(Duration) closed}
+	 * or garbage collected.
+	 * Note, that collection usage thresholds are process-wide:
+	 * the smallest threshold of all pools applies to the whole JVM,
+	 * and the threshold set before is restored after the last of these pools has stopped listening.
+	 * Zero disables this behaviour.
+	 */
+	public int getMemoryPressureThreshold()
+	{
+		return memoryPressureThreshold;
+	}
+
+	/**
+	 * The idle limit of the pool under memory pressure,
+	 * see {@link #getMemoryPressureThreshold() memoryPressureThreshold}.
+	 */
+	public int getMemoryPressureIdleLimit()
+	{
+		return memoryPressureIdleLimit;
+	}
+
+	/**
+	 * If true, the time items are held between {@link Pool#get()} and {@link Pool#put(Object)}
+	 * is recorded by a timer with a percentile histogram,
+	 * tagged with the method calling {@link Pool#get()}.
+	 * Finding that method requires walking the stack on every call to {@link Pool#get()}.
+	 * @see #getHoldTimeCallerSkip()
+	 */
+	public boolean isHoldTime()
+	{
+		return holdTime;
+	}
+
+	/**
+	 * Prefixes of class names to be skipped when finding the method calling {@link Pool#get()}
+	 * for {@link #isHoldTime() holdTime},
+	 * typically classes wrapping the pool.
+	 */
+	public List<String> getHoldTimeCallerSkip()
+	{
+		return holdTimeCallerSkip;
+	}
 }
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2004-2015  exedio GmbH (www.exedio.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package com.exedio.cope.util;
+
+import static com.exedio.cope.junit.Assert.assertFails;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.time.Duration;
+import org.junit.jupiter.api.Test;
+
+public class ByteBufferPoolPropertiesTest
+{
+	@Test void testDefault()
+	{
+		final ByteBufferPoolProperties p = ByteBufferPoolProperties.factory(55).create(Sources.EMPTY);
+		assertEquals(1024, p.getMinSize());
+		assertEquals(1024*1024, p.getMaxSize());
+		assertEquals(false, p.isDirect());
+		assertEquals(false, p.isZeroOnPut());
+		assertEquals(0, p.getIdleBytes());
+		assertEquals(55, p.getPool().getIdleLimit());
+		assertSame(p.getPool(), p.pool(1024*1024));
+	}
+	@Test void testSet()
+	{
+		final java.util.Properties props = new java.util.Properties();
+		props.setProperty("minSize", "64");
+		props.setProperty("maxSize", "4096");
+		props.setProperty("direct", "true");
+		props.setProperty("zeroOnPut", "true");
+		props.setProperty("pool.idleLimit", "33");
+		final ByteBufferPoolProperties p = ByteBufferPoolProperties.factory(55).create(Sources.view(props, "DESC"));
+		assertEquals(64, p.getMinSize());
+		assertEquals(4096, p.getMaxSize());
+		assertEquals(true, p.isDirect());
+		assertEquals(true, p.isZeroOnPut());
+		assertEquals(33, p.getPool().getIdleLimit());
+	}
+	@Test void testIdleBytes()
+	{
+		final java.util.Properties props = new java.util.Properties();
+		props.setProperty("idleBytes", "16384");
+		props.setProperty("pool.idleLimit", "10");
+		props.setProperty("pool.idleInitial", "5");
+		props.setProperty("pool.minIdle", "3");
+		props.setProperty("pool.idleTimeout", "PT7S");
+		final ByteBufferPoolProperties p = ByteBufferPoolProperties.factory(55).create(Sources.view(props, "DESC"));
+		assertEquals(16384, p.getIdleBytes());
+		assertSame(p.getPool(), p.pool(1024));
+		assertPool(8, 5, 3, p.pool(2048));
+		assertPool(4, 4, 3, p.pool(4096));
+		assertPool(2, 2, 2, p.pool(8192));
+		assertPool(0, 0, 0, p.pool(32768));
+	}
+	private static void assertPool(
+			final int idleLimit, final int idleInitial, final int minIdle,
+			final PoolProperties p)
+	{
+		assertEquals(idleLimit,   p.getIdleLimit(),   "idleLimit");
+		assertEquals(idleInitial, p.getIdleInitial(), "idleInitial");
+		assertEquals(minIdle,     p.getMinIdle(),     "minIdle");
+		assertEquals(Duration.ofSeconds(7), p.getIdleTimeout(), "idleTimeout");
+	}
+	@Test void testMinSizeNotPowerOfTwo()
+	{
+		final java.util.Properties props = new java.util.Properties();
+		props.setProperty("minSize", "1000");
+		assertFails(
+				() -> ByteBufferPoolProperties.factory(55).create(Sources.view(props, "DESC")),
+				IllegalPropertiesException.class,
+				"property 'minSize' in DESC must be a power of two, but was 1000");
+	}
+	@Test void testMaxSizeNotPowerOfTwo()
+	{
+		final java.util.Properties props = new java.util.Properties();
+		props.setProperty("maxSize", "3000");
+		assertFails(
+				() -> ByteBufferPoolProperties.factory(55).create(Sources.view(props, "DESC")),
+				IllegalPropertiesException.class,
+				"property 'maxSize' in DESC must be a power of two, but was 3000");
+	}
+	@Test void testMaxSizeTooSmall()
+	{
+		final java.util.Properties props = new java.util.Properties();
+		props.setProperty("minSize", "2048");
+		props.setProperty("maxSize", "1024");
+		assertFails(
+				() -> ByteBufferPoolProperties.factory(55).create(Sources.view(props, "DESC")),
+				IllegalPropertiesException.class,
+				"property 'maxSize' in DESC must be greater or equal minSize=2048, but was 1024");
+	}
+}
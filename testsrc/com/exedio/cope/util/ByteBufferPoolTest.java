@@ -0,0 +1,242 @@
+/*
+ * Copyright (C) 2004-2015  exedio GmbH (www.exedio.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package com.exedio.cope.util;
+
+import static com.exedio.cope.junit.Assert.assertFails;
+import static com.exedio.cope.util.PoolTest.meter;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.time.Duration;
+import org.junit.jupiter.api.Test;
+
+public class ByteBufferPoolTest
+{
+	@Test void testSizeClasses()
+	{
+		final ByteBufferPool bp = newPool(false, false);
+		assertBuffer(16,  0, bp.get( 0));
+		assertBuffer(16,  1, bp.get( 1));
+		assertBuffer(16, 16, bp.get(16));
+		assertBuffer(32, 17, bp.get(17));
+		assertBuffer(32, 32, bp.get(32));
+		assertBuffer(64, 33, bp.get(33));
+		assertBuffer(64, 64, bp.get(64));
+		assertEquals(0, unpooled.count());
+
+		final ByteBuffer large = bp.get(65);
+		assertBuffer(65, 65, large);
+		assertEquals(1, unpooled.count());
+		bp.put(large);
+		assertEquals(0, bp.getIdleLevel());
+	}
+
+	@Test void testReuse()
+	{
+		final ByteBufferPool bp = newPool(false, false);
+		final ByteBuffer b = bp.get(20);
+		b.order(ByteOrder.LITTLE_ENDIAN);
+		b.put((byte)5);
+		b.mark();
+		bp.put(b);
+		assertEquals(1, bp.getIdleLevel());
+
+		assertSame(b, bp.get(30));
+		assertBuffer(32, 30, b);
+		assertEquals(ByteOrder.BIG_ENDIAN, b.order());
+		assertEquals(5, b.get(0)); // not zeroed
+		assertEquals(0, bp.getIdleLevel());
+
+		// other size class
+		final ByteBuffer other = bp.get(10);
+		assertNotSame(b, other);
+
+		final Counter get16 = (Counter)meter(METER_NAME + ".usage", Tags.of("operation", "get", "size", "16"), meterRegistry);
+		final Counter get32 = (Counter)meter(METER_NAME + ".usage", Tags.of("operation", "get", "size", "32"), meterRegistry);
+		final Timer create32 = (Timer)meter(METER_NAME + ".create", Tags.of("size", "32"), meterRegistry);
+		assertEquals(1, get16.count());
+		assertEquals(2, get32.count());
+		assertEquals(1, create32.count());
+	}
+
+	@Test void testZeroOnPut()
+	{
+		final ByteBufferPool bp = newPool(false, true);
+		final ByteBuffer b = bp.get(20);
+		b.limit(32);
+		b.put(0, (byte)5);
+		b.put(31, (byte)6);
+		bp.put(b);
+
+		assertSame(b, bp.get(20));
+		assertZero(b);
+	}
+
+	@Test void testDirect()
+	{
+		final ByteBufferPool bp = newPool(true, true);
+		final ByteBuffer b = bp.get(20);
+		assertEquals(true, b.isDirect());
+		assertBuffer(32, 20, b);
+		b.limit(32);
+		b.putLong(0, -1);
+		b.put(31, (byte)6);
+		bp.put(b);
+
+		assertSame(b, bp.get(20));
+		assertZero(b);
+
+		assertFails(
+				() -> bp.put(ByteBuffer.allocate(32)),
+				IllegalArgumentException.class,
+				"buffer must be direct, but was java.nio.HeapByteBuffer[pos=0 lim=32 cap=32]");
+	}
+
+	@Test void testIdleLimitPerSizeClass()
+	{
+		final ByteBufferPool bp = newPool(false, false);
+		final ByteBuffer b1 = bp.get(16);
+		final ByteBuffer b2 = bp.get(16);
+		final ByteBuffer b3 = bp.get(32);
+		final ByteBuffer b4 = bp.get(32);
+		bp.put(b1);
+		bp.put(b2);
+		bp.put(b3);
+		bp.put(b4);
+		assertEquals(2, bp.getIdleLevel());
+
+		bp.flush();
+		assertEquals(0, bp.getIdleLevel());
+	}
+
+	@Test void testIdleBytes()
+	{
+		final java.util.Properties props = new java.util.Properties();
+		props.setProperty("minSize", "16");
+		props.setProperty("maxSize", "64");
+		props.setProperty("idleBytes", "64");
+		props.setProperty("pool.idleLimit", "2");
+		final ByteBufferPool bp = new ByteBufferPool(
+				ByteBufferPoolProperties.factory(50).create(Sources.view(props, "DESC")));
+		final ByteBuffer b1 = bp.get(16);
+		final ByteBuffer b2 = bp.get(16);
+		final ByteBuffer b3 = bp.get(32);
+		final ByteBuffer b4 = bp.get(32);
+		final ByteBuffer b5 = bp.get(64);
+		final ByteBuffer b6 = bp.get(64);
+		bp.put(b1);
+		bp.put(b2);
+		bp.put(b3);
+		bp.put(b4);
+		assertEquals(4, bp.getIdleLevel());
+		bp.put(b5);
+		bp.put(b6);
+		assertEquals(5, bp.getIdleLevel());
+	}
+
+	@Test void testPutInvalid()
+	{
+		final ByteBufferPool bp = newPool(false, false);
+		assertFails(
+				() -> bp.put(ByteBuffer.allocate(20)),
+				IllegalArgumentException.class,
+				"buffer not obtained from this pool: java.nio.HeapByteBuffer[pos=0 lim=20 cap=20]");
+		assertFails(
+				() -> bp.put(ByteBuffer.allocateDirect(16)),
+				IllegalArgumentException.class,
+				"buffer must be heap, but was java.nio.DirectByteBuffer[pos=0 lim=16 cap=16]");
+		assertFails(
+				() -> bp.put(null),
+				NullPointerException.class,
+				"buffer");
+		assertFails(
+				() -> bp.get(-1),
+				IllegalArgumentException.class,
+				"capacity must not be negative, but was -1");
+	}
+
+	@Test void testClose()
+	{
+		final ByteBufferPool bp = newPool(false, false);
+		final ByteBuffer b1 = bp.get(16);
+		final ByteBuffer b2 = bp.get(64);
+		bp.put(b1);
+		assertEquals(1, bp.getIdleLevel());
+		assertFalse(bp.isClosed());
+
+		assertEquals(1, bp.close(Duration.ZERO));
+		assertTrue(bp.isClosed());
+		assertEquals(0, bp.getIdleLevel());
+		bp.put(b2);
+		assertEquals(0, bp.getIdleLevel());
+		assertEquals(0, bp.close(Duration.ZERO));
+		assertFails(
+				() -> bp.get(16),
+				IllegalStateException.class,
+				"pool is closed");
+		assertFails(
+				() -> bp.get(100),
+				IllegalStateException.class,
+				"pool is closed");
+	}
+
+	private static void assertBuffer(final int capacity, final int limit, final ByteBuffer buffer)
+	{
+		assertEquals(capacity, buffer.capacity(), "capacity");
+		assertEquals(limit, buffer.limit(), "limit");
+		assertEquals(0, buffer.position(), "position");
+	}
+
+	private static void assertZero(final ByteBuffer buffer)
+	{
+		final ByteBuffer all = buffer.duplicate().clear();
+		for(int i = 0; i<all.capacity(); i++)
+			assertEquals(0, all.get(i), String.valueOf(i));
+	}
+
+	private ByteBufferPool newPool(final boolean direct, final boolean zeroOnPut)
+	{
+		final java.util.Properties props = new java.util.Properties();
+		props.setProperty("minSize", "16");
+		props.setProperty("maxSize", "64");
+		props.setProperty("direct", String.valueOf(direct));
+		props.setProperty("zeroOnPut", String.valueOf(zeroOnPut));
+		props.setProperty("pool.idleLimit", "1");
+		final ByteBufferPool result = new ByteBufferPool(
+				ByteBufferPoolProperties.factory(50).create(Sources.view(props, "DESC")));
+		result.register(METER_NAME, Tags.empty(), meterRegistry);
+		unpooled = (Counter)meter(METER_NAME + ".unpooled", Tags.empty(), meterRegistry);
+		return result;
+	}
+
+	private final MeterRegistry meterRegistry = new PrometheusMeterRegistry(key -> null);
+	private Counter unpooled;
+
+	private static final String METER_NAME = ByteBufferPoolTest.class.getName();
+}
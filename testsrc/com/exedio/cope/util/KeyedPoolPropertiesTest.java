@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2004-2015  exedio GmbH (www.exedio.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package com.exedio.cope.util;
+
+import static com.exedio.cope.junit.Assert.assertFails;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+public class KeyedPoolPropertiesTest
+{
+	@Test void testDefault()
+	{
+		final KeyedPoolProperties p = KeyedPoolProperties.factory(55).create(Sources.EMPTY);
+		assertEquals(55, p.getIdleLimit());
+		assertEquals(55, p.getIdleLimitPerKey());
+		assertEquals(0, p.getMaxActive());
+	}
+	@Test void testSet()
+	{
+		final KeyedPoolProperties p = KeyedPoolProperties.factory(55).create(new AssertionErrorPropertiesSource()
+		{
+			@Override
+			public String get(final String key)
+			{
+				return switch(key)
+				{
+					case "idleLimit"       -> "33";
+					case "idleLimitPerKey" -> "22";
+					case "maxActive"       -> "44";
+					default -> super.get(key);
+				};
+			}
+			@Override
+			public String getDescription()
+			{
+				return "DESC";
+			}
+		});
+		assertEquals(33, p.getIdleLimit());
+		assertEquals(22, p.getIdleLimitPerKey());
+		assertEquals(44, p.getMaxActive());
+	}
+	@Test void testIdleLimitPerKeyExceeded()
+	{
+		final java.util.Properties props = new java.util.Properties();
+		props.setProperty("idleLimit", "2");
+		props.setProperty("idleLimitPerKey", "3");
+		assertFails(
+				() -> KeyedPoolProperties.factory(55).create(Sources.view(props, "DESC")),
+				IllegalPropertiesException.class,
+				"property 'idleLimitPerKey' in DESC must be less or equal idleLimit=2, but was 3");
+	}
+}
@@ -0,0 +1,351 @@
+/*
+ * Copyright (C) 2004-2015  exedio GmbH (www.exedio.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package com.exedio.cope.util;
+
+import static com.exedio.cope.junit.Assert.assertFails;
+import static com.exedio.cope.util.PoolTest.meter;
+import static java.util.Arrays.asList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.exedio.cope.util.PoolTest.Factory;
+import com.exedio.cope.util.PoolTest.Pooled;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+import org.junit.jupiter.api.Test;
+
+public class KeyedPoolTest
+{
+	@Test void testIt()
+	{
+		final Pooled a1 = new Pooled();
+		final Pooled a2 = new Pooled();
+		final Pooled b1 = new Pooled();
+		factories.put("a", new Factory(asList(a1, a2)));
+		factories.put("b", new Factory(asList(b1)));
+		final KeyedPool<String, Pooled> cp = newPool(3, 2, 0);
+
+		assertSame(a1, cp.get("a"));
+		assertSame(a2, cp.get("a"));
+		assertSame(b1, cp.get("b"));
+		assertEquals(0, cp.getIdleLevel());
+
+		cp.put("a", a1);
+		cp.put("a", a2);
+		cp.put("b", b1);
+		assertEquals(3, cp.getIdleLevel());
+		assertEquals(2, cp.getIdleLevel("a"));
+		assertEquals(1, cp.getIdleLevel("b"));
+		assertEquals(2, idle("a").value());
+		assertEquals(1, idle("b").value());
+
+		assertSame(a1, cp.get("a"));
+		a1.assertV(1, 1, 0);
+		assertSame(b1, cp.get("b"));
+		assertEquals(1, cp.getIdleLevel());
+		assertEquals(3, usage("a", "get").count());
+		assertEquals(2, usage("a", "put").count());
+		assertEquals(2, usage("b", "get").count());
+		assertEquals(1, usage("b", "put").count());
+		assertEquals(0, cp.getIdleLevel("c"));
+	}
+
+	@Test void testEvictLeastRecentlyUsed()
+	{
+		final Pooled a1 = new Pooled();
+		final Pooled a2 = new Pooled();
+		final Pooled b1 = new Pooled();
+		final Pooled b2 = new Pooled();
+		final Pooled c1 = new Pooled();
+		factories.put("a", new Factory(asList(a1, a2)));
+		factories.put("b", new Factory(asList(b1, b2)));
+		factories.put("c", new Factory(asList(c1)));
+		final KeyedPool<String, Pooled> cp = newPool(3, 2, 0);
+
+		assertSame(a1, cp.get("a"));
+		assertSame(b1, cp.get("b"));
+		assertSame(b2, cp.get("b"));
+		assertSame(c1, cp.get("c"));
+		cp.put("a", a1);
+		cp.put("b", b1);
+		cp.put("b", b2);
+		assertEquals(3, cp.getIdleLevel());
+
+		// global idle limit reached, evicts a1 of another key
+		cp.put("c", c1);
+		assertEquals(3, cp.getIdleLevel());
+		assertEquals(0, cp.getIdleLevel("a"));
+		assertEquals(2, cp.getIdleLevel("b"));
+		assertEquals(1, cp.getIdleLevel("c"));
+		a1.assertV(0, 1, 1);
+		assertEquals(1, evicted("a").count());
+		assertEquals(0, evicted("b").count());
+		assertEquals(0, evicted("c").count());
+
+		// b1 is returned again, so b2 becomes least recently returned
+		assertSame(b1, cp.get("b"));
+		cp.put("b", b1);
+		assertSame(a2, cp.get("a"));
+		cp.put("a", a2);
+		assertEquals(3, cp.getIdleLevel());
+		assertEquals(1, cp.getIdleLevel("a"));
+		assertEquals(1, cp.getIdleLevel("b"));
+		b1.assertV(1, 2, 0);
+		b2.assertV(0, 1, 1);
+		assertEquals(1, evicted("b").count());
+	}
+
+	@Test void testIdleLimitPerKey()
+	{
+		final Pooled a1 = new Pooled();
+		final Pooled a2 = new Pooled();
+		final Pooled a3 = new Pooled();
+		factories.put("a", new Factory(asList(a1, a2, a3)));
+		final KeyedPool<String, Pooled> cp = newPool(3, 2, 0);
+
+		assertSame(a1, cp.get("a"));
+		assertSame(a2, cp.get("a"));
+		assertSame(a3, cp.get("a"));
+		cp.put("a", a1);
+		cp.put("a", a2);
+		cp.put("a", a3);
+		assertEquals(2, cp.getIdleLevel("a"));
+		a3.assertV(0, 1, 1);
+		assertEquals(0, evicted("a").count());
+	}
+
+	@Test void testInvalid()
+	{
+		final Pooled a1 = new Pooled();
+		final Pooled a2 = new Pooled();
+		factories.put("a", new Factory(asList(a1, a2)));
+		final KeyedPool<String, Pooled> cp = newPool(3, 2, 0);
+
+		assertSame(a1, cp.get("a"));
+		cp.put("a", a1);
+		a1.isValidOnGet = false;
+		assertSame(a2, cp.get("a"));
+		a2.isValidOnPut = false;
+		cp.put("a", a2);
+		assertEquals(0, cp.getIdleLevel());
+		assertEquals(1, ((Counter)meter(METER_NAME + ".invalid", Tags.of("key", "a", "operation", "get"), meterRegistry)).count());
+		assertEquals(1, ((Counter)meter(METER_NAME + ".invalid", Tags.of("key", "a", "operation", "put"), meterRegistry)).count());
+	}
+
+	@Test void testMaxActive()
+	{
+		final Pooled a1 = new Pooled();
+		final Pooled b1 = new Pooled();
+		factories.put("a", new Factory(asList(a1)));
+		factories.put("b", new Factory(asList(b1)));
+		final KeyedPool<String, Pooled> cp = newPool(3, 2, 1);
+
+		assertSame(a1, cp.get("a"));
+		assertFails(
+				() -> cp.get("b", Duration.ZERO),
+				PoolExhaustedException.class,
+				"timeout while waiting for one of maxActive items, waited PT0S");
+
+		cp.put("a", a1);
+		assertSame(b1, cp.get("b", Duration.ZERO));
+	}
+
+	@Test void testFlush()
+	{
+		final Pooled a1 = new Pooled();
+		final Pooled b1 = new Pooled();
+		factories.put("a", new Factory(asList(a1)));
+		factories.put("b", new Factory(asList(b1)));
+		final KeyedPool<String, Pooled> cp = newPool(3, 2, 0);
+		assertSame(a1, cp.get("a"));
+		assertSame(b1, cp.get("b"));
+		cp.put("a", a1);
+		cp.put("b", b1);
+
+		cp.flush();
+		assertEquals(0, cp.getIdleLevel());
+		assertEquals(0, cp.getIdleLevel("a"));
+		a1.assertV(0, 1, 1);
+		b1.assertV(0, 1, 1);
+	}
+
+	@Test void testRemove()
+	{
+		final Pooled a1 = new Pooled();
+		final Pooled a2 = new Pooled();
+		final Pooled b1 = new Pooled();
+		factories.put("a", new Factory(asList(a1, a2)));
+		factories.put("b", new Factory(asList(b1)));
+		final KeyedPool<String, Pooled> cp = newPool(3, 2, 0);
+		assertSame(a1, cp.get("a"));
+		assertSame(a2, cp.get("a"));
+		assertSame(b1, cp.get("b"));
+		cp.put("a", a1);
+		cp.put("b", b1);
+		assertEquals(2, cp.getIdleLevel());
+		assertEquals(1, applied.get("a"));
+
+		cp.remove("a");
+		assertEquals(1, cp.getIdleLevel());
+		assertEquals(0, cp.getIdleLevel("a"));
+		assertEquals(1, cp.getIdleLevel("b"));
+		a1.assertV(0, 1, 1);
+		assertNull(meterRegistry.find(METER_NAME + ".idle").tags("key", "a").gauge());
+		assertNull(meterRegistry.find(METER_NAME + ".usage").tags("key", "a").counter());
+		assertEquals(1, idle("b").value());
+
+		// item in use while removing is pooled for the key used again
+		factories.put("a", new Factory(asList()));
+		cp.put("a", a2);
+		assertEquals(2, applied.get("a"));
+		assertEquals(1, cp.getIdleLevel("a"));
+		assertEquals(1, idle("a").value());
+		assertEquals(1, usage("a", "put").count());
+		assertSame(a2, cp.get("a"));
+		a2.assertV(1, 1, 0);
+
+		cp.remove("a");
+		cp.remove("x");
+		assertEquals(2, applied.get("a"));
+		assertFails(
+				() -> cp.remove(null),
+				NullPointerException.class, "key");
+	}
+
+	@Test void testSlowFactory() throws InterruptedException, ExecutionException, TimeoutException
+	{
+		final Pooled b1 = new Pooled();
+		factories.put("b", new Factory(asList(b1)));
+		final CountDownLatch entered = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final KeyedPool<String, Pooled> cp = newPool(3, 2, 0, key ->
+		{
+			if(key.equals("slow"))
+			{
+				entered.countDown();
+				try
+				{
+					release.await();
+				}
+				catch(final InterruptedException e)
+				{
+					throw new RuntimeException(e);
+				}
+				return new Factory(asList(new Pooled()));
+			}
+			return factories.get(key);
+		});
+
+		final ExecutorService executor = Executors.newSingleThreadExecutor();
+		try
+		{
+			final Future<Pooled> slow = executor.submit(() -> cp.get("slow"));
+			assertTrue(entered.await(10, TimeUnit.SECONDS));
+
+			// does not wait for the slow factory of another key
+			assertSame(b1, cp.get("b"));
+			cp.put("b", b1);
+			assertEquals(1, cp.getIdleLevel());
+
+			release.countDown();
+			cp.put("slow", slow.get(10, TimeUnit.SECONDS));
+			assertEquals(2, cp.getIdleLevel());
+		}
+		finally
+		{
+			release.countDown();
+			executor.shutdownNow();
+		}
+	}
+
+	@Test void testError()
+	{
+		final KeyedPool<String, Pooled> cp = newPool(3, 2, 0);
+		assertFails(
+				() -> cp.get(null),
+				NullPointerException.class, "key");
+		assertFails(
+				() -> cp.put("a", null),
+				NullPointerException.class, "e");
+		assertFails(
+				() -> cp.get("x"),
+				NullPointerException.class, "factory result");
+	}
+
+	private final HashMap<String, Factory> factories = new HashMap<>();
+
+	private Gauge idle(final String key)
+	{
+		return (Gauge)meter(METER_NAME + ".idle", Tags.of("key", key), meterRegistry);
+	}
+
+	private Counter usage(final String key, final String operation)
+	{
+		return (Counter)meter(METER_NAME + ".usage", Tags.of("key", key, "operation", operation), meterRegistry);
+	}
+
+	private Counter evicted(final String key)
+	{
+		return (Counter)meter(METER_NAME + ".evicted", Tags.of("key", key, "reason", "idleLimit"), meterRegistry);
+	}
+
+	private final HashMap<String, Integer> applied = new HashMap<>();
+
+	private KeyedPool<String, Pooled> newPool(final int idleLimit, final int idleLimitPerKey, final int maxActive)
+	{
+		return newPool(idleLimit, idleLimitPerKey, maxActive, key ->
+		{
+			applied.merge(key, 1, Integer::sum);
+			return factories.get(key);
+		});
+	}
+
+	private KeyedPool<String, Pooled> newPool(
+			final int idleLimit, final int idleLimitPerKey, final int maxActive,
+			final Function<String, Factory> factory)
+	{
+		final java.util.Properties props = new java.util.Properties();
+		props.setProperty("idleLimit", String.valueOf(idleLimit));
+		props.setProperty("idleLimitPerKey", String.valueOf(idleLimitPerKey));
+		props.setProperty("maxActive", String.valueOf(maxActive));
+		final KeyedPoolProperties p = KeyedPoolProperties.factory(50).create(Sources.view(props, "DESC"));
+		final KeyedPool<String, Pooled> result = new KeyedPool<>(factory, p);
+		result.register(METER_NAME, Tags.empty(), meterRegistry);
+		return result;
+	}
+
+	private final MeterRegistry meterRegistry = new PrometheusMeterRegistry(key -> null);
+
+	private static final String METER_NAME = KeyedPoolTest.class.getName();
+}
@@ -0,0 +1,301 @@
+/*
+ * Copyright (C) 2004-2015  exedio GmbH (www.exedio.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package com.exedio.cope.util;
+
+import static com.exedio.cope.junit.Assert.assertFails;
+import static com.exedio.cope.util.PoolTest.meter;
+import static java.util.Arrays.asList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.exedio.cope.util.PoolTest.Factory;
+import com.exedio.cope.util.PoolTest.Pooled;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import org.junit.jupiter.api.Test;
+
+public class PoolAsyncTest
+{
+	@Test void testCreate()
+	{
+		final Pooled c1 = new Pooled();
+		final Factory f = new Factory(asList(c1));
+		final Pool<Pooled> cp = newPool(f, 0, "PT0S");
+
+		final CompletableFuture<Pooled> future = cp.getAsync(executor);
+		assertFalse(future.isDone());
+		f.assertV(0);
+
+		executor.runAll();
+		assertSame(c1, future.getNow(null));
+		f.assertV(1);
+	}
+
+	@Test void testIdleValidated()
+	{
+		final Pooled c1 = new Pooled();
+		final Factory f = new Factory(asList(c1));
+		final Pool<Pooled> cp = newPool(f, 0, "PT0S");
+		assertSame(c1, cp.get());
+		cp.put(c1);
+
+		// validation runs on executor
+		final CompletableFuture<Pooled> future = cp.getAsync(executor);
+		assertFalse(future.isDone());
+		c1.assertV(0, 1, 0);
+
+		executor.runAll();
+		assertSame(c1, future.getNow(null));
+		c1.assertV(1, 1, 0);
+		f.assertV(1);
+	}
+
+	@Test void testIdleNotValidated()
+	{
+		final Pooled c1 = new Pooled();
+		final Factory f = new Factory(asList(c1));
+		final Pool<Pooled> cp = newPool(f, 0, "PT1H");
+		assertSame(c1, cp.get());
+		cp.put(c1);
+
+		// validated recently by put, completed without executor
+		final CompletableFuture<Pooled> future = cp.getAsync(executor);
+		assertSame(c1, future.getNow(null));
+		assertEquals(0, executor.size());
+		c1.assertV(0, 1, 0);
+		f.assertV(1);
+	}
+
+	@Test void testWait()
+	{
+		final Pooled c1 = new Pooled();
+		final Factory f = new Factory(asList(c1));
+		final Pool<Pooled> cp = newPool(f, 1, "PT1H");
+		final Gauge waiting = (Gauge)meter(METER_NAME + ".waiting", Tags.empty(), meterRegistry);
+		assertSame(c1, cp.get());
+
+		final CompletableFuture<Pooled> future = cp.getAsync(executor);
+		assertFalse(future.isDone());
+		assertEquals(0, executor.size());
+		assertEquals(1, waiting.value());
+
+		// completed by put directly
+		cp.put(c1);
+		assertSame(c1, future.getNow(null));
+		assertEquals(0, executor.size());
+		assertEquals(0, waiting.value());
+		c1.assertV(0, 1, 0);
+		f.assertV(1);
+	}
+
+	@Test void testWaitValidated()
+	{
+		final Pooled c1 = new Pooled();
+		final Factory f = new Factory(asList(c1));
+		final Pool<Pooled> cp = newPool(f, 1, "PT0S");
+		assertSame(c1, cp.get());
+
+		final CompletableFuture<Pooled> future = cp.getAsync(executor);
+		cp.put(c1);
+		assertFalse(future.isDone());
+		assertEquals(1, executor.size());
+
+		executor.runAll();
+		assertSame(c1, future.getNow(null));
+		c1.assertV(1, 1, 0);
+
+		// permit has been handed over to future
+		assertFails(
+				() -> cp.get(Duration.ZERO),
+				PoolExhaustedException.class,
+				"timeout while waiting for one of maxActive items, waited PT0S");
+	}
+
+	@Test void testWaitCancelled()
+	{
+		final Pooled c1 = new Pooled();
+		final Factory f = new Factory(asList(c1));
+		final Pool<Pooled> cp = newPool(f, 1, "PT1H");
+		final Gauge waiting = (Gauge)meter(METER_NAME + ".waiting", Tags.empty(), meterRegistry);
+		assertSame(c1, cp.get());
+
+		final CompletableFuture<Pooled> future = cp.getAsync(executor);
+		assertEquals(1, waiting.value());
+
+		// cancelled waiter is removed immediately
+		assertTrue(future.cancel(false));
+		assertEquals(0, waiting.value());
+		cp.put(c1);
+		assertSame(c1, cp.get(Duration.ZERO));
+		f.assertV(1);
+	}
+
+	@Test void testManyWaiters()
+	{
+		final Pooled c1 = new Pooled();
+		final Factory f = new Factory(asList(c1));
+		final Pool<Pooled> cp = newPool(f, 1, "PT1H");
+		final Gauge waiting = (Gauge)meter(METER_NAME + ".waiting", Tags.empty(), meterRegistry);
+		assertSame(c1, cp.get());
+
+		final ArrayList<CompletableFuture<Void>> futures = new ArrayList<>();
+		for(int i = 0; i<20000; i++)
+			futures.add(cp.getAsync(executor).thenAccept(cp::put));
+		assertEquals(20000, waiting.value());
+
+		// each dependent stage returns the item to the next waiter without recursing
+		cp.put(c1);
+		for(final CompletableFuture<Void> future : futures)
+			assertTrue(future.isDone());
+		assertEquals(0, waiting.value());
+		assertEquals(1, cp.getInfo().getIdleLevel());
+		assertSame(c1, cp.get(Duration.ZERO));
+		f.assertV(1);
+	}
+
+	@Test void testCancelledWhileQueued()
+	{
+		final Pooled c1 = new Pooled();
+		final Factory f = new Factory(asList(c1));
+		final Pool<Pooled> cp = newPool(f, 1, "PT0S");
+
+		final CompletableFuture<Pooled> future = cp.getAsync(executor);
+		assertTrue(future.cancel(false));
+		executor.runAll();
+		f.assertV(0);
+
+		// permit has been released
+		assertSame(c1, cp.get(Duration.ZERO));
+	}
+
+	@Test void testReturnedAfterClose()
+	{
+		final Pooled c1 = new Pooled();
+		final Factory f = new Factory(asList(c1));
+		final Pool<Pooled> cp = newPool(f, 1, "PT0S");
+		assertSame(c1, cp.get());
+		cp.put(c1);
+
+		final CompletableFuture<Pooled> future = cp.getAsync(executor);
+		assertTrue(future.cancel(false));
+		assertEquals(0, cp.close(Duration.ZERO));
+		c1.assertV(0, 1, 0);
+
+		// idle item taken for validation is disposed instead of returned to the closed pool
+		executor.runAll();
+		c1.assertV(0, 1, 1);
+		assertEquals(0, cp.getInfo().getIdleLevel());
+	}
+
+	@Test void testCreateFails() throws InterruptedException
+	{
+		final Factory f = new Factory(asList());
+		final Pool<Pooled> cp = newPool(f, 1, "PT0S");
+
+		final CompletableFuture<Pooled> future = cp.getAsync(executor);
+		executor.runAll();
+		final ExecutionException e = assertThrows(ExecutionException.class, future::get);
+		assertSame(NoSuchElementException.class, e.getCause().getClass());
+
+		// permit has been released
+		assertFails(
+				() -> cp.get(Duration.ZERO),
+				NoSuchElementException.class, null);
+	}
+
+	@Test void testRejected()
+	{
+		final Pooled c1 = new Pooled();
+		final Factory f = new Factory(asList(c1));
+		final Pool<Pooled> cp = newPool(f, 1, "PT0S");
+		assertSame(c1, cp.get());
+		cp.put(c1);
+
+		final CompletableFuture<Pooled> future = cp.getAsync(command ->
+		{
+			throw new RejectedExecutionException("rejected");
+		});
+		assertTrue(future.isCompletedExceptionally());
+		assertEquals(1, cp.getInfo().getIdleLevel());
+
+		// permit has been released
+		assertSame(c1, cp.get(Duration.ZERO));
+		f.assertV(1);
+	}
+
+	@Test void testError()
+	{
+		final Pool<Pooled> cp = newPool(new Factory(asList()), 0, "PT0S");
+		assertFails(
+				() -> cp.getAsync(null),
+				NullPointerException.class, "executor");
+	}
+
+	private static final class QueueExecutor implements Executor
+	{
+		private final ArrayList<Runnable> commands = new ArrayList<>();
+
+		@Override
+		public void execute(final Runnable command)
+		{
+			commands.add(command);
+		}
+
+		int size()
+		{
+			return commands.size();
+		}
+
+		void runAll()
+		{
+			while(!commands.isEmpty())
+				commands.remove(0).run();
+		}
+	}
+
+	private final QueueExecutor executor = new QueueExecutor();
+
+	private Pool<Pooled> newPool(final Factory factory, final int maxActive, final String validationInterval)
+	{
+		final java.util.Properties props = new java.util.Properties();
+		props.setProperty("idleLimit", "1");
+		props.setProperty("maxActive", String.valueOf(maxActive));
+		props.setProperty("validationInterval", validationInterval);
+		final PoolProperties p = PoolProperties.factory(50).create(Sources.view(props, "DESC"));
+		final Pool<Pooled> result = new Pool<>(factory, p, null);
+		result.register(METER_NAME, Tags.empty(), meterRegistry);
+		return result;
+	}
+
+	private final MeterRegistry meterRegistry = new PrometheusMeterRegistry(key -> null);
+
+	private static final String METER_NAME = PoolAsyncTest.class.getName();
+}
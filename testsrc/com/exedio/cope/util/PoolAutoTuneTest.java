@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2004-2015  exedio GmbH (www.exedio.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package com.exedio.cope.util;
+
+import static com.exedio.cope.junit.Assert.assertFails;
+import static com.exedio.cope.util.PoolTest.meter;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.exedio.cope.util.PoolTest.Factory;
+import com.exedio.cope.util.PoolTest.Pooled;
+import com.exedio.cope.util.junit.ClockRule;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+@ExtendWith(ClockRule.Extension.class)
+public class PoolAutoTuneTest
+{
+	@Test void testIt(final ClockRule clock)
+	{
+		final Factory f = new Factory(pooled(10));
+		final Pool<Pooled> cp = newPool(f, new PoolCounter(1, 2, 4, 8));
+		final Gauge idleLimit = (Gauge)meter(METER_NAME + ".idleLimit", Tags.empty(), meterRegistry);
+		assertEquals(8, idleLimit.value());
+
+		// first maintain just takes a snapshot of the simulation
+		clock.override(() -> 1000);
+		cp.maintain();
+		assertIt(cp, 8, 0, 0, 0);
+
+		for(int i = 0; i<5; i++)
+			cycle(cp, 2);
+
+		// interval not yet elapsed
+		clock.override(() -> 10999);
+		cp.maintain();
+		assertIt(cp, 8, 0, 0, 0);
+
+		// simulated idle limit 1 lost 50%, idle limit 2 nothing
+		clock.override(() -> 11000);
+		cp.maintain();
+		assertIt(cp, 2, 0, 1, 0);
+		assertEquals(2, idleLimit.value());
+		assertEquals(2, cp.getInfo().getIdleLevel());
+
+		cycle(cp, 4);
+		cycle(cp, 4);
+		assertEquals(2, cp.getInfo().getIdleLevel());
+
+		// simulated idle limit 2 lost 50%, idle limit 4 nothing
+		clock.override(() -> 21000);
+		cp.maintain();
+		assertIt(cp, 4, 1, 1, 0);
+		assertEquals(4, idleLimit.value());
+
+		// no usage
+		clock.override(() -> 31000);
+		cp.maintain();
+		assertIt(cp, 4, 1, 1, 1);
+		f.assertV(6);
+	}
+
+	@Test void testHysteresis(final ClockRule clock)
+	{
+		final Factory f = new Factory(pooled(2));
+		final Pool<Pooled> cp = newPool(f, new PoolCounter(1, 2, 4, 8));
+
+		clock.override(() -> 1000);
+		cp.maintain();
+
+		// simulated idle limit 1 loses 6%, below autoTuneLoss but not below hysteresis
+		for(int i = 0; i<3; i++)
+			cycle(cp, 2);
+		for(int i = 0; i<44; i++)
+			cycle(cp, 1);
+
+		clock.override(() -> 11000);
+		cp.maintain();
+		assertIt(cp, 2, 0, 1, 0);
+
+		for(int i = 0; i<50; i++)
+			cycle(cp, 1);
+
+		// simulated idle limit 1 loses nothing
+		clock.override(() -> 21000);
+		cp.maintain();
+		assertIt(cp, 1, 0, 2, 0);
+		f.assertV(2);
+	}
+
+	@Test void testNoCounter()
+	{
+		assertFails(
+				() -> newPool(new Factory(List.of()), null),
+				IllegalArgumentException.class,
+				"autoTuneLoss requires a PoolCounter");
+	}
+
+	@Test void testPropertiesError()
+	{
+		assertFails(
+				() -> newProperties("101", "0"),
+				IllegalPropertiesException.class,
+				"property 'autoTuneLoss' in DESC must be less or equal 100, but was 101");
+		assertFails(
+				() -> newProperties("10", "10"),
+				IllegalPropertiesException.class,
+				"property 'autoTuneHysteresis' in DESC must be less than autoTuneLoss=10, but was 10");
+	}
+
+	private static void cycle(final Pool<Pooled> cp, final int n)
+	{
+		final ArrayList<Pooled> items = new ArrayList<>();
+		for(int i = 0; i<n; i++)
+			items.add(cp.get());
+		for(final Pooled item : items)
+			cp.put(item);
+	}
+
+	private void assertIt(
+			final Pool<Pooled> cp, final int idleLimit,
+			final int grow, final int shrink, final int keep)
+	{
+		assertEquals(idleLimit, cp.getInfo().getIdleLimit(), "idleLimit");
+		assertEquals(grow,   autoTune("grow"  ).count(), "grow");
+		assertEquals(shrink, autoTune("shrink").count(), "shrink");
+		assertEquals(keep,   autoTune("keep"  ).count(), "keep");
+	}
+
+	private Counter autoTune(final String decision)
+	{
+		return (Counter)meter(METER_NAME + ".autoTune", Tags.of("decision", decision), meterRegistry);
+	}
+
+	private static List<Pooled> pooled(final int n)
+	{
+		final ArrayList<Pooled> result = new ArrayList<>();
+		for(int i = 0; i<n; i++)
+			result.add(new Pooled());
+		return result;
+	}
+
+	private Pool<Pooled> newPool(final Factory factory, final PoolCounter counter)
+	{
+		final Pool<Pooled> result = new Pool<>(factory, newProperties("10", "5"), counter);
+		result.register(METER_NAME, Tags.empty(), meterRegistry);
+		return result;
+	}
+
+	private static PoolProperties newProperties(final String autoTuneLoss, final String autoTuneHysteresis)
+	{
+		final java.util.Properties props = new java.util.Properties();
+		props.setProperty("idleLimit", "8");
+		props.setProperty("autoTuneLoss", autoTuneLoss);
+		props.setProperty("autoTuneHysteresis", autoTuneHysteresis);
+		props.setProperty("autoTuneInterval", "PT10S");
+		return PoolProperties.factory(50).create(Sources.view(props, "DESC"));
+	}
+
+	private final MeterRegistry meterRegistry = new PrometheusMeterRegistry(key -> null);
+
+	private static final String METER_NAME = PoolAutoTuneTest.class.getName();
+}
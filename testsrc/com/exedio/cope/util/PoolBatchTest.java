@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2004-2015  exedio GmbH (www.exedio.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package com.exedio.cope.util;
+
+import static com.exedio.cope.junit.Assert.assertFails;
+import static com.exedio.cope.util.PoolTest.meter;
+import static java.util.Arrays.asList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import com.exedio.cope.util.PoolTest.Factory;
+import com.exedio.cope.util.PoolTest.Pooled;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import java.time.Duration;
+import java.util.List;
+import java.util.NoSuchElementException;
+import org.junit.jupiter.api.Test;
+
+public class PoolBatchTest
+{
+	@Test void testIt()
+	{
+		final Pooled c1 = new Pooled();
+		final Pooled c2 = new Pooled();
+		final Pooled c3 = new Pooled();
+		final Pooled c4 = new Pooled();
+		final Factory f = new Factory(asList(c1, c2, c3, c4));
+		final PoolCounter counter = new PoolCounter(1, 2);
+		final Pool<Pooled> cp = newPool(f, 0, counter);
+		final Counter get = (Counter)meter(METER_NAME + ".usage", Tags.of("operation", "get"), meterRegistry);
+		final Counter put = (Counter)meter(METER_NAME + ".usage", Tags.of("operation", "put"), meterRegistry);
+		final Gauge borrowed = (Gauge)meter(METER_NAME + ".borrowed", Tags.empty(), meterRegistry);
+
+		assertEquals(asList(c1, c2, c3), cp.getMany(3));
+		f.assertV(3);
+		assertEquals(3, get.count());
+		assertEquals(3, borrowed.value());
+		assertEquals(3, counter.getGetCounter());
+
+		// idle limit is exceeded by c3
+		cp.putAll(asList(c1, c2, c3));
+		assertEquals(2, cp.getInfo().getIdleLevel());
+		c1.assertV(0, 1, 0);
+		c2.assertV(0, 1, 0);
+		c3.assertV(0, 1, 1);
+		assertEquals(3, put.count());
+		assertEquals(0, borrowed.value());
+		assertEquals(3, counter.getPutCounter());
+
+		c2.isValidOnGet = false;
+		assertEquals(asList(c1, c4), cp.getMany(2));
+		assertEquals(0, cp.getInfo().getIdleLevel());
+		assertEquals(1, cp.getInfo().getInvalidOnGet());
+		c1.assertV(1, 1, 0);
+		c2.assertV(1, 1, 0);
+		f.assertV(4);
+		assertEquals(5, get.count());
+
+		c4.isValidOnPut = false;
+		cp.putAll(asList(c1, c4));
+		assertEquals(1, cp.getInfo().getIdleLevel());
+		assertEquals(1, cp.getInfo().getInvalidOnPut());
+		c1.assertV(1, 2, 0);
+		c4.assertV(0, 1, 0);
+		assertEquals(5, put.count());
+		assertEquals(0, borrowed.value());
+
+		assertEquals(asList(), cp.getMany(0));
+		cp.putAll(asList());
+		assertEquals(5, get.count());
+		assertEquals(5, put.count());
+		assertEquals(5, counter.getGetCounter());
+		assertEquals(5, counter.getPutCounter());
+	}
+
+	@Test void testMaxActive()
+	{
+		final Pooled c1 = new Pooled();
+		final Pooled c2 = new Pooled();
+		final Factory f = new Factory(asList(c1, c2));
+		final Pool<Pooled> cp = newPool(f, 2, null);
+
+		assertFails(
+				() -> cp.getMany(3),
+				IllegalArgumentException.class,
+				"n must not be greater than maxActive=2, but was 3");
+		final List<Pooled> many = cp.getMany(2);
+		assertEquals(asList(c1, c2), many);
+		assertFails(
+				() -> cp.get(Duration.ZERO),
+				PoolExhaustedException.class,
+				"timeout while waiting for one of maxActive items, waited PT0S");
+
+		cp.putAll(many);
+		assertSame(c1, cp.get(Duration.ZERO));
+		assertSame(c2, cp.get(Duration.ZERO));
+		f.assertV(2);
+	}
+
+	@Test void testCreateFails()
+	{
+		final Pooled c1 = new Pooled();
+		final Factory f = new Factory(asList(c1));
+		final Pool<Pooled> cp = newPool(f, 2, null);
+		assertSame(c1, cp.get());
+		cp.put(c1);
+
+		assertFails(
+				() -> cp.getMany(2),
+				NoSuchElementException.class, null);
+		assertEquals(1, cp.getInfo().getIdleLevel());
+		c1.assertV(1, 1, 0);
+
+		// permits have been released
+		assertSame(c1, cp.get(Duration.ZERO));
+		assertFails(
+				() -> cp.get(Duration.ZERO),
+				NoSuchElementException.class, null);
+	}
+
+	@Test void testError()
+	{
+		final Pooled c1 = new Pooled();
+		final Pool<Pooled> cp = newPool(new Factory(asList(c1)), 0, null);
+		assertFails(
+				() -> cp.getMany(-1),
+				IllegalArgumentException.class,
+				"n must not be negative, but was -1");
+		assertFails(
+				() -> cp.putAll(null),
+				NullPointerException.class, "items");
+		assertFails(
+				() -> cp.putAll(asList(c1, null)),
+				NullPointerException.class, "items contains null");
+	}
+
+	private Pool<Pooled> newPool(final Factory factory, final int maxActive, final PoolCounter counter)
+	{
+		final java.util.Properties props = new java.util.Properties();
+		props.setProperty("idleLimit", "2");
+		props.setProperty("maxActive", String.valueOf(maxActive));
+		final PoolProperties p = PoolProperties.factory(50).create(Sources.view(props, "DESC"));
+		final Pool<Pooled> result = new Pool<>(factory, p, counter);
+		result.register(METER_NAME, Tags.empty(), meterRegistry);
+		return result;
+	}
+
+	private final MeterRegistry meterRegistry = new PrometheusMeterRegistry(key -> null);
+
+	private static final String METER_NAME = PoolBatchTest.class.getName();
+}
@@ -0,0 +1,307 @@
+/*
+ * Copyright (C) 2004-2015  exedio GmbH (www.exedio.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package com.exedio.cope.util;
+
+import static com.exedio.cope.junit.Assert.assertFails;
+import static com.exedio.cope.util.PoolTest.meter;
+import static java.util.Arrays.asList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import com.exedio.cope.util.PoolTest.Pooled;
+import com.exedio.cope.util.junit.ClockRule;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+@ExtendWith({ClockRule.Extension.class, PoolLog.class})
+public class PoolBreakerTest
+{
+	@Test void testBreaker(final ClockRule clock, final PoolLog log)
+	{
+		final Pooled c1 = new Pooled();
+		final Pooled c2 = new Pooled();
+		final Factory f = new Factory(asList(c1, c2));
+		final Pool<Pooled> cp = newPool(f, "2", "0");
+		final Counter rejected = (Counter)meter(METER_NAME + ".breakerRejected", Tags.empty(), meterRegistry);
+		log.start();
+
+		clock.override(() -> 1000);
+		assertSame(c1, cp.get());
+		assertBreaker("closed");
+
+		f.failure = new IllegalStateException("down");
+		assertFails(cp::get, IllegalStateException.class, "down");
+		assertBreaker("closed");
+		log.assertEmpty();
+
+		assertFails(cp::get, IllegalStateException.class, "down");
+		assertBreaker("open");
+		log.assertWarn("circuit breaker open for 10000ms after 2 consecutive failures of Factory#create");
+		f.assertV(3);
+
+		final PoolExhaustedException e = assertFails(cp::get,
+				PoolExhaustedException.class,
+				"circuit breaker open after 2 consecutive failures of Factory#create",
+				IllegalStateException.class);
+		assertSame(f.failure, e.getCause());
+		assertEquals(1, rejected.count());
+		f.assertV(3);
+
+		// idle items are still available
+		cp.put(c1);
+		assertSame(c1, cp.get());
+		f.assertV(3);
+
+		clock.override(() -> 10999);
+		assertFails(cp::get, PoolExhaustedException.class,
+				"circuit breaker open after 2 consecutive failures of Factory#create",
+				IllegalStateException.class);
+		assertEquals(2, rejected.count());
+		f.assertV(3);
+
+		// trial fails
+		clock.override(() -> 11000);
+		assertBreaker("halfOpen");
+		assertFails(cp::get, IllegalStateException.class, "down");
+		assertBreaker("open");
+		log.assertWarn("circuit breaker open for 10000ms after 3 consecutive failures of Factory#create");
+		f.assertV(4);
+		assertFails(cp::get, PoolExhaustedException.class,
+				"circuit breaker open after 3 consecutive failures of Factory#create",
+				IllegalStateException.class);
+		assertEquals(3, rejected.count());
+
+		// trial succeeds
+		clock.override(() -> 21000);
+		f.failure = null;
+		assertSame(c2, cp.get());
+		assertBreaker("closed");
+		f.assertV(5);
+		log.assertInfo("circuit breaker closed");
+		log.assertEmpty();
+	}
+
+	@Test void testDisabled()
+	{
+		final Factory f = new Factory(asList());
+		final Pool<Pooled> cp = newPool(f, "0", "0");
+
+		f.failure = new IllegalStateException("down");
+		for(int i = 1; i<=5; i++)
+		{
+			assertFails(cp::get, IllegalStateException.class, "down");
+			f.assertV(i);
+		}
+		assertBreaker("closed");
+	}
+
+	@Test void testReconfigure(final PoolLog log)
+	{
+		final Factory f = new Factory(asList());
+		final Pool<Pooled> cp = newPool(f, "1", "0");
+		log.start();
+
+		f.failure = new IllegalStateException("down");
+		assertFails(cp::get, IllegalStateException.class, "down");
+		log.assertWarn("circuit breaker open for 10000ms after 1 consecutive failures of Factory#create");
+		assertFails(cp::get, PoolExhaustedException.class,
+				"circuit breaker open after 1 consecutive failures of Factory#create",
+				IllegalStateException.class);
+		f.assertV(1);
+
+		cp.reconfigure(newProperties("0", "0"));
+		assertBreaker("closed");
+		assertFails(cp::get, IllegalStateException.class, "down");
+		f.assertV(2);
+	}
+
+	@Test void testMaxCreatingFails() throws InterruptedException
+	{
+		final Factory f = new Factory(asList());
+		final Pool<Pooled> cp = newPool(f, "0", "1");
+		f.failure = new IllegalStateException("down");
+		final CountDownLatch latch = new CountDownLatch(1);
+		f.latch = latch;
+
+		final Future<?> first = executor.submit(() -> cp.get());
+		awaitCreate(f);
+		final Future<?> second = executor.submit(() -> cp.get());
+		awaitWaiting();
+
+		latch.countDown();
+		assertSame(IllegalStateException.class, cause(first).getClass());
+		final Throwable secondCause = cause(second);
+		assertEquals(PoolExhaustedException.class, secondCause.getClass());
+		assertEquals("Factory#create failed while waiting for one of maxCreating creations", secondCause.getMessage());
+		assertSame(f.failure, secondCause.getCause());
+		f.assertV(1);
+
+		// later calls try again
+		assertFails(cp::get, IllegalStateException.class, "down");
+		f.assertV(2);
+	}
+
+	@Test void testMaxCreatingSucceeds() throws InterruptedException, ExecutionException
+	{
+		final Pooled c1 = new Pooled();
+		final Pooled c2 = new Pooled();
+		final Factory f = new Factory(asList(c1, c2));
+		final Pool<Pooled> cp = newPool(f, "0", "1");
+		final CountDownLatch latch = new CountDownLatch(1);
+		f.latch = latch;
+
+		final Future<Pooled> first = executor.submit(() -> cp.get());
+		awaitCreate(f);
+		final Future<Pooled> second = executor.submit(() -> cp.get());
+		awaitWaiting();
+
+		latch.countDown();
+		assertSame(c1, first.get());
+		assertSame(c2, second.get());
+		f.assertV(2);
+	}
+
+	private static void awaitCreate(final Factory f) throws InterruptedException
+	{
+		while(f.entered==0)
+			//noinspection BusyWait
+			Thread.sleep(1);
+	}
+
+	private void awaitWaiting() throws InterruptedException
+	{
+		while(waitingThread==null || waitingThread.getState()!=Thread.State.WAITING)
+			//noinspection BusyWait
+			Thread.sleep(1);
+	}
+
+	private static Throwable cause(final Future<?> future) throws InterruptedException
+	{
+		try
+		{
+			future.get(10, TimeUnit.SECONDS);
+			throw new AssertionError("no exception");
+		}
+		catch(final ExecutionException e)
+		{
+			return e.getCause();
+		}
+		catch(final java.util.concurrent.TimeoutException e)
+		{
+			throw new AssertionError(e);
+		}
+	}
+
+	private volatile Thread waitingThread;
+	private final ExecutorService executor = Executors.newFixedThreadPool(2, r ->
+	{
+		final Thread result = new Thread(r);
+		waitingThread = result; // the thread started last waits for the first one
+		return result;
+	});
+
+	@AfterEach void after()
+	{
+		executor.shutdownNow();
+	}
+
+	private void assertBreaker(final String state)
+	{
+		for(final String s : List.of("closed", "open", "halfOpen"))
+			assertEquals(
+					s.equals(state) ? 1.0 : 0.0,
+					((Gauge)meter(METER_NAME + ".breaker", Tags.of("state", s), meterRegistry)).value(),
+					s);
+	}
+
+	private static final class Factory extends PoolTest.Factory
+	{
+		volatile RuntimeException failure = null;
+		volatile CountDownLatch latch = null;
+		volatile int entered = 0;
+
+		Factory(final List<Pooled> connections)
+		{
+			super(connections);
+		}
+
+		@Override
+		public synchronized Pooled create()
+		{
+			entered++;
+			final CountDownLatch latch = this.latch;
+			if(latch!=null)
+			{
+				this.latch = null;
+				try
+				{
+					//noinspection ResultOfMethodCallIgnored
+					latch.await(10, TimeUnit.SECONDS);
+				}
+				catch(final InterruptedException e)
+				{
+					throw new RuntimeException(e);
+				}
+			}
+			if(failure!=null)
+			{
+				createCount++;
+				throw failure;
+			}
+			return super.create();
+		}
+	}
+
+	private Pool<Pooled> newPool(
+			final Factory factory,
+			final String breakerThreshold,
+			final String maxCreating)
+	{
+		final Pool<Pooled> result = new Pool<>(factory, newProperties(breakerThreshold, maxCreating), null);
+		meterRegistry = new PrometheusMeterRegistry(key -> null);
+		result.register(METER_NAME, Tags.empty(), meterRegistry);
+		return result;
+	}
+
+	private static PoolProperties newProperties(
+			final String breakerThreshold,
+			final String maxCreating)
+	{
+		final java.util.Properties props = new java.util.Properties();
+		props.setProperty("breakerThreshold", breakerThreshold);
+		props.setProperty("maxCreating", maxCreating);
+		return PoolProperties.factory(50).create(Sources.view(props, "DESC"));
+	}
+
+	private static final String METER_NAME = PoolBreakerTest.class.getName();
+	private MeterRegistry meterRegistry;
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2004-2015  exedio GmbH (www.exedio.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package com.exedio.cope.util;
+
+import static com.exedio.cope.junit.Assert.assertFails;
+import static com.exedio.cope.util.PoolTest.meter;
+import static java.util.Arrays.asList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.exedio.cope.util.PoolTest.Factory;
+import com.exedio.cope.util.PoolTest.Pooled;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+@ExtendWith(PoolLog.class)
+public class PoolCloseTest
+{
+	@Test void testIdle()
+	{
+		final Pooled c1 = new Pooled();
+		final Pooled c2 = new Pooled();
+		final Factory f = new Factory(asList(c1, c2));
+		final Pool<Pooled> cp = newPool(f, 2, 0);
+		assertFalse(cp.isClosed());
+
+		assertEquals(0, cp.close(Duration.ZERO));
+		assertTrue(cp.isClosed());
+		assertEquals(0, cp.getInfo().getIdleLevel());
+		c1.assertV(0, 0, 1);
+		c2.assertV(0, 0, 1);
+
+		assertFails(
+				cp::get,
+				IllegalStateException.class, "pool is closed");
+		assertFails(
+				() -> cp.get(Duration.ZERO),
+				IllegalStateException.class, "pool is closed");
+		assertFails(
+				() -> cp.getMany(1),
+				IllegalStateException.class, "pool is closed");
+		assertFails(
+				() -> cp.getAsync(Runnable::run),
+				IllegalStateException.class, "pool is closed");
+		f.assertV(2);
+	}
+
+	@Test void testOutstanding(final PoolLog log)
+	{
+		final Pooled c1 = new Pooled();
+		final Pooled c2 = new Pooled();
+		final Pooled c3 = new Pooled();
+		final Factory f = new Factory(asList(c1, c2, c3));
+		final Pool<Pooled> cp = newPool(f, 0, 0);
+		assertSame(c1, cp.get());
+		assertSame(c2, cp.get());
+		assertSame(c3, cp.get());
+
+		log.start();
+		assertEquals(3, cp.close(Duration.ZERO));
+		log.assertWarn("3 items not returned on closing pool within PT0S");
+		log.assertEmpty();
+
+		// disposed without validating
+		cp.put(c1);
+		c1.assertV(0, 0, 1);
+		assertEquals(0, cp.getInfo().getIdleLevel());
+
+		cp.putAll(asList(c2));
+		c2.assertV(0, 0, 1);
+		assertEquals(0, cp.getInfo().getIdleLevel());
+
+		assertEquals(1, cp.close(Duration.ZERO));
+		log.assertWarn("1 items not returned on closing pool within PT0S");
+
+		cp.put(c3);
+		assertEquals(0, cp.close(Duration.ZERO));
+		log.assertEmpty();
+		c3.assertV(0, 0, 1);
+	}
+
+	@Test void testWaitForReturn() throws ExecutionException, InterruptedException
+	{
+		final Pooled c1 = new Pooled();
+		final Factory f = new Factory(asList(c1));
+		final Pool<Pooled> cp = newPool(f, 0, 0);
+		assertSame(c1, cp.get());
+
+		final CompletableFuture<Void> returner = CompletableFuture.runAsync(() ->
+		{
+			try
+			{
+				Thread.sleep(50);
+			}
+			catch(final InterruptedException e)
+			{
+				throw new RuntimeException(e);
+			}
+			cp.put(c1);
+		});
+		assertEquals(0, cp.close(Duration.ofSeconds(10)));
+		returner.get();
+		c1.assertV(0, 0, 1);
+	}
+
+	@Test void testWaiting() throws InterruptedException
+	{
+		final Pooled c1 = new Pooled();
+		final Factory f = new Factory(asList(c1));
+		final Pool<Pooled> cp = newPool(f, 0, 1);
+		final Gauge waiting = (Gauge)meter(METER_NAME + ".waiting", Tags.empty(), meterRegistry);
+		assertSame(c1, cp.get());
+
+		final CompletableFuture<Pooled> async = cp.getAsync(Runnable::run);
+		final CompletableFuture<Pooled> sync = CompletableFuture.supplyAsync(cp::get);
+		for(int i = 0; i<1000 && waiting.value()<2; i++)
+			//noinspection BusyWait OK: just a test
+			Thread.sleep(10);
+		assertEquals(2, waiting.value());
+
+		assertEquals(1, cp.close(Duration.ZERO));
+		assertSame(IllegalStateException.class,
+				assertThrows(ExecutionException.class, async::get).getCause().getClass());
+		assertSame(IllegalStateException.class,
+				assertThrows(ExecutionException.class, () -> sync.get(10, TimeUnit.SECONDS)).getCause().getClass());
+
+		cp.put(c1);
+		c1.assertV(0, 0, 1);
+		f.assertV(1);
+	}
+
+	@Test void testMaintain()
+	{
+		final Factory f = new Factory(asList());
+		final Pool<Pooled> cp = newPool(f, 0, 0);
+		assertEquals(0, cp.close(Duration.ZERO));
+
+		// minIdle is not maintained
+		cp.maintain();
+		assertEquals(0, cp.getInfo().getIdleLevel());
+		f.assertV(0);
+	}
+
+	@Test void testError()
+	{
+		final Pool<Pooled> cp = newPool(new Factory(asList()), 0, 0);
+		assertFails(
+				() -> cp.close(null),
+				NullPointerException.class, "timeout");
+	}
+
+	private Pool<Pooled> newPool(final Factory factory, final int idleInitial, final int maxActive)
+	{
+		final java.util.Properties props = new java.util.Properties();
+		props.setProperty("idleLimit", "2");
+		props.setProperty("idleInitial", String.valueOf(idleInitial));
+		props.setProperty("minIdle", "1");
+		props.setProperty("maxActive", String.valueOf(maxActive));
+		final PoolProperties p = PoolProperties.factory(50).create(Sources.view(props, "DESC"));
+		final Pool<Pooled> result = new Pool<>(factory, p, null);
+		result.register(METER_NAME, Tags.empty(), meterRegistry);
+		return result;
+	}
+
+	private final MeterRegistry meterRegistry = new PrometheusMeterRegistry(key -> null);
+
+	private static final String METER_NAME = PoolCloseTest.class.getName();
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2004-2015  exedio GmbH (www.exedio.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package com.exedio.cope.util;
+
+import static com.exedio.cope.util.PoolTest.newPool;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+public class PoolConcurrencyTest
+{
+	@Test void testIt() throws InterruptedException
+	{
+		final Factory f = new Factory();
+		final Pool<Object> pool = newPool(f, 5, 0, new PoolCounter());
+
+		final List<Thread> threads = new ArrayList<>();
+		final AtomicInteger failures = new AtomicInteger();
+		for(int t = 0; t<THREADS; t++)
+			threads.add(new Thread(() ->
+			{
+				try
+				{
+					for(int i = 0; i<ITERATIONS; i++)
+					{
+						final Object e1 = pool.get();
+						final Object e2 = pool.get();
+						pool.put(e1);
+						pool.put(e2);
+						if(pool.getInfo().getIdleLevel()>5)
+							failures.incrementAndGet();
+					}
+				}
+				catch(final RuntimeException | AssertionError e)
+				{
+					failures.incrementAndGet();
+					throw e;
+				}
+			}));
+		for(final Thread t : threads)
+			t.start();
+		for(final Thread t : threads)
+			t.join();
+
+		assertEquals(0, failures.get());
+		final Pool.Info info = pool.getInfo();
+		assertTrue(info.getIdleLevel()<=5, "idleLevel " + info.getIdleLevel());
+		assertEquals(f.created.get() - f.disposed.get(), info.getIdleLevel());
+		assertEquals(2*THREADS*ITERATIONS, info.getCounter().getGetCounter());
+		assertEquals(2*THREADS*ITERATIONS, info.getCounter().getPutCounter());
+
+		pool.flush();
+		assertEquals(0, pool.getInfo().getIdleLevel());
+		assertEquals(f.created.get(), f.disposed.get());
+	}
+
+	private static final int THREADS = 8;
+	private static final int ITERATIONS = 10000;
+
+	private static final class Factory implements Pool.Factory<Object>
+	{
+		final AtomicInteger created = new AtomicInteger();
+		final AtomicInteger disposed = new AtomicInteger();
+
+		@Override
+		public Object create()
+		{
+			created.incrementAndGet();
+			return new Object();
+		}
+
+		@Override
+		public boolean isValidOnGet(final Object e)
+		{
+			return true;
+		}
+
+		@Override
+		public boolean isValidOnPut(final Object e)
+		{
+			return true;
+		}
+
+		@Override
+		public void dispose(final Object e)
+		{
+			disposed.incrementAndGet();
+		}
+	}
+}
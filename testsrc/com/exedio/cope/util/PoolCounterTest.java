@@ -23,8 +23,13 @@
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import org.junit.jupiter.api.Test;
 
 public class PoolCounterTest
@@ -188,6 +193,129 @@
 		}
 	}
 
+	@Test void testBulk()
+	{
+		final PoolCounter c = new PoolCounter(1,2);
+
+		c.incrementGet(2);
+		assertIt(c, 2, 0);
+		assertEquals(1, c.getPools().size());
+		assertIt(c.getPools().get(0), 1, 0, 0, 2, 0, 0);
+
+		c.incrementPut(3);
+		assertIt(c, 2, 3);
+		assertEquals(2, c.getPools().size());
+		assertIt(c.getPools().get(0), 1, 1, 1, 2, 2,100);
+		assertIt(c.getPools().get(1), 2, 2, 2, 2, 1, 50);
+
+		c.incrementGet(3);
+		assertIt(c, 5, 3);
+		assertIt(c.getPools().get(0), 1, 0, 1, 4, 2, 40);
+		assertIt(c.getPools().get(1), 2, 0, 2, 3, 1, 20);
+
+		c.incrementGet(0);
+		c.incrementPut(0);
+		assertIt(c, 5, 3);
+
+		assertFails(() ->
+			c.incrementGet(-1),
+			IllegalArgumentException.class,
+			"n must not be negative, but was -1");
+		assertFails(() ->
+			c.incrementPut(-1),
+			IllegalArgumentException.class,
+			"n must not be negative, but was -1");
+	}
+
+	@Test void testConcurrent() throws Exception
+	{
+		final PoolCounter c = new PoolCounter(1,2,4,6,8,10);
+		final int threads = 8;
+		final int iterations = 10000;
+
+		final ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try
+		{
+			final ArrayList<Future<?>> futures = new ArrayList<>();
+			for(int t = 0; t<threads; t++)
+				futures.add(executor.submit(() ->
+				{
+					for(int i = 0; i<iterations; i++)
+					{
+						c.incrementGet();
+						c.incrementPut();
+						if((i%100)==0)
+							for(final PoolCounter.Pool p : c.getPools())
+								assertTrue(p.isConsistent(), "isConsistent");
+					}
+				}));
+			for(final Future<?> f : futures)
+				f.get();
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+
+		assertIt(c, threads*iterations, threads*iterations);
+		final List<PoolCounter.Pool> pools = c.getPools();
+		for(final PoolCounter.Pool p : pools)
+			assertTrue(p.isConsistent(), "isConsistent");
+		final PoolCounter copy = new PoolCounter(c);
+		assertIt(copy, threads*iterations, threads*iterations);
+		assertEquals(pools.size(), copy.getPools().size());
+	}
+
+	/**
+	 * Publishing must not be kept busy applying events published concurrently,
+	 * see drainBatchLocked.
+	 */
+	@Test void testPublishLatency() throws Exception
+	{
+		final PoolCounter c = new PoolCounter();
+		final int threads = 8;
+		final long runNanos = TimeUnit.SECONDS.toNanos(2);
+
+		final ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try
+		{
+			final long end = System.nanoTime() + runNanos;
+			final ArrayList<Future<Long>> futures = new ArrayList<>();
+			for(int t = 0; t<threads; t++)
+				futures.add(executor.submit(() ->
+				{
+					long max = 0;
+					int i = 0;
+					for(long now = System.nanoTime(); now<end; i++)
+					{
+						if((i&1)==0)
+							c.incrementGet();
+						else
+							c.incrementPut();
+						final long after = System.nanoTime();
+						max = Math.max(max, after-now);
+						now = after;
+					}
+					// keeps gets and puts balanced
+					if((i&1)==1)
+						c.incrementPut();
+					return max;
+				}));
+			long max = 0;
+			for(final Future<Long> f : futures)
+				max = Math.max(max, f.get());
+			assertTrue(max<runNanos/2, "max " + TimeUnit.NANOSECONDS.toMillis(max) + "ms");
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+
+		assertEquals(c.getGetCounter(), c.getPutCounter());
+		for(final PoolCounter.Pool p : c.getPools())
+			assertTrue(p.isConsistent(), "isConsistent");
+	}
+
 	private static void assertIt(final PoolCounter p, final int getCounter, final int putCounter)
 	{
 		assertEquals(getCounter, p.getGetCounter());
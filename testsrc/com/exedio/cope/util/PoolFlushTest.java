@@ -0,0 +1,220 @@
+/*
+ * Copyright (C) 2004-2015  exedio GmbH (www.exedio.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package com.exedio.cope.util;
+
+import static com.exedio.cope.util.PoolTest.meter;
+import static java.util.Arrays.asList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.exedio.cope.util.PoolTest.Pooled;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+@ExtendWith(PoolLog.class)
+public class PoolFlushTest
+{
+	@Test void testParallel() throws InterruptedException
+	{
+		final Pooled c1 = new Pooled();
+		final Pooled c2 = new Pooled();
+		final Pooled c3 = new Pooled();
+		final Pool<Pooled> cp = newPool(new Factory(asList(c1, c2, c3)));
+		final Timer flush = (Timer)meter(METER_NAME + ".flush", Tags.empty(), meterRegistry);
+
+		assertEquals(0, cp.flush(executor(3), Duration.ofSeconds(10)));
+		awaitTermination();
+		assertEquals(0, cp.getInfo().getIdleLevel());
+		c1.assertV(0, 0, 1);
+		c2.assertV(0, 0, 1);
+		c3.assertV(0, 0, 1);
+		assertEquals(1, flush.count());
+		assertEquals(0, failed().count());
+		assertEquals(0, abandoned().count());
+	}
+
+	@Test void testTimeout(final PoolLog log) throws InterruptedException
+	{
+		final Pooled c1 = new Pooled();
+		final Pooled c2 = new Pooled();
+		final Pooled c3 = new Pooled();
+		final Factory f = new Factory(asList(c1, c2, c3));
+		f.blocking = c1;
+		final Pool<Pooled> cp = newPool(f);
+
+		log.start();
+		assertEquals(3, cp.flush(executor(1), Duration.ofMillis(50)));
+		log.assertWarn("abandoned 3 of 3 idle items on flushing pool, 0 rejected by executor, timeout PT0.05S");
+		log.assertEmpty();
+		assertEquals(0, cp.getInfo().getIdleLevel());
+		assertEquals(3, abandoned().count());
+
+		f.unblock.countDown();
+		awaitTermination();
+		c1.assertV(0, 0, 1);
+		c2.assertV(0, 0, 0);
+		c3.assertV(0, 0, 0);
+		assertEquals(0, failed().count());
+	}
+
+	@Test void testRejected(final PoolLog log)
+	{
+		final Pooled c1 = new Pooled();
+		final Pooled c2 = new Pooled();
+		final Pooled c3 = new Pooled();
+		final Pool<Pooled> cp = newPool(new Factory(asList(c1, c2, c3)));
+
+		log.start();
+		assertEquals(3, cp.flush(command -> { throw new RejectedExecutionException(); }, Duration.ofSeconds(10)));
+		log.assertWarn("abandoned 3 of 3 idle items on flushing pool, 3 rejected by executor, timeout PT10S");
+		log.assertEmpty();
+		assertEquals(0, cp.getInfo().getIdleLevel());
+		c1.assertV(0, 0, 0);
+		assertEquals(3, abandoned().count());
+	}
+
+	@Test void testFailure(final PoolLog log) throws InterruptedException
+	{
+		final Pooled c1 = new Pooled();
+		final Pooled c2 = new Pooled();
+		final Pooled c3 = new Pooled();
+		final Factory f = new Factory(asList(c1, c2, c3));
+		f.failing = c2;
+		final Pool<Pooled> cp = newPool(f);
+
+		log.start();
+		assertEquals(0, cp.flush(executor(3), Duration.ofSeconds(10)));
+		awaitTermination();
+		log.assertError("on flushing pool");
+		log.assertEmpty();
+		c1.assertV(0, 0, 1);
+		c3.assertV(0, 0, 1);
+		assertEquals(1, failed().count());
+		assertEquals(0, abandoned().count());
+	}
+
+	@Test void testSequentialFailure(final PoolLog log)
+	{
+		final Pooled c1 = new Pooled();
+		final Pooled c2 = new Pooled();
+		final Pooled c3 = new Pooled();
+		final Factory f = new Factory(asList(c1, c2, c3));
+		f.failing = c2;
+		final Pool<Pooled> cp = newPool(f);
+		final Timer flush = (Timer)meter(METER_NAME + ".flush", Tags.empty(), meterRegistry);
+
+		log.start();
+		cp.flush();
+		log.assertError("on flushing pool");
+		log.assertEmpty();
+		c1.assertV(0, 0, 1);
+		c3.assertV(0, 0, 1);
+		assertEquals(1, failed().count());
+		assertEquals(1, flush.count());
+	}
+
+	private static final class Factory extends PoolTest.Factory
+	{
+		Pooled blocking;
+		final CountDownLatch unblock = new CountDownLatch(1);
+		Pooled failing;
+
+		Factory(final List<Pooled> connections)
+		{
+			super(connections);
+		}
+
+		@Override
+		public void dispose(final Pooled e)
+		{
+			if(e==failing)
+				throw new IllegalStateException("failing");
+			if(e==blocking)
+			{
+				try
+				{
+					assertTrue(unblock.await(10, TimeUnit.SECONDS));
+				}
+				catch(final InterruptedException ex)
+				{
+					throw new RuntimeException(ex);
+				}
+			}
+			super.dispose(e);
+		}
+	}
+
+	private ExecutorService executor;
+
+	private ExecutorService executor(final int threads)
+	{
+		executor = Executors.newFixedThreadPool(threads);
+		return executor;
+	}
+
+	private void awaitTermination() throws InterruptedException
+	{
+		executor.shutdown();
+		assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+	}
+
+	@AfterEach void after()
+	{
+		if(executor!=null)
+			executor.shutdownNow();
+	}
+
+	private Counter failed()
+	{
+		return (Counter)meter(METER_NAME + ".flushFailed", Tags.of("reason", "exception"), meterRegistry);
+	}
+
+	private Counter abandoned()
+	{
+		return (Counter)meter(METER_NAME + ".flushFailed", Tags.of("reason", "timeout"), meterRegistry);
+	}
+
+	private Pool<Pooled> newPool(final Factory factory)
+	{
+		final java.util.Properties props = new java.util.Properties();
+		props.setProperty("idleLimit", "3");
+		props.setProperty("idleInitial", "3");
+		final PoolProperties p = PoolProperties.factory(50).create(Sources.view(props, "DESC"));
+		final Pool<Pooled> result = new Pool<>(factory, p, null);
+		result.register(METER_NAME, Tags.empty(), meterRegistry);
+		return result;
+	}
+
+	private final MeterRegistry meterRegistry = new PrometheusMeterRegistry(key -> null);
+
+	private static final String METER_NAME = PoolFlushTest.class.getName();
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2004-2015  exedio GmbH (www.exedio.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package com.exedio.cope.util;
+
+import static com.exedio.cope.util.PoolTest.meter;
+import static java.util.Arrays.asList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.exedio.cope.util.PoolTest.Factory;
+import com.exedio.cope.util.PoolTest.Pooled;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+public class PoolHoldTimeTest
+{
+	@Test void testGet() throws InterruptedException
+	{
+		final Pooled c1 = new Pooled();
+		final Factory f = new Factory(asList(c1));
+		final Pool<Pooled> cp = newPool(f, true, "");
+
+		assertSame(c1, cp.get());
+		Thread.sleep(10);
+		cp.put(c1);
+
+		final Timer timer = timer("testGet");
+		assertEquals(1, timer.count());
+		assertTrue(timer.totalTime(TimeUnit.MILLISECONDS)>=10, String.valueOf(timer.totalTime(TimeUnit.MILLISECONDS)));
+		assertTrue(timer.takeSnapshot().histogramCounts().length>0);
+	}
+
+	@Test void testCallers()
+	{
+		final Pooled c1 = new Pooled();
+		final Factory f = new Factory(asList(c1));
+		final Pool<Pooled> cp = newPool(f, true, "");
+
+		assertSame(c1, cp.get());
+		cp.put(c1);
+		assertSame(c1, otherCaller(cp));
+		cp.put(c1);
+		assertSame(c1, otherCaller(cp));
+		cp.putAll(List.of(c1));
+
+		assertEquals(1, timer("testCallers").count());
+		assertEquals(2, timer("otherCaller").count());
+	}
+
+	private static Pooled otherCaller(final Pool<Pooled> cp)
+	{
+		return cp.get();
+	}
+
+	@Test void testSkip()
+	{
+		final Pooled c1 = new Pooled();
+		final Factory f = new Factory(asList(c1));
+		final Pool<Pooled> cp = newPool(f, true, Wrapper.class.getName() + " some.other.prefix");
+
+		assertSame(c1, Wrapper.get(cp));
+		cp.put(c1);
+
+		assertEquals(1, timer("testSkip").count());
+	}
+
+	private static final class Wrapper
+	{
+		static Pooled get(final Pool<Pooled> cp)
+		{
+			return cp.get();
+		}
+	}
+
+	@Test void testMany()
+	{
+		final Pooled c1 = new Pooled();
+		final Pooled c2 = new Pooled();
+		final Factory f = new Factory(asList(c1, c2));
+		final Pool<Pooled> cp = newPool(f, true, "");
+
+		assertEquals(List.of(c1, c2), cp.getMany(2));
+		cp.put(c1);
+		cp.putAll(List.of(c2));
+
+		assertEquals(2, timer("testMany").count());
+	}
+
+	@Test void testAsync()
+	{
+		final Pooled c1 = new Pooled();
+		final Factory f = new Factory(asList(c1));
+		final Pool<Pooled> cp = newPool(f, true, "");
+
+		assertSame(c1, cp.getAsync(Runnable::run).join());
+		cp.put(c1);
+
+		assertEquals(1, timer("testAsync").count());
+	}
+
+	@Test void testDisabled()
+	{
+		final Pooled c1 = new Pooled();
+		final Factory f = new Factory(asList(c1));
+		final Pool<Pooled> cp = newPool(f, false, "");
+
+		assertSame(c1, cp.get());
+		cp.put(c1);
+
+		assertNull(meterRegistry.find(METER_NAME + ".hold").meter());
+	}
+
+	private Timer timer(final String method)
+	{
+		return (Timer)meter(
+				METER_NAME + ".hold",
+				Tags.of("caller", PoolHoldTimeTest.class.getName() + '#' + method),
+				meterRegistry);
+	}
+
+	private Pool<Pooled> newPool(
+			final Factory factory,
+			final boolean holdTime,
+			final String holdTimeCallerSkip)
+	{
+		final java.util.Properties props = new java.util.Properties();
+		props.setProperty("idleLimit", "2");
+		props.setProperty("holdTime", String.valueOf(holdTime));
+		props.setProperty("holdTimeCallerSkip", holdTimeCallerSkip);
+		final Pool<Pooled> result = new Pool<>(
+				factory,
+				PoolProperties.factory(50).create(Sources.view(props, "DESC")),
+				null);
+		result.register(METER_NAME, Tags.empty(), meterRegistry);
+		return result;
+	}
+
+	private final MeterRegistry meterRegistry = new PrometheusMeterRegistry(key -> null);
+
+	private static final String METER_NAME = PoolHoldTimeTest.class.getName();
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2004-2015  exedio GmbH (www.exedio.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package com.exedio.cope.util;
+
+import static com.exedio.cope.util.Pool.IdleOrder.FIFO;
+import static com.exedio.cope.util.Pool.IdleOrder.LIFO;
+import static java.util.Arrays.asList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import com.exedio.cope.util.Pool.IdleOrder;
+import com.exedio.cope.util.PoolTest.Factory;
+import com.exedio.cope.util.PoolTest.Pooled;
+import com.exedio.cope.util.junit.ClockRule;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+@ExtendWith(ClockRule.Extension.class)
+public class PoolIdleOrderTest
+{
+	@Test void testFifo()
+	{
+		final Pooled c1 = new Pooled();
+		final Pooled c2 = new Pooled();
+		final Pool<Pooled> cp = newPool(new Factory(asList(c1, c2)), FIFO, "PT0S", "PT0S");
+		assertEquals(FIFO, cp.getInfo().getIdleOrder());
+
+		assertSame(c1, cp.get());
+		assertSame(c2, cp.get());
+		cp.put(c1);
+		cp.put(c2);
+		assertSame(c1, cp.get());
+		cp.put(c1);
+		assertSame(c2, cp.get());
+		cp.put(c2);
+		assertSame(c1, cp.get());
+	}
+
+	@Test void testLifo()
+	{
+		final Pooled c1 = new Pooled();
+		final Pooled c2 = new Pooled();
+		final Pool<Pooled> cp = newPool(new Factory(asList(c1, c2)), LIFO, "PT0S", "PT0S");
+		assertEquals(LIFO, cp.getInfo().getIdleOrder());
+
+		assertSame(c1, cp.get());
+		assertSame(c2, cp.get());
+		cp.put(c1);
+		cp.put(c2);
+		assertSame(c2, cp.get());
+		cp.put(c2);
+		assertSame(c2, cp.get());
+		cp.put(c2);
+		assertSame(c2, cp.get());
+		c1.assertV(0, 1, 0);
+		c2.assertV(3, 3, 0);
+	}
+
+	@Test void testLifoIdleTimeout(final ClockRule clock)
+	{
+		final Pooled c1 = new Pooled();
+		final Pooled c2 = new Pooled();
+		final Pooled c3 = new Pooled();
+		clock.override(() -> 1000);
+		final Pool<Pooled> cp = newPool(new Factory(asList(c1, c2, c3)), LIFO, "PT10S", "PT0S");
+		assertSame(c1, cp.get());
+		assertSame(c2, cp.get());
+		assertSame(c3, cp.get());
+		cp.put(c1);
+		clock.override(() -> 2000);
+		cp.put(c2);
+		clock.override(() -> 3000);
+		cp.put(c3);
+
+		clock.override(() -> 11500);
+		cp.maintain();
+		assertEquals(2, cp.getInfo().getIdleLevel());
+		c1.assertV(0, 1, 1);
+		c2.assertV(0, 1, 0);
+		c3.assertV(0, 1, 0);
+
+		assertSame(c3, cp.get());
+		assertSame(c2, cp.get());
+	}
+
+	@Test void testLifoShrink()
+	{
+		final Pooled c1 = new Pooled();
+		final Pooled c2 = new Pooled();
+		final Pooled c3 = new Pooled();
+		final Pool<Pooled> cp = newPool(new Factory(asList(c1, c2, c3)), LIFO, "PT0S", "PT0S");
+		assertSame(c1, cp.get());
+		assertSame(c2, cp.get());
+		assertSame(c3, cp.get());
+		cp.put(c1);
+		cp.put(c2);
+		cp.put(c3);
+
+		cp.reconfigure(PoolProperties.factory(1).create(Sources.EMPTY));
+		assertEquals(1, cp.getInfo().getIdleLevel());
+		assertEquals(LIFO, cp.getInfo().getIdleOrder());
+		c1.assertV(0, 1, 1);
+		c2.assertV(0, 1, 1);
+		c3.assertV(0, 1, 0);
+	}
+
+	@Test void testFifoValidationRetainsOrder(final ClockRule clock)
+	{
+		assertValidationRetainsOrder(clock, FIFO);
+	}
+
+	@Test void testLifoValidationRetainsOrder(final ClockRule clock)
+	{
+		assertValidationRetainsOrder(clock, LIFO);
+	}
+
+	private static void assertValidationRetainsOrder(final ClockRule clock, final IdleOrder order)
+	{
+		final Pooled c1 = new Pooled();
+		final Pooled c2 = new Pooled();
+		final Pooled c3 = new Pooled();
+		clock.override(() -> 1000);
+		final Pool<Pooled> cp = newPool(new Factory(asList(c1, c2, c3)), order, "PT20S", "PT5S");
+		assertSame(c1, cp.get());
+		assertSame(c2, cp.get());
+		assertSame(c3, cp.get());
+		cp.put(c1);
+		clock.override(() -> 2000);
+		cp.put(c2);
+		clock.override(() -> 9000);
+		cp.put(c3);
+
+		// validates c1 and c2
+		clock.override(() -> 10000);
+		cp.maintain();
+		c1.assertV(1, 1, 0);
+		c2.assertV(1, 1, 0);
+		c3.assertV(0, 1, 0);
+
+		// idle timeout still evicts oldest first, validates c2 and c3
+		clock.override(() -> 21000);
+		cp.maintain();
+		assertEquals(2, cp.getInfo().getIdleLevel());
+		c1.assertV(1, 1, 1);
+		c2.assertV(2, 1, 0);
+		c3.assertV(1, 1, 0);
+
+		clock.override(() -> 22000);
+		cp.maintain();
+		assertEquals(1, cp.getInfo().getIdleLevel());
+		c2.assertV(2, 1, 1);
+		c3.assertV(1, 1, 0);
+	}
+
+	private static Pool<Pooled> newPool(
+			final Factory factory,
+			final IdleOrder idleOrder,
+			final String idleTimeout,
+			final String validationInterval)
+	{
+		final java.util.Properties props = new java.util.Properties();
+		props.setProperty("idleLimit", "3");
+		props.setProperty("idleOrder", idleOrder.name());
+		props.setProperty("idleTimeout", idleTimeout);
+		props.setProperty("validationInterval", validationInterval);
+		final PoolProperties p = PoolProperties.factory(50).create(Sources.view(props, "DESC"));
+		assertEquals(idleOrder, p.getIdleOrder());
+		return new Pool<>(factory, p, null);
+	}
+}
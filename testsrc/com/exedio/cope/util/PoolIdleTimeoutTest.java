@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2004-2015  exedio GmbH (www.exedio.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package com.exedio.cope.util;
+
+import static com.exedio.cope.junit.Assert.assertFails;
+import static com.exedio.cope.util.PoolTest.meter;
+import static java.util.Arrays.asList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import com.exedio.cope.util.PoolTest.Factory;
+import com.exedio.cope.util.PoolTest.Pooled;
+import com.exedio.cope.util.junit.ClockRule;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import java.time.Duration;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+@ExtendWith(ClockRule.Extension.class)
+public class PoolIdleTimeoutTest
+{
+	@Test void testIt(final ClockRule clock)
+	{
+		final Pooled c1 = new Pooled();
+		final Pooled c2 = new Pooled();
+		final Pooled c3 = new Pooled();
+		final Factory f = new Factory(asList(c1, c2, c3));
+
+		clock.override(() -> 1000);
+		final Pool<Pooled> cp = newPool(f, "PT10S");
+		final Counter evicted = (Counter)meter(METER_NAME + ".evicted", Tags.of("reason", "idleTimeout"), meterRegistry);
+		assertSame(c1, cp.get());
+		assertSame(c2, cp.get());
+		assertSame(c3, cp.get());
+		f.assertV(3);
+
+		clock.override(() -> 2000);
+		cp.put(c1);
+		clock.override(() -> 3000);
+		cp.put(c2);
+		clock.override(() -> 4000);
+		cp.put(c3);
+		assertIt(cp, 3, 0, evicted);
+
+		// not yet timed out
+		clock.override(() -> 11999);
+		cp.maintain();
+		assertIt(cp, 3, 0, evicted);
+		c1.assertV(0, 1, 0);
+		c2.assertV(0, 1, 0);
+		c3.assertV(0, 1, 0);
+
+		// c1 timed out
+		clock.override(() -> 12000);
+		cp.maintain();
+		assertIt(cp, 2, 1, evicted);
+		c1.assertV(0, 1, 1);
+		c2.assertV(0, 1, 0);
+		c3.assertV(0, 1, 0);
+
+		// c2 and c3 timed out
+		clock.override(() -> 14000);
+		cp.maintain();
+		assertIt(cp, 0, 3, evicted);
+		c1.assertV(0, 1, 1);
+		c2.assertV(0, 1, 1);
+		c3.assertV(0, 1, 1);
+
+		cp.maintain();
+		assertIt(cp, 0, 3, evicted);
+		f.assertV(3);
+	}
+
+	@Test void testGetResetsIdleTime(final ClockRule clock)
+	{
+		final Pooled c1 = new Pooled();
+		final Factory f = new Factory(asList(c1));
+
+		clock.override(() -> 1000);
+		final Pool<Pooled> cp = newPool(f, "PT10S");
+		final Counter evicted = (Counter)meter(METER_NAME + ".evicted", Tags.of("reason", "idleTimeout"), meterRegistry);
+		assertSame(c1, cp.get());
+		cp.put(c1);
+
+		clock.override(() -> 10000);
+		assertSame(c1, cp.get());
+		cp.put(c1);
+
+		clock.override(() -> 15000);
+		cp.maintain();
+		assertIt(cp, 1, 0, evicted);
+		c1.assertV(1, 2, 0);
+
+		clock.override(() -> 20000);
+		cp.maintain();
+		assertIt(cp, 0, 1, evicted);
+		c1.assertV(1, 2, 1);
+	}
+
+	@Test void testDisabled(final ClockRule clock)
+	{
+		final Pooled c1 = new Pooled();
+		final Factory f = new Factory(asList(c1));
+
+		clock.override(() -> 1000);
+		final Pool<Pooled> cp = newPool(f, "PT0S");
+		final Counter evicted = (Counter)meter(METER_NAME + ".evicted", Tags.of("reason", "idleTimeout"), meterRegistry);
+		assertSame(c1, cp.get());
+		cp.put(c1);
+
+		clock.override(() -> Long.MAX_VALUE);
+		cp.maintain();
+		assertIt(cp, 1, 0, evicted);
+		c1.assertV(0, 1, 0);
+	}
+
+	@Test void testSchedule() throws InterruptedException
+	{
+		final Pooled c1 = new Pooled();
+		final Factory f = new Factory(asList(c1));
+		final Pool<Pooled> cp = newPool(f, "PT0.001S");
+		assertSame(c1, cp.get());
+		cp.put(c1);
+
+		final ScheduledExecutorService executor = new ScheduledThreadPoolExecutor(1);
+		try
+		{
+			final ScheduledFuture<?> future = cp.scheduleMaintenance(executor, Duration.ofMillis(1));
+			for(int i = 0; i<1000 && cp.getInfo().getIdleLevel()>0; i++)
+				//noinspection BusyWait OK: just a test
+				Thread.sleep(10);
+			future.cancel(false);
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+		assertEquals(0, cp.getInfo().getIdleLevel());
+		assertEquals(1, cp.getInfo().getEvictedIdleTimeout());
+	}
+
+	@Test void testScheduleError()
+	{
+		final Pool<Pooled> cp = newPool(new Factory(asList()), "PT0S");
+		final ScheduledExecutorService executor = new ScheduledThreadPoolExecutor(1);
+		try
+		{
+			assertFails(
+					() -> cp.scheduleMaintenance(null, null),
+					NullPointerException.class, "executor");
+			assertFails(
+					() -> cp.scheduleMaintenance(executor, null),
+					NullPointerException.class, "period");
+			assertFails(
+					() -> cp.scheduleMaintenance(executor, Duration.ZERO),
+					IllegalArgumentException.class, "period must be greater zero, but was PT0S");
+			assertFails(
+					() -> cp.scheduleMaintenance(executor, Duration.ofMillis(-1)),
+					IllegalArgumentException.class, "period must be greater zero, but was PT-0.001S");
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+	}
+
+	private static void assertIt(
+			final Pool<Pooled> pool,
+			final int idleLevel,
+			final int evicted,
+			final Counter evictedMeter)
+	{
+		final Pool.Info info = pool.getInfo();
+		assertEquals(idleLevel, info.getIdleLevel());
+		assertEquals(evicted, info.getEvictedIdleTimeout());
+		assertEquals(evicted, evictedMeter.count());
+		assertEquals(0, info.getInvalidOnGet());
+		assertEquals(0, info.getInvalidOnPut());
+	}
+
+	private Pool<Pooled> newPool(final Factory factory, final String idleTimeout)
+	{
+		final java.util.Properties props = new java.util.Properties();
+		props.setProperty("idleLimit", "3");
+		props.setProperty("idleTimeout", idleTimeout);
+		final PoolProperties p = PoolProperties.factory(50).create(Sources.view(props, "DESC"));
+		assertEquals(Duration.parse(idleTimeout), p.getIdleTimeout());
+		final Pool<Pooled> result = new Pool<>(factory, p, null);
+		result.register(METER_NAME, Tags.empty(), meterRegistry);
+		return result;
+	}
+
+	private final MeterRegistry meterRegistry = new PrometheusMeterRegistry(key -> null);
+
+	private static final String METER_NAME = PoolIdleTimeoutTest.class.getName();
+}
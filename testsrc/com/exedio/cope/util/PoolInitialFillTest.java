@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2004-2015  exedio GmbH (www.exedio.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package com.exedio.cope.util;
+
+import static java.util.Arrays.asList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.exedio.cope.util.PoolTest.Factory;
+import com.exedio.cope.util.PoolTest.Pooled;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+@ExtendWith(PoolLog.class)
+public class PoolInitialFillTest
+{
+	@Test void testSequential()
+	{
+		final Pooled c1 = new Pooled();
+		final Pooled c2 = new Pooled();
+		final Factory f = new Factory(asList(c1, c2));
+		final Pool<Pooled> cp = new Pool<>(f, newProperties(), null);
+		f.assertV(2);
+		assertEquals(2, cp.getInfo().getIdleLevel());
+
+		final CompletableFuture<Duration> fill = cp.getInitialFill();
+		assertTrue(fill.isDone());
+		assertFalse(fill.getNow(null).isNegative());
+	}
+
+	@Test void testExecutor()
+	{
+		final Pooled c1 = new Pooled();
+		final Pooled c2 = new Pooled();
+		final Factory f = new Factory(asList(c1, c2));
+		final ArrayList<Runnable> commands = new ArrayList<>();
+		final Pool<Pooled> cp = new Pool<>(f, newProperties(), null, commands::add);
+		f.assertV(0);
+		assertEquals(0, cp.getInfo().getIdleLevel());
+		assertEquals(2, commands.size());
+		assertFalse(cp.getInitialFill().isDone());
+
+		commands.get(0).run();
+		assertEquals(1, cp.getInfo().getIdleLevel());
+		assertFalse(cp.getInitialFill().isDone());
+
+		commands.get(1).run();
+		assertEquals(2, cp.getInfo().getIdleLevel());
+		assertTrue(cp.getInitialFill().isDone());
+		f.assertV(2);
+
+		assertSame(c1, cp.get());
+		assertSame(c2, cp.get());
+	}
+
+	@Test void testParallel() throws ExecutionException, InterruptedException, TimeoutException
+	{
+		// every create waits for the others, so they must run concurrently
+		final CyclicBarrier barrier = new CyclicBarrier(3);
+		final Pool.Factory<Pooled> f = new Factory(asList())
+		{
+			@Override
+			public Pooled create()
+			{
+				try
+				{
+					barrier.await(10, TimeUnit.SECONDS);
+				}
+				catch(final InterruptedException | BrokenBarrierException | TimeoutException e)
+				{
+					throw new RuntimeException(e);
+				}
+				return new Pooled();
+			}
+		};
+		executor = Executors.newFixedThreadPool(3);
+		final Pool<Pooled> cp = new Pool<>(f, newProperties(3), null, executor);
+
+		assertFalse(cp.getInitialFill().get(10, TimeUnit.SECONDS).isNegative());
+		assertEquals(3, cp.getInfo().getIdleLevel());
+	}
+
+	@Test void testFails(final PoolLog log)
+	{
+		final Pooled c1 = new Pooled();
+		final Factory f = new Factory(asList(c1));
+		final ArrayList<Runnable> commands = new ArrayList<>();
+		final Pool<Pooled> cp = new Pool<>(f, newProperties(), null, commands::add);
+
+		log.start();
+		commands.forEach(Runnable::run);
+		log.assertError("on creating initial item");
+		log.assertEmpty();
+		final ExecutionException e = assertThrows(ExecutionException.class, () -> cp.getInitialFill().get());
+		assertSame(NoSuchElementException.class, e.getCause().getClass());
+		assertEquals(1, cp.getInfo().getIdleLevel());
+	}
+
+	private ExecutorService executor;
+
+	@AfterEach void after()
+	{
+		if(executor!=null)
+			executor.shutdownNow();
+	}
+
+	private static PoolProperties newProperties()
+	{
+		return newProperties(2);
+	}
+
+	private static PoolProperties newProperties(final int idleInitial)
+	{
+		final java.util.Properties props = new java.util.Properties();
+		props.setProperty("idleLimit", "3");
+		props.setProperty("idleInitial", String.valueOf(idleInitial));
+		return PoolProperties.factory(50).create(Sources.view(props, "DESC"));
+	}
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2004-2015  exedio GmbH (www.exedio.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package com.exedio.cope.util;
+
+import static com.exedio.cope.junit.Assert.assertFails;
+import static com.exedio.cope.util.PoolTest.meter;
+import static java.util.Arrays.asList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import com.exedio.cope.util.PoolTest.Factory;
+import com.exedio.cope.util.PoolTest.Pooled;
+import com.exedio.cope.util.junit.ClockRule;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import java.time.Duration;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+@ExtendWith({ClockRule.Extension.class, PoolLog.class})
+public class PoolLeakTest
+{
+	@Test void testIt(final ClockRule clock, final PoolLog log)
+	{
+		final Pooled c1 = new Pooled();
+		final Pooled c2 = new Pooled();
+		final Factory f = new Factory(asList(c1, c2));
+		clock.override(() -> 1000);
+		final Pool<Pooled> cp = newPool(f, "PT10S", 0);
+		final Gauge leaked = (Gauge)meter(METER_NAME + ".leaked", Tags.empty(), meterRegistry);
+		log.start();
+
+		assertSame(c1, cp.get());
+		clock.override(() -> 2000);
+		assertSame(c2, cp.get());
+
+		clock.override(() -> 10999);
+		cp.maintain();
+		assertEquals(0, leaked.value());
+		log.assertEmpty();
+
+		clock.override(() -> 11000);
+		cp.maintain();
+		assertEquals(1, leaked.value());
+		log.assertWarn("leaked item not returned within 10000ms, borrowed 10000ms ago, no stack trace sampled");
+		log.assertEmpty();
+
+		// reported just once
+		clock.override(() -> 12000);
+		cp.maintain();
+		assertEquals(2, leaked.value());
+		log.assertWarn("leaked item not returned within 10000ms, borrowed 10000ms ago, no stack trace sampled");
+		log.assertEmpty();
+
+		cp.put(c1);
+		cp.maintain();
+		assertEquals(1, leaked.value());
+		log.assertEmpty();
+
+		cp.put(c2);
+		cp.maintain();
+		assertEquals(0, leaked.value());
+		log.assertEmpty();
+
+		// borrow again after return
+		assertSame(c1, cp.get());
+		clock.override(() -> 22000);
+		cp.maintain();
+		assertEquals(1, leaked.value());
+		log.assertWarn("leaked item not returned within 10000ms, borrowed 10000ms ago, no stack trace sampled");
+		log.assertEmpty();
+	}
+
+	@Test void testTrace(final ClockRule clock, final PoolLog log)
+	{
+		final Pooled c1 = new Pooled();
+		final Factory f = new Factory(asList(c1));
+		clock.override(() -> 1000);
+		final Pool<Pooled> cp = newPool(f, "PT10S", 1);
+		log.start();
+
+		assertSame(c1, cp.get());
+		clock.override(() -> 11000);
+		cp.maintain();
+		log.assertWarn("leaked item not returned within 10000ms, borrowed 10000ms ago");
+		log.assertEmpty();
+	}
+
+	@Test void testEqualItems(final ClockRule clock, final PoolLog log)
+	{
+		final EqualPooled c1 = new EqualPooled();
+		final EqualPooled c2 = new EqualPooled();
+		final Factory f = new Factory(asList(c1, c2));
+		clock.override(() -> 1000);
+		final Pool<Pooled> cp = newPool(f, "PT10S", 0);
+		final Gauge leaked = (Gauge)meter(METER_NAME + ".leaked", Tags.empty(), meterRegistry);
+		log.start();
+
+		assertSame(c1, cp.get());
+		assertSame(c2, cp.get());
+		cp.put(c1);
+
+		clock.override(() -> 11000);
+		cp.maintain();
+		assertEquals(1, leaked.value());
+		log.assertWarn("leaked item not returned within 10000ms, borrowed 10000ms ago, no stack trace sampled");
+		log.assertEmpty();
+	}
+
+	@Test void testDisabled(final ClockRule clock, final PoolLog log)
+	{
+		final Pooled c1 = new Pooled();
+		final Factory f = new Factory(asList(c1));
+		clock.override(() -> 1000);
+		final Pool<Pooled> cp = newPool(f, "PT0S", 1);
+		final Gauge leaked = (Gauge)meter(METER_NAME + ".leaked", Tags.empty(), meterRegistry);
+		log.start();
+
+		assertSame(c1, cp.get());
+		clock.override(() -> Long.MAX_VALUE);
+		cp.maintain();
+		assertEquals(0, leaked.value());
+		log.assertEmpty();
+	}
+
+	@Test void testCreateFails(final ClockRule clock, final PoolLog log)
+	{
+		final Pooled c1 = new Pooled();
+		final Factory f = new Factory(asList(c1))
+		{
+			@Override
+			public Pooled create()
+			{
+				if(createCount>0)
+					throw new IllegalStateException("create failed");
+				return super.create();
+			}
+		};
+		clock.override(() -> 1000);
+		final Pool<Pooled> cp = newPool(f, "PT10S", 0, 1);
+		final Gauge leaked = (Gauge)meter(METER_NAME + ".leaked", Tags.empty(), meterRegistry);
+		log.start();
+
+		assertSame(c1, cp.get());
+		clock.override(() -> 11000);
+		assertFails(
+				cp::maintain,
+				IllegalStateException.class,
+				"create failed");
+		assertEquals(1, leaked.value());
+		log.assertWarn("leaked item not returned within 10000ms, borrowed 10000ms ago, no stack trace sampled");
+		log.assertEmpty();
+	}
+
+	private static final class EqualPooled extends Pooled
+	{
+		@Override
+		public boolean equals(final Object other)
+		{
+			return other instanceof EqualPooled;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return 0;
+		}
+	}
+
+	private Pool<Pooled> newPool(final Factory factory, final String leakThreshold, final int leakTraceSampling)
+	{
+		return newPool(factory, leakThreshold, leakTraceSampling, 0);
+	}
+
+	private Pool<Pooled> newPool(final Factory factory, final String leakThreshold, final int leakTraceSampling, final int minIdle)
+	{
+		final java.util.Properties props = new java.util.Properties();
+		props.setProperty("idleLimit", "2");
+		props.setProperty("minIdle", String.valueOf(minIdle));
+		props.setProperty("leakThreshold", leakThreshold);
+		props.setProperty("leakTraceSampling", String.valueOf(leakTraceSampling));
+		final PoolProperties p = PoolProperties.factory(50).create(Sources.view(props, "DESC"));
+		assertEquals(Duration.parse(leakThreshold), p.getLeakThreshold());
+		assertEquals(leakTraceSampling, p.getLeakTraceSampling());
+		final Pool<Pooled> result = new Pool<>(factory, p, null);
+		result.register(METER_NAME, Tags.empty(), meterRegistry);
+		return result;
+	}
+
+	private final MeterRegistry meterRegistry = new PrometheusMeterRegistry(key -> null);
+
+	private static final String METER_NAME = PoolLeakTest.class.getName();
+}
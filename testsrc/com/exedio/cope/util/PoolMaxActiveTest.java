@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2004-2015  exedio GmbH (www.exedio.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package com.exedio.cope.util;
+
+import static com.exedio.cope.junit.Assert.assertFails;
+import static com.exedio.cope.util.PoolTest.meter;
+import static java.util.Arrays.asList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.exedio.cope.util.PoolTest.Factory;
+import com.exedio.cope.util.PoolTest.Pooled;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import java.time.Duration;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.junit.jupiter.api.Test;
+
+public class PoolMaxActiveTest
+{
+	@Test void testTimeout()
+	{
+		final Pooled c1 = new Pooled();
+		final Pooled c2 = new Pooled();
+		final Factory f = new Factory(asList(c1, c2));
+		final Pool<Pooled> cp = newPool(f, 2);
+		final Timer wait = (Timer)meter(METER_NAME + ".wait", Tags.empty(), meterRegistry);
+
+		assertSame(c1, cp.get(Duration.ZERO));
+		assertSame(c2, cp.get(Duration.ofSeconds(1)));
+		assertEquals(2, wait.count());
+		assertFails(
+				() -> cp.get(Duration.ofMillis(1)),
+				PoolExhaustedException.class,
+				"timeout while waiting for one of maxActive items, waited PT0.001S");
+		assertFails(
+				() -> cp.get(Duration.ofMillis(-1)),
+				PoolExhaustedException.class,
+				"timeout while waiting for one of maxActive items, waited PT0S");
+		assertEquals(4, wait.count());
+		f.assertV(2);
+
+		cp.put(c1);
+		assertSame(c1, cp.get(Duration.ZERO));
+		assertEquals(5, wait.count());
+		c1.assertV(1, 1, 0);
+		f.assertV(2);
+	}
+
+	@Test void testWait() throws InterruptedException, ExecutionException, TimeoutException
+	{
+		final Pooled c1 = new Pooled();
+		final Factory f = new Factory(asList(c1));
+		final Pool<Pooled> cp = newPool(f, 1);
+		final Gauge waiting = (Gauge)meter(METER_NAME + ".waiting", Tags.empty(), meterRegistry);
+		assertEquals(0, waiting.value());
+
+		assertSame(c1, cp.get());
+		final CompletableFuture<Pooled> waiter = CompletableFuture.supplyAsync(cp::get);
+		for(int i = 0; i<1000 && waiting.value()==0; i++)
+			//noinspection BusyWait OK: just a test
+			Thread.sleep(10);
+		assertEquals(1, waiting.value());
+		assertFalse(waiter.isDone());
+
+		cp.put(c1);
+		assertSame(c1, waiter.get(10, TimeUnit.SECONDS));
+		assertEquals(0, waiting.value());
+		f.assertV(1);
+	}
+
+	@Test void testInterrupt()
+	{
+		final Factory f = new Factory(asList(new Pooled()));
+		final Pool<Pooled> cp = newPool(f, 1);
+		cp.get();
+
+		Thread.currentThread().interrupt();
+		assertFails(
+				() -> cp.get(Duration.ofSeconds(10)),
+				PoolExhaustedException.class,
+				"interrupted while waiting for one of maxActive items",
+				InterruptedException.class);
+		assertTrue(Thread.interrupted());
+	}
+
+	@Test void testCreateFails()
+	{
+		final Pooled c1 = new Pooled();
+		final Factory f = new Factory(asList(c1));
+		final Pool<Pooled> cp = newPool(f, 1);
+
+		assertSame(c1, cp.get());
+		cp.put(c1);
+		c1.isValidOnGet = false;
+		assertFails(
+				() -> cp.get(Duration.ZERO),
+				NoSuchElementException.class, null);
+
+		// permit has been released by failing create
+		assertFails(
+				() -> cp.get(Duration.ZERO),
+				NoSuchElementException.class, null);
+	}
+
+	@Test void testInvalidOnPut()
+	{
+		final Pooled c1 = new Pooled();
+		final Pooled c2 = new Pooled();
+		final Factory f = new Factory(asList(c1, c2));
+		final Pool<Pooled> cp = newPool(f, 1);
+
+		assertSame(c1, cp.get());
+		c1.isValidOnPut = false;
+		cp.put(c1);
+		assertSame(c2, cp.get(Duration.ZERO));
+		f.assertV(2);
+	}
+
+	@Test void testUnlimited()
+	{
+		final Pooled c1 = new Pooled();
+		final Pooled c2 = new Pooled();
+		final Factory f = new Factory(asList(c1, c2));
+		final Pool<Pooled> cp = newPool(f, 0);
+		final Timer wait = (Timer)meter(METER_NAME + ".wait", Tags.empty(), meterRegistry);
+		final Gauge waiting = (Gauge)meter(METER_NAME + ".waiting", Tags.empty(), meterRegistry);
+
+		assertSame(c1, cp.get(Duration.ZERO));
+		assertSame(c2, cp.get(Duration.ZERO));
+		assertEquals(0, wait.count());
+		assertEquals(0, waiting.value());
+	}
+
+	@Test void testError()
+	{
+		final Pool<Pooled> cp = newPool(new Factory(asList()), 1);
+		assertFails(
+				() -> cp.get(null),
+				NullPointerException.class, "timeout");
+	}
+
+	private Pool<Pooled> newPool(final Factory factory, final int maxActive)
+	{
+		final java.util.Properties props = new java.util.Properties();
+		props.setProperty("idleLimit", "1");
+		props.setProperty("maxActive", String.valueOf(maxActive));
+		final PoolProperties p = PoolProperties.factory(50).create(Sources.view(props, "DESC"));
+		assertEquals(maxActive, p.getMaxActive());
+		final Pool<Pooled> result = new Pool<>(factory, p, null);
+		result.register(METER_NAME, Tags.empty(), meterRegistry);
+		return result;
+	}
+
+	private final MeterRegistry meterRegistry = new PrometheusMeterRegistry(key -> null);
+
+	private static final String METER_NAME = PoolMaxActiveTest.class.getName();
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2004-2015  exedio GmbH (www.exedio.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package com.exedio.cope.util;
+
+import static com.exedio.cope.junit.Assert.assertFails;
+import static com.exedio.cope.util.PoolTest.meter;
+import static java.util.Arrays.asList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import com.exedio.cope.util.PoolTest.Factory;
+import com.exedio.cope.util.PoolTest.Pooled;
+import com.exedio.cope.util.junit.ClockRule;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+@ExtendWith(ClockRule.Extension.class)
+public class PoolMaxLifetimeTest
+{
+	@Test void testPut(final ClockRule clock)
+	{
+		final Pooled c1 = new Pooled();
+		final Pooled c2 = new Pooled();
+		final Factory f = new Factory(asList(c1, c2));
+
+		clock.override(() -> 1000);
+		final Pool<Pooled> cp = newPool(f, "PT10S", "PT0S");
+		final Counter evicted = (Counter)meter(METER_NAME + ".evicted", Tags.of("reason", "maxLifetime"), meterRegistry);
+		assertSame(c1, cp.get());
+
+		clock.override(() -> 10999);
+		cp.put(c1);
+		assertEquals(1, cp.getInfo().getIdleLevel());
+
+		// get does not retire items
+		clock.override(() -> 11000);
+		assertSame(c1, cp.get());
+		c1.assertV(1, 1, 0);
+
+		clock.override(() -> 12000);
+		cp.put(c1);
+		assertEquals(0, cp.getInfo().getIdleLevel());
+		c1.assertV(1, 1, 1);
+		assertEquals(1, evicted.count());
+		assertEquals(1, cp.getInfo().getEvictedMaxLifetime());
+
+		// new item lives from now on
+		assertSame(c2, cp.get());
+		clock.override(() -> 21999);
+		cp.put(c2);
+		assertEquals(1, cp.getInfo().getIdleLevel());
+		f.assertV(2);
+	}
+
+	@Test void testPutAll(final ClockRule clock)
+	{
+		final Pooled c1 = new Pooled();
+		final Pooled c2 = new Pooled();
+		final Factory f = new Factory(asList(c1, c2));
+
+		clock.override(() -> 1000);
+		final Pool<Pooled> cp = newPool(f, "PT10S", "PT0S");
+		assertSame(c1, cp.get());
+		clock.override(() -> 2000);
+		assertSame(c2, cp.get());
+
+		clock.override(() -> 11000);
+		cp.putAll(asList(c1, c2));
+		assertEquals(1, cp.getInfo().getIdleLevel());
+		c1.assertV(0, 0, 1);
+		c2.assertV(0, 1, 0);
+		assertEquals(1, cp.getInfo().getEvictedMaxLifetime());
+	}
+
+	@Test void testMaintain(final ClockRule clock)
+	{
+		final Pooled c1 = new Pooled();
+		final Pooled c2 = new Pooled();
+		final Factory f = new Factory(asList(c1, c2));
+
+		clock.override(() -> 1000);
+		final Pool<Pooled> cp = newPool(f, "PT10S", "PT0S");
+		assertSame(c1, cp.get());
+		clock.override(() -> 2000);
+		assertSame(c2, cp.get());
+		cp.put(c2);
+		cp.put(c1);
+
+		clock.override(() -> 10999);
+		cp.maintain();
+		assertEquals(2, cp.getInfo().getIdleLevel());
+
+		clock.override(() -> 11000);
+		cp.maintain();
+		assertEquals(1, cp.getInfo().getIdleLevel());
+		c1.assertV(0, 1, 1);
+		c2.assertV(0, 1, 0);
+
+		clock.override(() -> 12000);
+		cp.maintain();
+		assertEquals(0, cp.getInfo().getIdleLevel());
+		c2.assertV(0, 1, 1);
+		assertEquals(2, cp.getInfo().getEvictedMaxLifetime());
+	}
+
+	@Test void testJitter(final ClockRule clock)
+	{
+		final ArrayList<Pooled> items = new ArrayList<>();
+		for(int i = 0; i<20; i++)
+			items.add(new Pooled());
+		final Factory f = new Factory(items);
+
+		clock.override(() -> 1000);
+		final Pool<Pooled> cp = newPool(f, "PT100S", "PT10S");
+		final List<Pooled> many = cp.getMany(20);
+		cp.putAll(many);
+		assertEquals(20, cp.getInfo().getIdleLevel());
+
+		// jitter shortens lifetime by at most 10 seconds
+		clock.override(() -> 90999);
+		cp.maintain();
+		assertEquals(20, cp.getInfo().getIdleLevel());
+
+		clock.override(() -> 101000);
+		cp.maintain();
+		assertEquals(0, cp.getInfo().getIdleLevel());
+		assertEquals(20, cp.getInfo().getEvictedMaxLifetime());
+	}
+
+	@Test void testPropertiesError()
+	{
+		assertFails(
+				() -> newProperties("PT10S", "PT11S"),
+				IllegalPropertiesException.class,
+				"property 'maxLifetimeJitter' in DESC must be less or equal maxLifetime=PT10S, but was PT11S");
+	}
+
+	private Pool<Pooled> newPool(final Factory factory, final String maxLifetime, final String maxLifetimeJitter)
+	{
+		final Pool<Pooled> result = new Pool<>(factory, newProperties(maxLifetime, maxLifetimeJitter), null);
+		result.register(METER_NAME, Tags.empty(), meterRegistry);
+		return result;
+	}
+
+	private static PoolProperties newProperties(final String maxLifetime, final String maxLifetimeJitter)
+	{
+		final java.util.Properties props = new java.util.Properties();
+		props.setProperty("idleLimit", "20");
+		props.setProperty("maxLifetime", maxLifetime);
+		props.setProperty("maxLifetimeJitter", maxLifetimeJitter);
+		return PoolProperties.factory(50).create(Sources.view(props, "DESC"));
+	}
+
+	private final MeterRegistry meterRegistry = new PrometheusMeterRegistry(key -> null);
+
+	private static final String METER_NAME = PoolMaxLifetimeTest.class.getName();
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright (C) 2004-2015  exedio GmbH (www.exedio.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package com.exedio.cope.util;
+
+import static com.exedio.cope.junit.Assert.assertFails;
+import static com.exedio.cope.util.PoolTest.meter;
+import static java.util.Arrays.asList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import com.exedio.cope.util.PoolTest.Factory;
+import com.exedio.cope.util.PoolTest.Pooled;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.time.Duration;
+import javax.management.Notification;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+/**
+ * Uses a threshold never exceeded by the tests,
+ * so memory pressure is entered by the test only.
+ */
+@ExtendWith(PoolLog.class)
+public class PoolMemoryPressureTest
+{
+	@Test void testPressure(final PoolLog log)
+	{
+		final Pooled c1 = new Pooled();
+		final Pooled c2 = new Pooled();
+		final Pooled c3 = new Pooled();
+		final Pooled c4 = new Pooled();
+		final Factory f = new Factory(asList(c1, c2, c3, c4));
+		final Pool<Pooled> cp = newPool(f, "3");
+		final Gauge gauge = (Gauge)meter(METER_NAME + ".memoryPressure", Tags.empty(), meterRegistry);
+		assertEquals(3, cp.getInfo().getIdleLevel());
+		assertEquals(0, gauge.value());
+		log.start();
+
+		cp.enterMemoryPressure();
+		log.assertWarn("memory pressure, reducing idle limit from 3 to 1");
+		assertEquals(1, cp.getInfo().getIdleLimit());
+		assertEquals(1, cp.getInfo().getIdleLevel());
+		assertEquals(1, gauge.value());
+		c1.assertV(0, 0, 1);
+		c2.assertV(0, 0, 1);
+		c3.assertV(0, 0, 0);
+
+		// notified again
+		cp.enterMemoryPressure();
+		log.assertEmpty();
+
+		assertSame(c3, cp.get());
+		assertSame(c4, cp.get());
+		cp.put(c3);
+		cp.put(c4);
+		c4.assertV(0, 1, 1);
+		assertEquals(1, cp.getInfo().getIdleLevel());
+
+		cp.maintain();
+		log.assertInfo("memory pressure gone, restoring idle limit to 3");
+		log.assertEmpty();
+		assertEquals(3, cp.getInfo().getIdleLimit());
+		assertEquals(1, cp.getInfo().getIdleLevel());
+		assertEquals(0, gauge.value());
+		f.assertV(4);
+	}
+
+	@Test void testReconfigure(final PoolLog log)
+	{
+		final Factory f = new Factory(asList());
+		final Pool<Pooled> cp = newPool(f, "0");
+		log.start();
+
+		cp.enterMemoryPressure();
+		log.assertWarn("memory pressure, reducing idle limit from 3 to 1");
+
+		final java.util.Properties props = new java.util.Properties();
+		props.setProperty("idleLimit", "2");
+		cp.reconfigure(newProperties("1", props));
+		assertEquals(1, cp.getInfo().getIdleLimit());
+
+		cp.maintain();
+		log.assertInfo("memory pressure gone, restoring idle limit to 2");
+		assertEquals(2, cp.getInfo().getIdleLimit());
+	}
+
+	@Test void testClosed(final PoolLog log)
+	{
+		final Factory f = new Factory(asList());
+		final Pool<Pooled> cp = newPool(f, "0");
+		cp.close(Duration.ZERO);
+		log.start();
+
+		cp.enterMemoryPressure();
+		log.assertEmpty();
+		assertEquals(3, cp.getInfo().getIdleLimit());
+	}
+
+	@Test void testNotification(final PoolLog log) throws OpenDataException
+	{
+		final MemoryPoolMXBean bean = watchedBean();
+		final long max = bean.getUsage().getMax();
+		final Factory f = new Factory(asList());
+		final Pool<Pooled> cp = newPool(f, "0");
+		final NotificationListener listener = cp.getMemoryListener();
+		log.start();
+
+		listener.handleNotification(notification(
+				MemoryNotificationInfo.MEMORY_THRESHOLD_EXCEEDED, bean.getName(), max), null);
+		listener.handleNotification(notification(
+				MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED, "otherMemoryPool", max), null);
+		listener.handleNotification(notification(
+				MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED, bean.getName(), 0), null);
+		log.assertEmpty();
+		assertEquals(3, cp.getInfo().getIdleLimit());
+
+		listener.handleNotification(notification(
+				MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED, bean.getName(), max), null);
+		log.assertWarn("memory pressure, reducing idle limit from 3 to 1");
+		log.assertEmpty();
+		assertEquals(1, cp.getInfo().getIdleLimit());
+	}
+
+	@Test void testThresholdRestored()
+	{
+		final MemoryPoolMXBean bean = watchedBean();
+		final long before = bean.getCollectionUsageThreshold();
+		final long threshold = bean.getUsage().getMax() / 100 * 100;
+		final Factory f = new Factory(asList());
+		final Pool<Pooled> cp = newPool(f, "0");
+		assertEquals(before>0 ? Math.min(before, threshold) : threshold, bean.getCollectionUsageThreshold());
+
+		cp.close(Duration.ZERO);
+		assertEquals(before, bean.getCollectionUsageThreshold());
+		cp.close(Duration.ZERO);
+		assertEquals(before, bean.getCollectionUsageThreshold());
+	}
+
+	private static MemoryPoolMXBean watchedBean()
+	{
+		for(final MemoryPoolMXBean bean : ManagementFactory.getMemoryPoolMXBeans())
+			if(bean.getType()==MemoryType.HEAP &&
+				bean.isCollectionUsageThresholdSupported() &&
+				bean.getUsage().getMax()>0)
+				return bean;
+		assumeTrue(false, "no heap memory pool supporting collection usage threshold");
+		throw new AssertionError();
+	}
+
+	private static Notification notification(
+			final String type,
+			final String poolName,
+			final long used)
+			throws OpenDataException
+	{
+		final String[] usageItems = {"init", "used", "committed", "max"};
+		final CompositeType usageType = new CompositeType(
+				MemoryUsage.class.getName(), "MemoryUsage", usageItems, usageItems,
+				new OpenType<?>[]{SimpleType.LONG, SimpleType.LONG, SimpleType.LONG, SimpleType.LONG});
+		final CompositeData usage = new CompositeDataSupport(
+				usageType, usageItems, new Object[]{0L, used, used, used});
+
+		final String[] infoItems = {"poolName", "usage", "count"};
+		final CompositeType infoType = new CompositeType(
+				MemoryNotificationInfo.class.getName(), "MemoryNotificationInfo", infoItems, infoItems,
+				new OpenType<?>[]{SimpleType.STRING, usageType, SimpleType.LONG});
+		final Notification result = new Notification(type, "source", 1);
+		result.setUserData(new CompositeDataSupport(
+				infoType, infoItems, new Object[]{poolName, usage, 1L}));
+		return result;
+	}
+
+	@AfterEach void after()
+	{
+		if(pool!=null)
+			pool.close(Duration.ZERO);
+	}
+
+	@Test void testPropertiesError()
+	{
+		assertFails(
+				() -> newProperties("4"),
+				IllegalPropertiesException.class,
+				"property 'memoryPressureIdleLimit' in DESC must be less or equal idleLimit=3, but was 4");
+	}
+
+	private Pool<Pooled> pool;
+
+	private Pool<Pooled> newPool(final Factory factory, final String idleInitial)
+	{
+		final java.util.Properties props = new java.util.Properties();
+		props.setProperty("idleLimit", "3");
+		props.setProperty("idleInitial", idleInitial);
+		pool = new Pool<>(factory, newProperties("1", props), null);
+		pool.register(METER_NAME, Tags.empty(), meterRegistry);
+		return pool;
+	}
+
+	private static PoolProperties newProperties(final String memoryPressureIdleLimit)
+	{
+		final java.util.Properties props = new java.util.Properties();
+		props.setProperty("idleLimit", "3");
+		return newProperties(memoryPressureIdleLimit, props);
+	}
+
+	private static PoolProperties newProperties(
+			final String memoryPressureIdleLimit,
+			final java.util.Properties props)
+	{
+		props.setProperty("memoryPressureThreshold", "100");
+		props.setProperty("memoryPressureIdleLimit", memoryPressureIdleLimit);
+		return PoolProperties.factory(50).create(Sources.view(props, "DESC"));
+	}
+
+	private final MeterRegistry meterRegistry = new PrometheusMeterRegistry(key -> null);
+
+	private static final String METER_NAME = PoolMemoryPressureTest.class.getName();
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2004-2015  exedio GmbH (www.exedio.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package com.exedio.cope.util;
+
+import static java.util.Arrays.asList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import com.exedio.cope.util.PoolTest.Factory;
+import com.exedio.cope.util.PoolTest.Pooled;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+public class PoolMetricsTest
+{
+	@Test void testIt()
+	{
+		final Pooled c1 = new Pooled();
+		final Pooled c2 = new Pooled();
+		final Factory f = new Factory(asList(c1, c2));
+		final Pool<Pooled> cp = PoolTest.newPool(f, 1, 0, null);
+		cp.register(METER_NAME, Tags.of("some", "tag"), meterRegistry);
+
+		assertIt(0, 0, 0, 0, 0, 0);
+
+		assertSame(c1, cp.get());
+		assertIt(1, 0, 0, 0, 0, 1);
+
+		assertSame(c2, cp.get());
+		assertIt(2, 0, 0, 0, 0, 2);
+
+		cp.put(c1);
+		assertIt(2, 0, 1, 0, 1, 1);
+
+		cp.put(c2);
+		assertIt(2, 0, 2, 1, 1, 0);
+
+		assertSame(c1, cp.get());
+		assertIt(2, 1, 2, 1, 0, 1);
+
+		c1.isValidOnPut = false;
+		cp.put(c1);
+		assertIt(2, 1, 3, 1, 0, 0);
+
+		c1.assertV(1, 2, 0);
+		c2.assertV(0, 1, 1);
+	}
+
+	private void assertIt(
+			final int create,
+			final int validateOnGet,
+			final int validateOnPut,
+			final int dispose,
+			final int idle,
+			final int borrowed)
+	{
+		assertEquals(create,        ((Timer)meter(METER_NAME + ".create",   Tags.of("some", "tag"))).count(), "create");
+		assertEquals(validateOnGet, ((Timer)meter(METER_NAME + ".validate", Tags.of("some", "tag", "operation", "get"))).count(), "validateOnGet");
+		assertEquals(validateOnPut, ((Timer)meter(METER_NAME + ".validate", Tags.of("some", "tag", "operation", "put"))).count(), "validateOnPut");
+		assertEquals(dispose,       ((Timer)meter(METER_NAME + ".dispose",  Tags.of("some", "tag"))).count(), "dispose");
+		assertEquals(idle,          ((Gauge)meter(METER_NAME + ".idle",     Tags.of("some", "tag"))).value(), "idle");
+		assertEquals(borrowed,      ((Gauge)meter(METER_NAME + ".borrowed", Tags.of("some", "tag"))).value(), "borrowed");
+	}
+
+	private Meter meter(final String name, final Tags tags)
+	{
+		return PoolTest.meter(name, tags, meterRegistry);
+	}
+
+	private final MeterRegistry meterRegistry = new PrometheusMeterRegistry(key -> null);
+
+	private static final String METER_NAME = PoolMetricsTest.class.getName();
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2004-2015  exedio GmbH (www.exedio.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package com.exedio.cope.util;
+
+import static com.exedio.cope.junit.Assert.assertFails;
+import static java.util.Arrays.asList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import com.exedio.cope.util.PoolTest.Factory;
+import com.exedio.cope.util.PoolTest.Pooled;
+import java.time.Duration;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import org.junit.jupiter.api.Test;
+
+public class PoolMinIdleTest
+{
+	@Test void testMaintain()
+	{
+		final Pooled c1 = new Pooled();
+		final Pooled c2 = new Pooled();
+		final Pooled c3 = new Pooled();
+		final Factory f = new Factory(asList(c1, c2, c3));
+		final Pool<Pooled> cp = newPool(f, 3, 2);
+		assertEquals(0, cp.getInfo().getIdleLevel());
+		f.assertV(0);
+
+		cp.maintain();
+		assertEquals(2, cp.getInfo().getIdleLevel());
+		f.assertV(2);
+
+		cp.maintain();
+		assertEquals(2, cp.getInfo().getIdleLevel());
+		f.assertV(2);
+
+		// get does not refill without executor
+		assertSame(c1, cp.get());
+		assertEquals(1, cp.getInfo().getIdleLevel());
+		f.assertV(2);
+
+		cp.maintain();
+		assertEquals(2, cp.getInfo().getIdleLevel());
+		f.assertV(3);
+
+		// put beyond minIdle
+		cp.put(c1);
+		assertEquals(3, cp.getInfo().getIdleLevel());
+		cp.maintain();
+		assertEquals(3, cp.getInfo().getIdleLevel());
+		f.assertV(3);
+	}
+
+	@Test void testCreateFails()
+	{
+		final Pooled c1 = new Pooled();
+		final Factory f = new Factory(asList(c1));
+		final Pool<Pooled> cp = newPool(f, 3, 2);
+
+		assertFails(
+				cp::maintain,
+				NoSuchElementException.class, null);
+		assertEquals(1, cp.getInfo().getIdleLevel());
+		f.assertV(2);
+
+		assertSame(c1, cp.get());
+		cp.put(c1);
+		assertEquals(1, cp.getInfo().getIdleLevel());
+		c1.assertV(1, 1, 0);
+	}
+
+	@Test void testDisabled()
+	{
+		final Factory f = new Factory(asList());
+		final Pool<Pooled> cp = newPool(f, 3, 0);
+
+		cp.maintain();
+		assertEquals(0, cp.getInfo().getIdleLevel());
+		f.assertV(0);
+	}
+
+	@Test void testRequestedByGet() throws InterruptedException
+	{
+		final Pooled c1 = new Pooled();
+		final Pooled c2 = new Pooled();
+		final Pooled c3 = new Pooled();
+		final Factory f = new Factory(asList(c1, c2, c3));
+		final Pool<Pooled> cp = newPool(f, 3, 2);
+		cp.maintain();
+		assertEquals(2, cp.getInfo().getIdleLevel());
+
+		final ScheduledExecutorService executor = new ScheduledThreadPoolExecutor(1);
+		try
+		{
+			cp.scheduleMaintenance(executor, Duration.ofHours(1));
+			assertSame(c1, cp.get());
+			for(int i = 0; i<1000 && cp.getInfo().getIdleLevel()<2; i++)
+				//noinspection BusyWait OK: just a test
+				Thread.sleep(10);
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+		assertEquals(2, cp.getInfo().getIdleLevel());
+		f.assertV(3);
+
+		// executor shut down, no refill anymore
+		assertSame(c2, cp.get());
+		assertEquals(1, cp.getInfo().getIdleLevel());
+		f.assertV(3);
+	}
+
+	@Test void testReconfigure()
+	{
+		final Factory f = new Factory(asList(new Pooled(), new Pooled(), new Pooled()));
+		final Pool<Pooled> cp = newPool(f, 3, 1);
+		cp.maintain();
+		assertEquals(1, cp.getInfo().getIdleLevel());
+
+		cp.reconfigure(newProperties(3, 3));
+		cp.maintain();
+		assertEquals(3, cp.getInfo().getIdleLevel());
+		f.assertV(3);
+	}
+
+	@Test void testPropertiesError()
+	{
+		assertFails(
+				() -> newProperties(1, 2),
+				IllegalPropertiesException.class,
+				"property 'minIdle' in DESC must be less or equal idleLimit=1, but was 2");
+	}
+
+	private static Pool<Pooled> newPool(final Factory factory, final int idleLimit, final int minIdle)
+	{
+		return new Pool<>(factory, newProperties(idleLimit, minIdle), null);
+	}
+
+	private static PoolProperties newProperties(final int idleLimit, final int minIdle)
+	{
+		final java.util.Properties props = new java.util.Properties();
+		props.setProperty("idleLimit", String.valueOf(idleLimit));
+		props.setProperty("minIdle", String.valueOf(minIdle));
+		final PoolProperties result = PoolProperties.factory(50).create(Sources.view(props, "DESC"));
+		assertEquals(minIdle, result.getMinIdle());
+		return result;
+	}
+}
@@ -20,6 +20,8 @@
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 
+import java.time.Duration;
+import java.util.List;
 import org.junit.jupiter.api.Test;
 
 public class PoolPropertiesTest
@@ -29,6 +31,26 @@
 		final PoolProperties p = PoolProperties.factory(55).create(Sources.EMPTY);
 		assertEquals(0,  p.getIdleInitial());
 		assertEquals(55, p.getIdleLimit());
+		assertEquals(Duration.ZERO, p.getIdleTimeout());
+		assertEquals(Pool.IdleOrder.FIFO, p.getIdleOrder());
+		assertEquals(0, p.getMaxActive());
+		assertEquals(0, p.getMinIdle());
+		assertEquals(Duration.ZERO, p.getValidationInterval());
+		assertEquals(Duration.ZERO, p.getMaxLifetime());
+		assertEquals(Duration.ZERO, p.getMaxLifetimeJitter());
+		assertEquals(Duration.ZERO, p.getLeakThreshold());
+		assertEquals(0, p.getLeakTraceSampling());
+		assertEquals(false, p.isThreadAffine());
+		assertEquals(0, p.getAutoTuneLoss());
+		assertEquals(0, p.getAutoTuneHysteresis());
+		assertEquals(Duration.ofMinutes(1), p.getAutoTuneInterval());
+		assertEquals(0, p.getMaxCreating());
+		assertEquals(0, p.getBreakerThreshold());
+		assertEquals(Duration.ofSeconds(10), p.getBreakerBackoff());
+		assertEquals(0, p.getMemoryPressureThreshold());
+		assertEquals(0, p.getMemoryPressureIdleLimit());
+		assertEquals(false, p.isHoldTime());
+		assertEquals(List.of(), p.getHoldTimeCallerSkip());
 	}
 	@Test void testSet()
 	{
@@ -41,6 +63,26 @@ public String get(final String key)
 				{
 					case "idleInitial" -> "22";
 					case "idleLimit"   -> "33";
+					case "idleTimeout" -> "PT44S";
+					case "idleOrder"   -> "LIFO";
+					case "maxActive"   -> "55";
+					case "minIdle"     -> "11";
+					case "validationInterval" -> "PT66S";
+					case "maxLifetime"        -> "PT200S";
+					case "maxLifetimeJitter"  -> "PT20S";
+					case "leakThreshold"      -> "PT77S";
+					case "leakTraceSampling"  -> "88";
+					case "threadAffine"       -> "true";
+					case "autoTuneLoss"       -> "10";
+					case "autoTuneHysteresis" -> "3";
+					case "autoTuneInterval"   -> "PT99S";
+					case "maxCreating"        -> "4";
+					case "breakerThreshold"   -> "5";
+					case "breakerBackoff"     -> "PT30S";
+					case "memoryPressureThreshold" -> "70";
+					case "memoryPressureIdleLimit" -> "6";
+					case "holdTime"                -> "true";
+					case "holdTimeCallerSkip"      -> "com.example.Wrapper com.example.other";
 					default -> super.get(key);
 				};
 			}
@@ -52,5 +94,25 @@ public String getDescription()
 		});
 		assertEquals(22, p.getIdleInitial());
 		assertEquals(33, p.getIdleLimit());
+		assertEquals(Duration.ofSeconds(44), p.getIdleTimeout());
+		assertEquals(Pool.IdleOrder.LIFO, p.getIdleOrder());
+		assertEquals(55, p.getMaxActive());
+		assertEquals(11, p.getMinIdle());
+		assertEquals(Duration.ofSeconds(66), p.getValidationInterval());
+		assertEquals(Duration.ofSeconds(200), p.getMaxLifetime());
+		assertEquals(Duration.ofSeconds(20), p.getMaxLifetimeJitter());
+		assertEquals(Duration.ofSeconds(77), p.getLeakThreshold());
+		assertEquals(88, p.getLeakTraceSampling());
+		assertEquals(true, p.isThreadAffine());
+		assertEquals(10, p.getAutoTuneLoss());
+		assertEquals(3, p.getAutoTuneHysteresis());
+		assertEquals(Duration.ofSeconds(99), p.getAutoTuneInterval());
+		assertEquals(4, p.getMaxCreating());
+		assertEquals(5, p.getBreakerThreshold());
+		assertEquals(Duration.ofSeconds(30), p.getBreakerBackoff());
+		assertEquals(70, p.getMemoryPressureThreshold());
+		assertEquals(6, p.getMemoryPressureIdleLimit());
+		assertEquals(true, p.isHoldTime());
+		assertEquals(List.of("com.example.Wrapper", "com.example.other"), p.getHoldTimeCallerSkip());
 	}
 }
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2004-2015  exedio GmbH (www.exedio.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package com.exedio.cope.util;
+
+import static com.exedio.cope.junit.Assert.assertFails;
+import static java.util.Arrays.asList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import com.exedio.cope.util.Properties.Source;
+import com.exedio.cope.util.PoolTest.Factory;
+import com.exedio.cope.util.PoolTest.Pooled;
+import java.time.Duration;
+import org.junit.jupiter.api.Test;
+
+public class PoolReconfigureTest
+{
+	@Test void testShrinkAndGrow()
+	{
+		final Pooled c1 = new Pooled();
+		final Pooled c2 = new Pooled();
+		final Pooled c3 = new Pooled();
+		final Factory f = new Factory(asList(c1, c2, c3));
+
+		final java.util.Properties props = new java.util.Properties();
+		props.setProperty("idleLimit", "3");
+		final Source source = Sources.reloadable(() -> Sources.view(props, "DESC"));
+		final Pool<Pooled> cp = new Pool<>(f, PoolProperties.factory(50).create(source), null);
+		assertSame(c1, cp.get());
+		assertSame(c2, cp.get());
+		assertSame(c3, cp.get());
+		cp.put(c1);
+		cp.put(c2);
+		cp.put(c3);
+		assertEquals(3, cp.getInfo().getIdleLimit());
+		assertEquals(3, cp.getInfo().getIdleLevel());
+
+		// shrink disposes oldest items
+		props.setProperty("idleLimit", "1");
+		cp.reconfigure(PoolProperties.factory(50).create(source.reload()));
+		assertEquals(1, cp.getInfo().getIdleLimit());
+		assertEquals(1, cp.getInfo().getIdleLevel());
+		c1.assertV(0, 1, 1);
+		c2.assertV(0, 1, 1);
+		c3.assertV(0, 1, 0);
+
+		// grow retains items
+		props.setProperty("idleLimit", "2");
+		cp.reconfigure(PoolProperties.factory(50).create(source.reload()));
+		assertEquals(2, cp.getInfo().getIdleLimit());
+		assertEquals(1, cp.getInfo().getIdleLevel());
+		c3.assertV(0, 1, 0);
+
+		assertSame(c3, cp.get());
+		cp.put(c3);
+		assertEquals(1, cp.getInfo().getIdleLevel());
+		c3.assertV(1, 2, 0);
+		f.assertV(3);
+	}
+
+	@Test void testShrinkToZero()
+	{
+		final Pooled c1 = new Pooled();
+		final Factory f = new Factory(asList(c1));
+
+		final Pool<Pooled> cp = PoolTest.newPool(f, 1, 1, null);
+		assertEquals(1, cp.getInfo().getIdleLevel());
+
+		cp.reconfigure(newProperties("0", "PT0S"));
+		assertEquals(0, cp.getInfo().getIdleLimit());
+		assertEquals(0, cp.getInfo().getIdleLevel());
+		assertEquals(1, cp.getInfo().getIdleInitial());
+		c1.assertV(0, 0, 1);
+
+		// put disposes because there is no idle
+		cp.put(c1);
+		assertEquals(0, cp.getInfo().getIdleLevel());
+		c1.assertV(0, 1, 2);
+	}
+
+	@Test void testIdleTimeout()
+	{
+		final Pooled c1 = new Pooled();
+		final Factory f = new Factory(asList(c1));
+
+		final Pool<Pooled> cp = PoolTest.newPool(f, 1, 1, null);
+		cp.maintain();
+		assertEquals(1, cp.getInfo().getIdleLevel());
+
+		cp.reconfigure(newProperties("1", "PT0.001S"));
+		Clock.override(() -> Long.MAX_VALUE);
+		try
+		{
+			cp.maintain();
+		}
+		finally
+		{
+			Clock.clearOverride();
+		}
+		assertEquals(0, cp.getInfo().getIdleLevel());
+		c1.assertV(0, 0, 1);
+	}
+
+	@Test void testError()
+	{
+		final Pool<Pooled> cp = PoolTest.newPool(new Factory(asList()), 1, 0, null);
+		assertFails(
+				() -> cp.reconfigure(null),
+				NullPointerException.class, "properties");
+	}
+
+	private static PoolProperties newProperties(final String idleLimit, final String idleTimeout)
+	{
+		final java.util.Properties props = new java.util.Properties();
+		props.setProperty("idleLimit", idleLimit);
+		props.setProperty("idleTimeout", idleTimeout);
+		final PoolProperties result = PoolProperties.factory(50).create(Sources.view(props, "DESC"));
+		assertEquals(Duration.parse(idleTimeout), result.getIdleTimeout());
+		return result;
+	}
+}
@@ -0,0 +1,317 @@
+/*
+ * Copyright (C) 2004-2015  exedio GmbH (www.exedio.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package com.exedio.cope.util;
+
+import static com.exedio.cope.junit.Assert.assertFails;
+import static com.exedio.cope.util.PoolTest.meter;
+import static java.util.Arrays.asList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.exedio.cope.util.PoolTest.Factory;
+import com.exedio.cope.util.PoolTest.Pooled;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+public class PoolRefreshTest
+{
+	@Test void testIdle() throws ExecutionException, InterruptedException, TimeoutException
+	{
+		final Pooled c1 = new Pooled();
+		final Pooled c2 = new Pooled();
+		final Pooled c3 = new Pooled();
+		final Pooled c4 = new Pooled();
+		final Factory f = new Factory(asList(c1, c2, c3, c4));
+		final Pool<Pooled> cp = newPool(f);
+		f.assertV(2);
+
+		cp.refresh(executor, Duration.ofMillis(1)).get(10, TimeUnit.SECONDS);
+		f.assertV(4);
+		c1.assertV(0, 0, 1);
+		c2.assertV(0, 0, 1);
+		assertEquals(2, cp.getInfo().getIdleLevel());
+		assertEquals(0, cp.getInfo().getRefreshRemaining());
+		assertEquals(2, cp.getInfo().getEvictedRefresh());
+		assertEquals(2, evicted.count());
+
+		assertSame(c3, cp.get());
+		assertSame(c4, cp.get());
+		cp.put(c3);
+		c3.assertV(1, 1, 0);
+	}
+
+	@Test void testBorrowed() throws ExecutionException, InterruptedException, TimeoutException
+	{
+		final Pooled c1 = new Pooled();
+		final Pooled c2 = new Pooled();
+		final Pooled c3 = new Pooled();
+		final Factory f = new Factory(asList(c1, c2, c3));
+		final Pool<Pooled> cp = newPool(f);
+		assertSame(c1, cp.get());
+		assertSame(c2, cp.get());
+
+		// does not wait for items in use
+		final CompletableFuture<Void> refresh = cp.refresh(executor, Duration.ofMillis(1));
+		refresh.get(10, TimeUnit.SECONDS);
+		assertEquals(0, cp.getInfo().getRefreshRemaining());
+
+		// items in use are disposed when returned after the refresh has completed
+		cp.put(c1);
+		c1.assertV(1, 0, 1);
+		assertEquals(0, cp.getInfo().getIdleLevel());
+
+		assertSame(c3, cp.get());
+		cp.put(c3);
+		c3.assertV(0, 1, 0);
+		assertEquals(1, cp.getInfo().getIdleLevel());
+
+		cp.putAll(asList(c2));
+		c2.assertV(1, 0, 1);
+		assertEquals(1, cp.getInfo().getIdleLevel());
+		assertEquals(0, cp.getInfo().getRefreshRemaining());
+		assertEquals(2, cp.getInfo().getEvictedRefresh());
+		f.assertV(3);
+	}
+
+	@Test void testReplacedWhenReturned() throws ExecutionException, InterruptedException, TimeoutException
+	{
+		final Pooled c1 = new Pooled();
+		final Pooled c2 = new Pooled();
+		final Pooled c3 = new Pooled();
+		final Pooled c4 = new Pooled();
+		final Factory f = new Factory(asList(c1, c2, c3, c4));
+		final Pool<Pooled> cp = newPool(f);
+
+		final CompletableFuture<Void> refresh = cp.refresh(executor, Duration.ofHours(1));
+		assertFalse(refresh.isDone());
+		assertEquals(2, cp.getInfo().getRefreshRemaining());
+		assertEquals(2, cp.getInfo().getIdleLevel());
+
+		// stale items are still handed out, but not taken back
+		assertSame(c1, cp.get());
+		assertEquals(2, cp.getInfo().getRefreshRemaining());
+		cp.put(c1);
+		c1.assertV(1, 0, 1);
+
+		// replaced in the background
+		awaitExecutor();
+		assertEquals(2, cp.getInfo().getIdleLevel());
+		assertEquals(1, cp.getInfo().getRefreshRemaining());
+		assertFalse(refresh.isDone());
+		f.assertV(3);
+
+		assertSame(c2, cp.get());
+		cp.putAll(asList(c2));
+		c2.assertV(1, 0, 1);
+		awaitExecutor();
+		assertEquals(2, cp.getInfo().getIdleLevel());
+		assertEquals(0, cp.getInfo().getRefreshRemaining());
+		assertTrue(refresh.isDone());
+		assertEquals(2, cp.getInfo().getEvictedRefresh());
+		f.assertV(4);
+
+		// items created meanwhile are fresh
+		assertSame(c3, cp.get());
+		cp.put(c3);
+		c3.assertV(1, 1, 0);
+		assertEquals(2, cp.getInfo().getIdleLevel());
+	}
+
+	@Test void testRefreshAgain() throws ExecutionException, InterruptedException, TimeoutException
+	{
+		final Pooled c1 = new Pooled();
+		final Pooled c2 = new Pooled();
+		final Pooled c3 = new Pooled();
+		final Pooled c4 = new Pooled();
+		final Pooled c5 = new Pooled();
+		final Pooled c6 = new Pooled();
+		final Factory f = new Factory(asList(c1, c2, c3, c4, c5, c6));
+		final Pool<Pooled> cp = newPool(f);
+
+		cp.refresh(executor, Duration.ofMillis(1)).get(10, TimeUnit.SECONDS);
+		f.assertV(4);
+
+		// no stale item left, generations are dropped
+		cp.maintain();
+		assertSame(c3, cp.get());
+		cp.put(c3);
+		c3.assertV(1, 1, 0);
+
+		cp.refresh(executor, Duration.ofMillis(1)).get(10, TimeUnit.SECONDS);
+		f.assertV(6);
+		c3.assertV(1, 1, 1);
+		c4.assertV(0, 0, 1);
+		assertEquals(2, cp.getInfo().getIdleLevel());
+		assertEquals(4, cp.getInfo().getEvictedRefresh());
+
+		cp.maintain();
+		assertSame(c5, cp.get());
+		cp.put(c5);
+		c5.assertV(1, 1, 0);
+	}
+
+	@Test void testCreatedWhileRefreshBegins() throws ExecutionException, InterruptedException, TimeoutException
+	{
+		final Pooled c1 = new Pooled();
+		final CountDownLatch creating = new CountDownLatch(1);
+		final CountDownLatch created = new CountDownLatch(1);
+		final Factory f = new Factory(asList(c1))
+		{
+			@Override
+			public Pooled create()
+			{
+				creating.countDown();
+				try
+				{
+					assertTrue(created.await(10, TimeUnit.SECONDS));
+				}
+				catch(final InterruptedException e)
+				{
+					throw new RuntimeException(e);
+				}
+				return super.create();
+			}
+		};
+		final Pool<Pooled> cp = newPool(f, 0);
+
+		final ExecutorService getter = Executors.newSingleThreadExecutor();
+		try
+		{
+			final Future<Pooled> get = getter.submit(() -> cp.get());
+			assertTrue(creating.await(10, TimeUnit.SECONDS));
+			assertTrue(cp.refresh(executor, Duration.ofHours(1)).isDone());
+			created.countDown();
+			assertSame(c1, get.get(10, TimeUnit.SECONDS));
+		}
+		finally
+		{
+			getter.shutdownNow();
+		}
+
+		// creation has begun before the refresh, may use old credentials
+		cp.put(c1);
+		c1.assertV(0, 0, 1);
+		assertEquals(0, cp.getInfo().getIdleLevel());
+		assertEquals(1, cp.getInfo().getEvictedRefresh());
+	}
+
+	@Test void testSupersede()
+	{
+		final Pooled c1 = new Pooled();
+		final Pooled c2 = new Pooled();
+		final Factory f = new Factory(asList(c1, c2));
+		final Pool<Pooled> cp = newPool(f);
+
+		final CompletableFuture<Void> refresh1 = cp.refresh(executor, Duration.ofHours(1));
+		final CompletableFuture<Void> refresh2 = cp.refresh(executor, Duration.ofHours(1));
+		assertTrue(refresh1.isDone());
+		assertFalse(refresh2.isDone());
+		assertEquals(2, cp.getInfo().getRefreshRemaining());
+	}
+
+	@Test void testEmpty()
+	{
+		final Factory f = new Factory(asList());
+		final Pool<Pooled> cp = newPool(f, 0);
+
+		assertTrue(cp.refresh(executor, Duration.ofHours(1)).isDone());
+		assertEquals(0, cp.getInfo().getRefreshRemaining());
+	}
+
+	@Test void testClosed()
+	{
+		final Pooled c1 = new Pooled();
+		final Pooled c2 = new Pooled();
+		final Factory f = new Factory(asList(c1, c2));
+		final Pool<Pooled> cp = newPool(f);
+
+		final CompletableFuture<Void> refresh = cp.refresh(executor, Duration.ofHours(1));
+		cp.close(Duration.ZERO);
+		assertTrue(refresh.isDone());
+		assertEquals(0, cp.getInfo().getRefreshRemaining());
+		assertFails(
+				() -> cp.refresh(executor, Duration.ofHours(1)),
+				IllegalStateException.class,
+				"pool is closed");
+	}
+
+	@Test void testIntervalInvalid()
+	{
+		final Factory f = new Factory(asList());
+		final Pool<Pooled> cp = newPool(f, 0);
+		assertFails(
+				() -> cp.refresh(executor, Duration.ZERO),
+				IllegalArgumentException.class,
+				"interval must be greater zero, but was PT0S");
+	}
+
+	private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+
+	/**
+	 * Waits until all tasks submitted to {@link #executor} before have completed.
+	 */
+	private void awaitExecutor() throws ExecutionException, InterruptedException, TimeoutException
+	{
+		executor.submit(() -> {}).get(10, TimeUnit.SECONDS);
+	}
+
+	@AfterEach void after()
+	{
+		executor.shutdownNow();
+	}
+
+	private Pool<Pooled> newPool(final Factory factory)
+	{
+		return newPool(factory, 2);
+	}
+
+	private Pool<Pooled> newPool(final Factory factory, final int idleInitial)
+	{
+		final java.util.Properties props = new java.util.Properties();
+		props.setProperty("idleLimit", "2");
+		props.setProperty("idleInitial", String.valueOf(idleInitial));
+		final Pool<Pooled> result = new Pool<>(
+				factory,
+				PoolProperties.factory(50).create(Sources.view(props, "DESC")),
+				null);
+		final MeterRegistry meterRegistry = new PrometheusMeterRegistry(key -> null);
+		result.register(METER_NAME, Tags.empty(), meterRegistry);
+		evicted = (Counter)meter(METER_NAME + ".evicted", Tags.of("reason", "refresh"), meterRegistry);
+		return result;
+	}
+
+	private static final String METER_NAME = PoolRefreshTest.class.getName();
+	private Counter evicted;
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2004-2015  exedio GmbH (www.exedio.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package com.exedio.cope.util;
+
+import static com.exedio.cope.junit.Assert.assertFails;
+import static java.util.Arrays.asList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import com.exedio.cope.util.PoolTest.Factory;
+import com.exedio.cope.util.PoolTest.Pooled;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+public class PoolStripeTest
+{
+	@Test void testHomeStripe() throws ExecutionException, InterruptedException, TimeoutException
+	{
+		final Pooled c1 = new Pooled();
+		final Pooled c2 = new Pooled();
+		final Factory f = new Factory(asList(c1, c2));
+		final Pool<Pooled> cp = newPool(f, "LIFO", 4);
+		final ExecutorService other = otherStripe(4);
+
+		assertSame(c1, cp.get());
+		assertSame(c2, cp.get());
+		cp.put(c1);
+		inThread(other, () -> cp.put(c2));
+
+		// LIFO would return c2
+		assertSame(c1, cp.get());
+		assertSame(c2, cp.get());
+		assertEquals(0, cp.getInfo().getIdleLevel());
+		f.assertV(2);
+	}
+
+	@Test void testOtherStripe() throws ExecutionException, InterruptedException, TimeoutException
+	{
+		final Pooled c1 = new Pooled();
+		final Pooled c2 = new Pooled();
+		final Factory f = new Factory(asList(c1, c2));
+		final Pool<Pooled> cp = newPool(f, "FIFO", 4);
+		final ExecutorService other = otherStripe(4);
+
+		assertSame(c1, cp.get());
+		cp.put(c1);
+		assertSame(c1, fromThread(other, cp::get));
+		assertEquals(0, cp.getInfo().getIdleLevel());
+		inThread(other, () -> cp.put(c1));
+		assertSame(c1, cp.get());
+		f.assertV(1);
+	}
+
+	@Test void testFlush() throws ExecutionException, InterruptedException, TimeoutException
+	{
+		final Pooled c1 = new Pooled();
+		final Pooled c2 = new Pooled();
+		final Factory f = new Factory(asList(c1, c2));
+		final Pool<Pooled> cp = newPool(f, "FIFO", 4);
+		final ExecutorService other = otherStripe(4);
+
+		assertSame(c1, cp.get());
+		assertSame(c2, cp.get());
+		cp.put(c1);
+		inThread(other, () -> cp.put(c2));
+		assertEquals(2, cp.getInfo().getIdleLevel());
+
+		cp.flush();
+		c1.assertV(0, 1, 1);
+		c2.assertV(0, 1, 1);
+		assertEquals(0, cp.getInfo().getIdleLevel());
+	}
+
+	@Test void testProcessorsZero()
+	{
+		final Factory f = new Factory(asList());
+		assertFails(
+				() -> newPool(f, "FIFO", 0),
+				IllegalArgumentException.class,
+				"processors must be greater than zero, but was 0");
+	}
+
+	/**
+	 * Returns an executor with a thread
+	 * having a home stripe different from the current thread.
+	 */
+	private ExecutorService otherStripe(final int stripes) throws ExecutionException, InterruptedException, TimeoutException
+	{
+		final long home = Thread.currentThread().getId() & (stripes-1);
+		while(true)
+		{
+			final ExecutorService result = Executors.newSingleThreadExecutor();
+			executors.add(result);
+			if((fromThread(result, () -> Thread.currentThread().getId()) & (stripes-1))!=home)
+				return result;
+		}
+	}
+
+	private final ArrayList<ExecutorService> executors = new ArrayList<>();
+
+	@AfterEach void after()
+	{
+		for(final ExecutorService executor : executors)
+			executor.shutdownNow();
+	}
+
+	private static void inThread(final ExecutorService executor, final Runnable runnable) throws ExecutionException, InterruptedException, TimeoutException
+	{
+		CompletableFuture.runAsync(runnable, executor).get(10, TimeUnit.SECONDS);
+	}
+
+	private static <T> T fromThread(final ExecutorService executor, final Supplier<T> supplier) throws ExecutionException, InterruptedException, TimeoutException
+	{
+		return CompletableFuture.supplyAsync(supplier, executor).get(10, TimeUnit.SECONDS);
+	}
+
+	private static Pool<Pooled> newPool(final Factory factory, final String idleOrder, final int processors)
+	{
+		final java.util.Properties props = new java.util.Properties();
+		props.setProperty("idleLimit", "2");
+		props.setProperty("idleOrder", idleOrder);
+		final PoolProperties p = PoolProperties.factory(50).create(Sources.view(props, "DESC"));
+		return new Pool<>(factory, p, null, null, processors);
+	}
+}
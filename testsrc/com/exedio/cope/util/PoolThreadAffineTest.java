@@ -0,0 +1,236 @@
+/*
+ * Copyright (C) 2004-2015  exedio GmbH (www.exedio.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package com.exedio.cope.util;
+
+import static com.exedio.cope.util.PoolTest.meter;
+import static java.util.Arrays.asList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import com.exedio.cope.util.PoolTest.Factory;
+import com.exedio.cope.util.PoolTest.Pooled;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+public class PoolThreadAffineTest
+{
+	@Test void testFifo()
+	{
+		final Pooled c1 = new Pooled();
+		final Pooled c2 = new Pooled();
+		final Factory f = new Factory(asList(c1, c2));
+		final Pool<Pooled> cp = newPool(f, "FIFO", true);
+		final Counter affine = (Counter)meter(METER_NAME + ".threadAffine", Tags.empty(), meterRegistry);
+
+		assertSame(c1, cp.get());
+		assertSame(c2, cp.get());
+		cp.put(c1);
+		cp.put(c2);
+
+		// FIFO would return c1
+		assertSame(c2, cp.get());
+		assertEquals(1, cp.getInfo().getIdleLevel());
+		assertEquals(1, affine.count());
+
+		// no item returned since
+		assertSame(c1, cp.get());
+		assertEquals(0, cp.getInfo().getIdleLevel());
+		assertEquals(1, affine.count());
+		f.assertV(2);
+	}
+
+	@Test void testLifo() throws ExecutionException, InterruptedException, TimeoutException
+	{
+		final Pooled c1 = new Pooled();
+		final Pooled c2 = new Pooled();
+		final Factory f = new Factory(asList(c1, c2));
+		final Pool<Pooled> cp = newPool(f, "LIFO", true);
+		final Counter affine = (Counter)meter(METER_NAME + ".threadAffine", Tags.empty(), meterRegistry);
+
+		assertSame(c1, cp.get());
+		assertSame(c2, cp.get());
+		cp.put(c1);
+		inOtherThread(() -> cp.put(c2));
+
+		// LIFO would return c2
+		assertSame(c1, cp.get());
+		assertEquals(1, cp.getInfo().getIdleLevel());
+		assertEquals(1, affine.count());
+		f.assertV(2);
+	}
+
+	@Test void testTakenByOtherThread() throws ExecutionException, InterruptedException, TimeoutException
+	{
+		final Pooled c1 = new Pooled();
+		final Pooled c2 = new Pooled();
+		final Factory f = new Factory(asList(c1, c2));
+		final Pool<Pooled> cp = newPool(f, "FIFO", true);
+		final Counter affine = (Counter)meter(METER_NAME + ".threadAffine", Tags.empty(), meterRegistry);
+
+		assertSame(c1, cp.get());
+		cp.put(c1);
+		inOtherThread(() -> assertSame(c1, cp.get()));
+
+		assertSame(c2, cp.get());
+		assertEquals(0, cp.getInfo().getIdleLevel());
+		assertEquals(0, affine.count());
+		f.assertV(2);
+	}
+
+	@Test void testTakenByOtherThreadLifo() throws ExecutionException, InterruptedException, TimeoutException
+	{
+		final Pooled c1 = new Pooled();
+		final Pooled c2 = new Pooled();
+		final Pooled c3 = new Pooled();
+		final Factory f = new Factory(asList(c1, c2, c3));
+		final Pool<Pooled> cp = newPool(f, "LIFO", true);
+		final Counter affine = (Counter)meter(METER_NAME + ".threadAffine", Tags.empty(), meterRegistry);
+
+		assertSame(c1, cp.get());
+		assertSame(c2, cp.get());
+		cp.put(c1);
+		inOtherThread(() -> cp.put(c2));
+		inOtherThread(() -> assertSame(c2, cp.get()));
+		assertEquals(1, affine.count());
+		inOtherThread(() -> assertSame(c1, cp.get()));
+
+		// misses c1 without waiting for it
+		assertSame(c3, cp.get());
+		assertEquals(0, cp.getInfo().getIdleLevel());
+		assertEquals(1, affine.count());
+		f.assertV(3);
+	}
+
+	@Test void testDisplaced() throws ExecutionException, InterruptedException, TimeoutException
+	{
+		final Pooled c1 = new Pooled();
+		final Pooled c2 = new Pooled();
+		final Pooled c3 = new Pooled();
+		final Factory f = new Factory(asList(c1, c2, c3));
+		final Pool<Pooled> cp = newPool(f, "FIFO", true);
+		final Counter affine = (Counter)meter(METER_NAME + ".threadAffine", Tags.empty(), meterRegistry);
+
+		assertSame(c1, cp.get());
+		assertSame(c2, cp.get());
+		cp.put(c1);
+		cp.put(c2);
+		assertSame(c2, cp.get());
+		assertEquals(1, affine.count());
+
+		// c1 displaced by c2 is idle for other threads
+		inOtherThread(() -> assertSame(c1, cp.get()));
+		inOtherThread(() -> assertSame(c3, cp.get()));
+		assertEquals(0, cp.getInfo().getIdleLevel());
+		f.assertV(3);
+	}
+
+	@Test void testFlush()
+	{
+		final Pooled c1 = new Pooled();
+		final Factory f = new Factory(asList(c1));
+		final Pool<Pooled> cp = newPool(f, "FIFO", true);
+		final Counter affine = (Counter)meter(METER_NAME + ".threadAffine", Tags.empty(), meterRegistry);
+
+		for(int i = 0; i<100; i++)
+		{
+			assertSame(c1, cp.get());
+			cp.put(c1);
+		}
+		assertEquals(99, affine.count());
+		assertEquals(1, cp.getInfo().getIdleLevel());
+		cp.flush();
+		c1.assertV(99, 100, 1);
+		assertEquals(0, cp.getInfo().getIdleLevel());
+	}
+
+	@Test void testInvalid()
+	{
+		final Pooled c1 = new Pooled();
+		final Pooled c2 = new Pooled();
+		final Factory f = new Factory(asList(c1, c2));
+		final Pool<Pooled> cp = newPool(f, "FIFO", true);
+
+		assertSame(c1, cp.get());
+		assertSame(c2, cp.get());
+		cp.put(c1);
+		cp.put(c2);
+		c2.isValidOnGet = false;
+
+		assertSame(c1, cp.get());
+		c2.assertV(1, 1, 0);
+		assertEquals(0, cp.getInfo().getIdleLevel());
+		assertEquals(1, cp.getInfo().getInvalidOnGet());
+	}
+
+	@Test void testDisabled()
+	{
+		final Pooled c1 = new Pooled();
+		final Pooled c2 = new Pooled();
+		final Factory f = new Factory(asList(c1, c2));
+		final Pool<Pooled> cp = newPool(f, "FIFO", false);
+		final Counter affine = (Counter)meter(METER_NAME + ".threadAffine", Tags.empty(), meterRegistry);
+
+		assertSame(c1, cp.get());
+		assertSame(c2, cp.get());
+		cp.put(c1);
+		cp.put(c2);
+
+		assertSame(c1, cp.get());
+		assertEquals(0, affine.count());
+	}
+
+	private final ExecutorService otherThread = Executors.newSingleThreadExecutor();
+
+	@AfterEach void after()
+	{
+		otherThread.shutdownNow();
+	}
+
+	private void inOtherThread(final Runnable runnable) throws ExecutionException, InterruptedException, TimeoutException
+	{
+		CompletableFuture.runAsync(runnable, otherThread).get(10, TimeUnit.SECONDS);
+	}
+
+	private Pool<Pooled> newPool(final Factory factory, final String idleOrder, final boolean threadAffine)
+	{
+		final java.util.Properties props = new java.util.Properties();
+		props.setProperty("idleLimit", "2");
+		props.setProperty("idleOrder", idleOrder);
+		props.setProperty("threadAffine", String.valueOf(threadAffine));
+		final PoolProperties p = PoolProperties.factory(50).create(Sources.view(props, "DESC"));
+		assertEquals(threadAffine, p.isThreadAffine());
+		final Pool<Pooled> result = new Pool<>(factory, p, null);
+		result.register(METER_NAME, Tags.empty(), meterRegistry);
+		return result;
+	}
+
+	private final MeterRegistry meterRegistry = new PrometheusMeterRegistry(key -> null);
+
+	private static final String METER_NAME = PoolThreadAffineTest.class.getName();
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2004-2015  exedio GmbH (www.exedio.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package com.exedio.cope.util;
+
+import static com.exedio.cope.util.PoolTest.meter;
+import static java.util.Arrays.asList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import com.exedio.cope.util.PoolTest.Pooled;
+import com.exedio.cope.util.junit.ClockRule;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+@ExtendWith({ClockRule.Extension.class, PoolLog.class})
+public class PoolValidateAllTest
+{
+	@Test void testBatch(final ClockRule clock)
+	{
+		final Pooled c1 = new Pooled();
+		final Pooled c2 = new Pooled();
+		final Pooled c3 = new Pooled();
+		final Factory f = new Factory(asList(c1, c2, c3));
+		clock.override(() -> 1000);
+		final Pool<Pooled> cp = newPool(f);
+		final Timer validateOnIdle = (Timer)meter(METER_NAME + ".validate", Tags.of("operation", "idle"), meterRegistry);
+		assertSame(c1, cp.get());
+		assertSame(c2, cp.get());
+		assertSame(c3, cp.get());
+		cp.put(c1);
+		cp.put(c2);
+		clock.override(() -> 5000);
+		cp.put(c3);
+
+		// c1 and c2 validated in one batch, c3 validated recently
+		f.invalid.add(c2);
+		clock.override(() -> 11000);
+		cp.maintain();
+		assertEquals(List.of(List.of(c2, c1)), f.batches);
+		c1.assertV(0, 1, 0);
+		c2.assertV(0, 1, 1);
+		c3.assertV(0, 1, 0);
+		assertEquals(2, cp.getInfo().getIdleLevel());
+		assertEquals(1, cp.getInfo().getInvalidOnIdle());
+		assertEquals(1, validateOnIdle.count());
+
+		// order retained
+		assertSame(c1, cp.get());
+		assertSame(c3, cp.get());
+		f.assertV(3);
+	}
+
+	@Test void testFails(final ClockRule clock, final PoolLog log)
+	{
+		final Pooled c1 = new Pooled();
+		final Pooled c2 = new Pooled();
+		final Factory f = new Factory(asList(c1, c2));
+		clock.override(() -> 1000);
+		final Pool<Pooled> cp = newPool(f);
+		assertSame(c1, cp.get());
+		assertSame(c2, cp.get());
+		cp.put(c1);
+		cp.put(c2);
+		log.start();
+
+		f.failure = new IllegalStateException("batch failed");
+		clock.override(() -> 11000);
+		cp.maintain();
+		log.assertError("on validating idle items");
+		log.assertEmpty();
+		c1.assertV(0, 1, 1);
+		c2.assertV(0, 1, 1);
+		assertEquals(0, cp.getInfo().getIdleLevel());
+		assertEquals(2, cp.getInfo().getInvalidOnIdle());
+	}
+
+	@Test void testDefault()
+	{
+		final Pooled c1 = new Pooled();
+		final Pooled c2 = new Pooled();
+		final PoolTest.Factory f = new PoolTest.Factory(List.of());
+		c2.isValidOnGet = false;
+
+		assertEquals(List.of(c2), f.validateAll(List.of(c1, c2)));
+		c1.assertV(1, 0, 0);
+		c2.assertV(1, 0, 0);
+	}
+
+	private static final class Factory extends PoolTest.Factory
+	{
+		final ArrayList<List<Pooled>> batches = new ArrayList<>();
+		final ArrayList<Pooled> invalid = new ArrayList<>();
+		RuntimeException failure = null;
+
+		Factory(final List<Pooled> connections)
+		{
+			super(connections);
+		}
+
+		@Override
+		public boolean isValidOnGet(final Pooled e)
+		{
+			throw new AssertionError("must not be called");
+		}
+
+		@Override
+		public List<Pooled> validateAll(final List<Pooled> items)
+		{
+			batches.add(List.copyOf(items));
+			if(failure!=null)
+				throw failure;
+			final ArrayList<Pooled> result = new ArrayList<>();
+			for(final Pooled e : items)
+				if(invalid.contains(e))
+					result.add(e);
+			return result;
+		}
+	}
+
+	private Pool<Pooled> newPool(final Factory factory)
+	{
+		final java.util.Properties props = new java.util.Properties();
+		props.setProperty("idleLimit", "3");
+		props.setProperty("validationInterval", "PT10S");
+		final Pool<Pooled> result = new Pool<>(
+				factory,
+				PoolProperties.factory(50).create(Sources.view(props, "DESC")),
+				null);
+		result.register(METER_NAME, Tags.empty(), meterRegistry);
+		return result;
+	}
+
+	private final MeterRegistry meterRegistry = new PrometheusMeterRegistry(key -> null);
+
+	private static final String METER_NAME = PoolValidateAllTest.class.getName();
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2004-2015  exedio GmbH (www.exedio.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package com.exedio.cope.util;
+
+import static com.exedio.cope.util.PoolTest.meter;
+import static java.util.Arrays.asList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import com.exedio.cope.util.PoolTest.Factory;
+import com.exedio.cope.util.PoolTest.Pooled;
+import com.exedio.cope.util.junit.ClockRule;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import java.time.Duration;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+@ExtendWith(ClockRule.Extension.class)
+public class PoolValidationIntervalTest
+{
+	@Test void testGet(final ClockRule clock)
+	{
+		final Pooled c1 = new Pooled();
+		final Factory f = new Factory(asList(c1));
+		clock.override(() -> 1000);
+		final Pool<Pooled> cp = newPool(f, "PT10S");
+		final Timer validateOnGet = (Timer)meter(METER_NAME + ".validate", Tags.of("operation", "get"), meterRegistry);
+
+		assertSame(c1, cp.get());
+		clock.override(() -> 2000);
+		cp.put(c1);
+		c1.assertV(0, 1, 0);
+
+		// validated recently by put
+		clock.override(() -> 11999);
+		assertSame(c1, cp.get());
+		c1.assertV(0, 1, 0);
+		assertEquals(0, validateOnGet.count());
+
+		clock.override(() -> 12000);
+		cp.put(c1);
+
+		// not validated within interval
+		clock.override(() -> 22000);
+		assertSame(c1, cp.get());
+		c1.assertV(1, 2, 0);
+		assertEquals(1, validateOnGet.count());
+		f.assertV(1);
+	}
+
+	@Test void testMaintain(final ClockRule clock)
+	{
+		final Pooled c1 = new Pooled();
+		final Pooled c2 = new Pooled();
+		final Factory f = new Factory(asList(c1, c2));
+		clock.override(() -> 1000);
+		final Pool<Pooled> cp = newPool(f, "PT10S");
+		final Timer validateOnIdle = (Timer)meter(METER_NAME + ".validate", Tags.of("operation", "idle"), meterRegistry);
+		final Counter invalidOnIdle = (Counter)meter(METER_NAME + ".invalid", Tags.of("operation", "idle"), meterRegistry);
+		assertSame(c1, cp.get());
+		assertSame(c2, cp.get());
+		cp.put(c1);
+		clock.override(() -> 2000);
+		cp.put(c2);
+
+		// c1 validated while idle
+		clock.override(() -> 11500);
+		cp.maintain();
+		c1.assertV(1, 1, 0);
+		c2.assertV(0, 1, 0);
+		assertEquals(2, cp.getInfo().getIdleLevel());
+		assertEquals(1, validateOnIdle.count());
+
+		// c2 invalid while idle
+		c2.isValidOnGet = false;
+		clock.override(() -> 12000);
+		cp.maintain();
+		c1.assertV(1, 1, 0);
+		c2.assertV(1, 1, 1);
+		assertEquals(1, cp.getInfo().getIdleLevel());
+		assertEquals(1, cp.getInfo().getInvalidOnIdle());
+		assertEquals(1, invalidOnIdle.count());
+		assertEquals(0, cp.getInfo().getInvalidOnGet());
+		assertEquals(2, validateOnIdle.count());
+
+		// c1 still first and not validated again
+		clock.override(() -> 21499);
+		assertSame(c1, cp.get());
+		c1.assertV(1, 1, 0);
+		f.assertV(2);
+	}
+
+	@Test void testIdleTimeout(final ClockRule clock)
+	{
+		final Pooled c1 = new Pooled();
+		final Pooled c2 = new Pooled();
+		final Pooled c3 = new Pooled();
+		final Factory f = new Factory(asList(c1, c2, c3));
+		clock.override(() -> 1000);
+		final Pool<Pooled> cp = newPool(f, "PT0.05S", "PT0.2S");
+		assertSame(c1, cp.get());
+		assertSame(c2, cp.get());
+		assertSame(c3, cp.get());
+		cp.put(c1);
+		clock.override(() -> 1040);
+		cp.put(c2);
+		cp.put(c3);
+
+		clock.override(() -> 1060);
+		cp.maintain();
+		c1.assertV(1, 1, 0);
+		c2.assertV(0, 1, 0);
+		c3.assertV(0, 1, 0);
+
+		// c2 and c3 added back at the oldest end, before c1
+		clock.override(() -> 1100);
+		cp.maintain();
+		c1.assertV(1, 1, 0);
+		c2.assertV(1, 1, 0);
+		c3.assertV(1, 1, 0);
+
+		// c1 evicted nevertheless
+		clock.override(() -> 1210);
+		cp.maintain();
+		c1.assertV(1, 1, 1);
+		c2.assertV(2, 1, 0);
+		c3.assertV(2, 1, 0);
+		assertEquals(2, cp.getInfo().getIdleLevel());
+		assertEquals(1, cp.getInfo().getEvictedIdleTimeout());
+		f.assertV(3);
+	}
+
+	@Test void testDisabled(final ClockRule clock)
+	{
+		final Pooled c1 = new Pooled();
+		final Factory f = new Factory(asList(c1));
+		clock.override(() -> 1000);
+		final Pool<Pooled> cp = newPool(f, "PT0S");
+		final Timer validateOnGet = (Timer)meter(METER_NAME + ".validate", Tags.of("operation", "get"), meterRegistry);
+
+		assertSame(c1, cp.get());
+		cp.put(c1);
+		cp.maintain();
+		c1.assertV(0, 1, 0);
+
+		assertSame(c1, cp.get());
+		c1.assertV(1, 1, 0);
+		assertEquals(1, validateOnGet.count());
+	}
+
+	private Pool<Pooled> newPool(final Factory factory, final String validationInterval)
+	{
+		return newPool(factory, validationInterval, "PT0S");
+	}
+
+	private Pool<Pooled> newPool(final Factory factory, final String validationInterval, final String idleTimeout)
+	{
+		final java.util.Properties props = new java.util.Properties();
+		props.setProperty("idleLimit", "3");
+		props.setProperty("validationInterval", validationInterval);
+		props.setProperty("idleTimeout", idleTimeout);
+		final PoolProperties p = PoolProperties.factory(50).create(Sources.view(props, "DESC"));
+		assertEquals(Duration.parse(validationInterval), p.getValidationInterval());
+		assertEquals(Duration.parse(idleTimeout), p.getIdleTimeout());
+		final Pool<Pooled> result = new Pool<>(factory, p, null);
+		result.register(METER_NAME, Tags.empty(), meterRegistry);
+		return result;
+	}
+
+	private final MeterRegistry meterRegistry = new PrometheusMeterRegistry(key -> null);
+
+	private static final String METER_NAME = PoolValidationIntervalTest.class.getName();
+}
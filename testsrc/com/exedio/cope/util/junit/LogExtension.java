@@ -93,11 +93,21 @@ public final void afterEach(final ExtensionContext context)
 		}
 	}
 
+	public final void assertInfo(final String msg)
+	{
+		assertMessage(Level.INFO, msg);
+	}
+
 	public final void assertWarn(final String msg)
 	{
 		assertMessage(Level.WARN, msg);
 	}
 
+	public final void assertError(final String msg)
+	{
+		assertMessage(Level.ERROR, msg);
+	}
+
 	private void assertMessage(
 			final Level level,
 			final String msg)